@@ -154,8 +154,29 @@ public class SI {
         }
         Logger.flush(Mote.WARN);
 
+        // Data frames from the relay aggregate several payloads, each record
+        // holds the source address (2 bytes), the payload length and the payload
+        if (data[0] == Radio.FCF_DATA) {
+            int i = 11;
+            while (i + 3 <= len) {
+                int length = data[i + 2] & 0xFF;
+                if (i + 3 + length > len)
+                    break;
+
+                SI.onPayload(Util.get16le(data, i));
+                i += 3 + length;
+            }
+        } else {
+            SI.onPayload(Util.get16le(data, 9));
+        }
+
+        return 0;
+    }
+
+    // Called for every payload received, on its own or as part of an aggregated frame
+    private static void onPayload(int sourceAddress) {
         // Mark the source as seen
-        int source = Util.get16le(data, 9) - address - 1;
+        int source = sourceAddress - address - 1;
         sourcesSeen[source] = MARKS_PER_SOURCE;
 
         // add logging code to log out the originating source (for marking)
@@ -165,8 +186,6 @@ public class SI {
         } else {
             outPhasePackets = outPhasePackets + 1;
         }
-
-        return 0;
     }
 
     // Called when the predefined demo period passes
@@ -10,8 +10,15 @@
  */
 
 package embs;
+import com.ibm.saguaro.system.*;
 
 public class Frame {
+    /**
+     * Number of frames created, frames are meant to be pooled (see FrameBuffer)
+     * so this should stay constant once the relay is running
+     */
+    private static int allocationCount = 0;
+
     private int panID;
     private int address;
     private byte[] payload;
@@ -30,6 +37,22 @@ public class Frame {
         this.payload = payload;
         this.time = time;
         this.payloadLength = payloadLength;
+        allocationCount++;
+    }
+
+    /**
+     * Create an empty frame with its own payload storage, used by pools
+     * @param payloadCapacity	maximum payload length the frame can hold
+     */
+    public Frame(int payloadCapacity) {
+        this(0, 0, new byte[payloadCapacity], 0, 0);
+    }
+
+    /**
+     * @return number of frames created so far
+     */
+    public static int getAllocationCount() {
+        return allocationCount;
     }
 
     /**
@@ -90,6 +113,20 @@ public class Frame {
         this.payloadLength = length;
     }
 
+    /**
+     * Copy the payload into the storage of the frame, anything past the storage is dropped
+     * @param data		array to copy from, for example the data of a received frame
+     * @param offset	offset of the payload in data
+     * @param length	length of the payload
+     */
+    public void copyPayload(byte[] data, int offset, int length) {
+        if (length > payload.length)
+            length = payload.length;
+
+        Util.copyData(data, offset, payload, 0, length);
+        this.payloadLength = length;
+    }
+
     /**
      * @return Time of the frame
      */
@@ -1,77 +1,172 @@
 /**
- * @author      Y6332150
- * @version     1.0
- * @since       2013-20-11
- * 
- * A circular buffer for frames
- * drops older frames as new overwrite them
+ * A ring buffer for frames, for one producer and one consumer, when
+ * full the new frame is dropped and counted
+ *
+ * The buffer owns a fixed pool of frames, one per slot, pushing
+ * copies into the slot instead of storing a new frame, so no
+ * garbage is created once the buffer has been constructed. The
+ * capacity is a power of two, slots are found with a mask, there
+ * is no division on push or pull
+ *
+ * Only the producer (the rx handler) writes head and the slots, only
+ * the consumer (the tx handler) writes tail, both are volatile. A push
+ * fills its slot before it moves head on and the consumer copies a frame
+ * out before it moves tail past it, so on the host, where the handlers
+ * may run on threads of their own, either side only ever sees slots the
+ * other one is done with, without locks. The producer never writes to a
+ * full ring, which is why it drops the new frame rather than overwrite
+ * one the consumer may be reading. The consumer can peek at the frames
+ * in order and remove them once they are used
  *
  */
- 
+
 package embs;
 import embs.Frame;
 
 public class FrameBuffer {
-	private int size;
-	private int start;
-	private int end;
-	private int mirror;
 	private Frame[] buffer;
-	
+	private int mask;
+
+	/**
+	 * Frame handed out by peek and pull, owned by the consumer
+	 */
+	private Frame taken;
+
+	/**
+	 * Number of frames ever pushed (written by the producer) and pulled or removed (written by the consumer),
+	 * they wrap together, so head - tail is the number of frames held
+	 */
+	private volatile int head;
+	private volatile int tail;
+
 	/**
-     * @param size	size of the buffer
+	 * Number of frames dropped as the buffer was full, written by the producer
+	 */
+	private volatile int dropCount;
+
+	/**
+     * @param size				number of frames the buffer holds, rounded up to a power of two
+     * @param payloadCapacity	longest payload a frame in the buffer can hold
      */
-	public FrameBuffer(int size) {
-		this.size = size;
-		this.buffer = new Frame[size];
-		this.start = 0;
-		this.end = 0;
-		this.mirror = 0;
+	public FrameBuffer(int size, int payloadCapacity) {
+		int capacity = 1;
+		while (capacity < size)
+			capacity <<= 1;
+
+		this.buffer = new Frame[capacity];
+		for (int i = 0; i < capacity; i++) {
+			buffer[i] = new Frame(payloadCapacity);
+		}
+
+		this.mask = capacity - 1;
+		this.taken = new Frame(payloadCapacity);
+		this.head = 0;
+		this.tail = 0;
+		this.dropCount = 0;
 	}
-	
+
 	/*
-	 * @return a frame from the buffer
+	 * Consumer, take the oldest frame out of the buffer
+	 * @return a copy of the oldest frame in the buffer, owned by the buffer and only valid until the next peek or pull
 	 */
 	public Frame pull() {
-		if (end == start)
+		int start = tail;
+		if (head == start)
 			return null;
-		
-		Frame value = buffer[start % size];
-		start++;
-		
-		// Use the chance to reset the start/end if they end up on the same index
-		if (start == end) {
-			start = start % size;
-			end = end % size;
-		}
-		
-		return value;
+
+		copy(buffer[start & mask]);
+		tail = start + 1;
+		return taken;
 	}
-	
+
 	/*
-	 * @param frame		frame to push to the buffer
+	 * Consumer, look at a frame without taking it out of the buffer
+	 * @param index		position of the frame from the oldest, 0 for the frame pull would hand out
+	 * @return a copy of the frame, owned by the buffer and only valid until the next peek or pull,
+	 * null if the buffer holds no more than index frames
 	 */
-	public void push(Frame frame) {
-		buffer[end % size] = frame;
-		end++;
-		
-		// Check if we need to move the start (so that older frames are pulled first)
-		if (end % size == start % size) {
-			start++;
+	public Frame peek(int index) {
+		int start = tail;
+		if (index >= head - start)
+			return null;
+
+		copy(buffer[(start + index) & mask]);
+		return taken;
+	}
+
+	/*
+	 * Consumer, remove the oldest frames
+	 * @param count		number of frames to remove
+	 */
+	public void remove(int count) {
+		int start = tail;
+		int held = head - start;
+		tail = start + (count < held ? count : held);
+	}
+
+	/*
+	 * Producer, copy a frame into the next slot of the buffer, unless the buffer is full
+	 * @param panID		PAN ID of the network the frame is from
+	 * @param address	address of the source
+	 * @param data		array holding the payload, for example the received frame
+	 * @param offset	offset of the payload in data
+	 * @param length	length of the payload
+	 * @param time		time the frame was received at
+	 * @return PAN ID of the frame if it was dropped as the buffer is full, -1 if it was added
+	 */
+	public int push(int panID, int address, byte[] data, int offset, int length, long time) {
+		int end = head;
+		if (end - tail == buffer.length) {
+			dropCount++;
+			return panID;
 		}
+
+		Frame frame = buffer[end & mask];
+		frame.setPanID(panID);
+		frame.setAddress(address);
+		frame.copyPayload(data, offset, length);
+		frame.setTime(time);
+		head = end + 1;
+		return -1;
 	}
-	
+
 	/*
 	 * @return true if buffer is empty
 	 */
 	public boolean isEmpty() {
-		return start == end;
+		return head == tail;
 	}
-	
+
 	/*
-	 * @return number of items in the buffer
+	 * @return number of frames in the buffer that have not been pulled or removed, exact from the consumer
 	 */
 	public int count() {
-		return (end - start) % size;
+		int start = tail;
+		return head - start;
+	}
+
+	/*
+	 * @return number of frames the buffer can hold
+	 */
+	public int capacity() {
+		return buffer.length;
+	}
+
+	/*
+	 * @return number of frames dropped as the buffer was full
+	 */
+	public int getDropCount() {
+		return dropCount;
+	}
+
+	/*
+	 * Copy a frame of the buffer into the frame handed out to the consumer
+	 * @param frame		frame to copy
+	 */
+	private void copy(Frame frame) {
+		taken.setPanID(frame.getPanID());
+		taken.setAddress(frame.getAddress());
+		taken.copyPayload(frame.getPayload(), 0, frame.getPayloadLength());
+		taken.setTime(frame.getTime());
 	}
 }
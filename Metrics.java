@@ -0,0 +1,149 @@
+/**
+ * Counters for what the relay does, kept per channel in
+ * fixed size arrays, so counting never allocates
+ *
+ * The counters are dumped to the log periodically, giving
+ * the duty cycle of the radio and the loss of frames under load
+ *
+ */
+
+package embs;
+import com.ibm.saguaro.system.*;
+import com.ibm.saguaro.logger.*;
+
+public class Metrics {
+	/**
+	 * Per channel counters, indexed by the row of the channel table
+	 */
+	private long[] rxTicks;
+	private int[] sessionsPushed;
+	private int[] sessionsPreempted;
+	private int[] sessionsPopped;
+	private int[] framesReceived;
+	private int[] framesForwarded;
+	private int[] framesDropped;
+
+	/**
+	 * Global counters
+	 */
+	private int transmissions = 0;
+	private int deadlineHits = 0;
+	private int channelSwitches = 0;
+	private long switchTicks = 0;
+
+	/**
+	 * @param channelCount	number of channels to keep counters for
+	 */
+	public Metrics(int channelCount) {
+		this.rxTicks = new long[channelCount];
+		this.sessionsPushed = new int[channelCount];
+		this.sessionsPreempted = new int[channelCount];
+		this.sessionsPopped = new int[channelCount];
+		this.framesReceived = new int[channelCount];
+		this.framesForwarded = new int[channelCount];
+		this.framesDropped = new int[channelCount];
+	}
+
+	public void addRxTicks(int channel, long ticks) {
+		rxTicks[channel] += ticks;
+	}
+
+	public void sessionPushed(int channel) {
+		sessionsPushed[channel]++;
+	}
+
+	public void sessionPreempted(int channel) {
+		sessionsPreempted[channel]++;
+	}
+
+	public void sessionPopped(int channel) {
+		sessionsPopped[channel]++;
+	}
+
+	public void frameReceived(int channel) {
+		framesReceived[channel]++;
+	}
+
+	public void frameForwarded(int channel) {
+		framesForwarded[channel]++;
+	}
+
+	public void frameDropped(int channel) {
+		framesDropped[channel]++;
+	}
+
+	public void transmission() {
+		transmissions++;
+	}
+
+	public void deadlineHit() {
+		deadlineHits++;
+	}
+
+	/**
+	 * @param ticks		time the switch took, including the time the radio is kept off
+	 */
+	public void channelSwitched(long ticks) {
+		channelSwitches++;
+		switchTicks += ticks;
+	}
+
+	/**
+	 * @param channel	row of the channel table
+	 * @return time spent listening to the channel, in ticks
+	 */
+	public long getRxTicks(int channel) {
+		return rxTicks[channel];
+	}
+
+	public int getFramesReceived(int channel) {
+		return framesReceived[channel];
+	}
+
+	public int getFramesForwarded(int channel) {
+		return framesForwarded[channel];
+	}
+
+	public int getFramesDropped(int channel) {
+		return framesDropped[channel];
+	}
+
+	public int getDeadlineHits() {
+		return deadlineHits;
+	}
+
+	/**
+	 * Write all counters to the log, one line per channel and a line for the totals
+	 */
+	public void dump() {
+		for (int i = 0; i < rxTicks.length; i++) {
+			Logger.appendString(csr.s2b("Channel "));
+			Logger.appendInt(i);
+			Logger.appendString(csr.s2b(": rx ms "));
+			Logger.appendLong(Time.fromTickSpan(Time.MILLISECS, rxTicks[i]));
+			Logger.appendString(csr.s2b(", sessions pushed "));
+			Logger.appendInt(sessionsPushed[i]);
+			Logger.appendString(csr.s2b(" pre-empted "));
+			Logger.appendInt(sessionsPreempted[i]);
+			Logger.appendString(csr.s2b(" popped "));
+			Logger.appendInt(sessionsPopped[i]);
+			Logger.appendString(csr.s2b(", frames received "));
+			Logger.appendInt(framesReceived[i]);
+			Logger.appendString(csr.s2b(" forwarded "));
+			Logger.appendInt(framesForwarded[i]);
+			Logger.appendString(csr.s2b(" dropped "));
+			Logger.appendInt(framesDropped[i]);
+			Logger.flush(Mote.INFO);
+		}
+
+		Logger.appendString(csr.s2b("Transmissions "));
+		Logger.appendInt(transmissions);
+		Logger.appendString(csr.s2b(", deadline hits "));
+		Logger.appendInt(deadlineHits);
+		Logger.appendString(csr.s2b(", channel switches "));
+		Logger.appendInt(channelSwitches);
+		Logger.appendString(csr.s2b(" taking ms "));
+		Logger.appendLong(Time.fromTickSpan(Time.MILLISECS, switchTicks));
+		Logger.flush(Mote.INFO);
+	}
+}
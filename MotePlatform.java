@@ -0,0 +1,90 @@
+/**
+ * The platform of a RelayEngine on a mote, a radio and a timer of its
+ * own and the system clock of the mote
+ *
+ */
+
+package embs;
+import com.ibm.saguaro.system.*;
+
+import embs.RelayEngine;
+import embs.RelayPlatform;
+
+public class MotePlatform implements RelayPlatform {
+	private Radio radio = new Radio();
+	private Timer timer = new Timer();
+
+	public void open(final RelayEngine engine) {
+		radio.open(Radio.DID, null, 0, 0);
+		radio.setShortAddr(Radio.SADDR_BROADCAST);
+
+		radio.setRxHandler(new DevCallback(null) {
+			public int invoke(int flags, byte[] data, int len, int info, long time) {
+				return engine.onReceive(flags, data, len, info, time);
+			}
+		});
+
+		radio.setTxHandler(new DevCallback(null) {
+			public int invoke(int flags, byte[] data, int len, int info, long time) {
+				return engine.onTransmit(flags, data, len, info, time);
+			}
+		});
+
+		timer.setCallback(new TimerEvent(null){
+			public void invoke(byte param, long time){
+				engine.onAlarm(time);
+			}
+		});
+	}
+
+	public long currentTicks() {
+		return Time.currentTicks();
+	}
+
+	public void setAlarmTime(long time) {
+		timer.setAlarmTime(time);
+	}
+
+	public void setChannel(byte channel) {
+		radio.setChannel(channel);
+	}
+
+	public void setPanId(int panId) {
+		radio.setPanId(panId, false);
+	}
+
+	public void startRx(int mode, long start, long end) {
+		radio.startRx(mode, start, end);
+	}
+
+	public void stopRx() {
+		radio.stopRx();
+	}
+
+	public void transmit(int mode, byte[] data, int offset, int len) {
+		radio.transmit(mode, data, offset, len, 0);
+	}
+
+	/**
+	 * @return radio of the platform, for the benchmarks to hand it frames
+	 */
+	Radio getRadio() {
+		return radio;
+	}
+
+	/**
+	 * The relay has no non-volatile memory of its own on a mote, nothing is read
+	 * and a mote always starts cold, the simulator backs it with SimulatedPlatform
+	 */
+	public boolean hasMemory() {
+		return false;
+	}
+
+	public int readMemory(int address, byte[] data, int offset, int len) {
+		return 0;
+	}
+
+	public int writeMemory(int address, byte[] data, int offset, int len) {
+		return 0;
+	}
+}
@@ -0,0 +1,338 @@
+/**
+ * Learns the period of a source from the times its frames arrive at
+ *
+ * The relay only listens to a source for short windows, so any frame it
+ * misses makes the gap between two arrivals a multiple of the period. Gaps
+ * that are close to a multiple of the known period refine it, following any
+ * drift, anything else is an outlier. Outliers are ignored unless several
+ * in a row agree on another period, the common divisor of the gap and the
+ * known period, which then replaces it, as when the period was learned
+ * from a multiple or the source changed its period
+ *
+ * Learning the period from scratch relies on listening from one frame to the
+ * next, the relay tells the estimator whenever it leaves the channel and the
+ * first gap is only used if no frame could have been missed while away
+ *
+ * The estimator also tracks the jitter of the source, the largest error
+ * between the predicted and actual arrival over the latest few frames,
+ * which the relay uses to size its listen windows
+ *
+ * A period learnt earlier can be restored, the first arrival then gives
+ * its phase and the relay checks the next one against it with getError
+ * before adding it
+ *
+ */
+
+package embs;
+
+public class PeriodEstimator {
+	/**
+	 * A new gap moves the period by 1/4 of its error, enough to follow drift
+	 * without a single late frame throwing the estimate off
+	 */
+	private final static int GAIN_SHIFT = 2;
+
+	/**
+	 * Number of outlying gaps that have to agree on another period before it replaces the known one,
+	 * so a single late or early frame does not throw a good estimate away
+	 */
+	private final static int OUTLIER_LIMIT = 3;
+
+	/**
+	 * Number of times we can leave the channel while learning, any more and the gap is not used
+	 */
+	private final static int AWAY_CAPACITY = 8;
+
+	/**
+	 * Number of arrival errors the jitter is taken over
+	 */
+	private final static int JITTER_SAMPLES = 8;
+
+	private long minPeriod;
+	private long tolerance;
+
+	private long period = 0;
+	private long lastArrival = 0;
+	private boolean seen = false;
+	private int samples = 0;
+
+	/**
+	 * Period the latest outliers agree on, and how many of them do
+	 */
+	private long candidate = 0;
+	private int candidateCount = 0;
+
+	/**
+	 * Absolute errors of the latest arrivals against their prediction
+	 */
+	private long[] errors = new long[JITTER_SAMPLES];
+	private int nextError = 0;
+
+	/**
+	 * Times we were away from the channel since the latest arrival, kept until the period is known
+	 */
+	private long[] awayStarts = new long[AWAY_CAPACITY];
+	private long[] awayEnds = new long[AWAY_CAPACITY];
+	private int awayCount = 0;
+	private boolean away = false;
+
+	/**
+	 * @param minPeriod		shortest period a source uses, shorter gaps are treated as duplicates, in ticks
+	 * @param tolerance		largest error for a gap to count as a multiple of the period, in ticks
+	 */
+	public PeriodEstimator(long minPeriod, long tolerance) {
+		this.minPeriod = minPeriod;
+		this.tolerance = tolerance;
+	}
+
+	/**
+	 * Add the arrival of a frame and update the period
+	 * @param time	time the frame arrived at, in ticks
+	 */
+	public void add(long time) {
+		if (!seen) {
+			seen = true;
+			lastArrival = time;
+			return;
+		}
+
+		long gap = time - lastArrival;
+		if (gap < minPeriod)
+			return;
+
+		if (period == 0) {
+			// If we might have missed a frame while away, start over from this one
+			if (!mightHaveMissed(gap))
+				period = gap;
+
+			lastArrival = time;
+			awayCount = 0;
+			samples = period > 0 ? 1 : 0;
+			return;
+		}
+
+		lastArrival = time;
+
+		// Work out how many periods the gap spans, frames in between were missed
+		long periods = (gap + period / 2) / period;
+		long error = periods > 0 ? gap - periods * period : tolerance + 1;
+		if (error > tolerance || error < -tolerance) {
+			long common = PeriodEstimator.commonPeriod(gap, period, tolerance, minPeriod);
+			if (candidateCount > 0 && common - candidate <= tolerance && candidate - common <= tolerance) {
+				candidateCount++;
+			} else {
+				candidate = common;
+				candidateCount = 1;
+			}
+
+			if (candidateCount >= OUTLIER_LIMIT) {
+				period = candidate;
+				samples = 1;
+				candidateCount = 0;
+			}
+
+			return;
+		}
+
+		// Gaps that fit the known period only keep the candidate if they fit it as well
+		if (candidateCount > 0 && !isMultiple(gap, candidate))
+			candidateCount = 0;
+
+		errors[nextError] = error < 0 ? -error : error;
+		nextError = (nextError + 1) % JITTER_SAMPLES;
+
+		period += (error / periods) >> GAIN_SHIFT;
+		samples++;
+	}
+
+	/**
+	 * Start over from a period learnt earlier, its phase is unknown until the next arrival
+	 * @param period		period, in ticks
+	 * @param jitter		jitter of the source, in ticks, negative if it was not known
+	 */
+	public void restore(long period, long jitter) {
+		reset();
+		this.period = period;
+		this.samples = 1;
+
+		if (jitter >= 0) {
+			for (int i = 0; i < JITTER_SAMPLES; i++) {
+				errors[i] = jitter;
+			}
+
+			samples = JITTER_SAMPLES + 1;
+		}
+	}
+
+	/**
+	 * Forget everything, the period is learnt from scratch
+	 */
+	public void reset() {
+		period = 0;
+		lastArrival = 0;
+		seen = false;
+		samples = 0;
+		nextError = 0;
+		candidateCount = 0;
+		awayCount = 0;
+		away = false;
+		for (int i = 0; i < JITTER_SAMPLES; i++) {
+			errors[i] = 0;
+		}
+	}
+
+	/**
+	 * @param time	time a frame arrived at, in ticks
+	 * @return distance of the arrival from the closest one the period predicts, in ticks, 0 if the period is not known
+	 */
+	public long getError(long time) {
+		if (period == 0)
+			return 0;
+
+		long gap = time - lastArrival;
+		long periods = (gap + period / 2) / period;
+		long error = gap - periods * period;
+		return error < 0 ? -error : error;
+	}
+
+	/**
+	 * We stopped listening to the channel
+	 * @param time	time we left, in ticks
+	 */
+	public void leave(long time) {
+		if (period != 0 || !seen || away)
+			return;
+
+		away = true;
+		if (awayCount < AWAY_CAPACITY)
+			awayStarts[awayCount] = time;
+	}
+
+	/**
+	 * We started listening to the channel again
+	 * @param time	time we are back, in ticks
+	 */
+	public void rejoin(long time) {
+		if (!away)
+			return;
+
+		away = false;
+		if (awayCount < AWAY_CAPACITY)
+			awayEnds[awayCount] = time;
+
+		awayCount++;
+	}
+
+	/**
+	 * @return true once the period is known, which takes two arrivals
+	 */
+	public boolean isKnown() {
+		return period > 0;
+	}
+
+	/**
+	 * @return the period, in ticks, 0 if it is not known
+	 */
+	public long getPeriod() {
+		return period;
+	}
+
+	/**
+	 * @return true once a frame has arrived since the estimator was reset or restored
+	 */
+	public boolean hasArrival() {
+		return seen;
+	}
+
+	/**
+	 * @return the time the latest frame arrived at, in ticks
+	 */
+	public long getLastArrival() {
+		return lastArrival;
+	}
+
+	/**
+	 * @return number of gaps that agreed with the period in a row
+	 */
+	public int getSamples() {
+		return samples;
+	}
+
+	/**
+	 * @return largest error between the predicted and actual arrival of the latest frames, in ticks,
+	 * only meaningful once there have been enough samples to fill the jitter window (see hasJitter)
+	 */
+	public long getJitter() {
+		long jitter = 0;
+		for (int i = 0; i < JITTER_SAMPLES; i++) {
+			if (errors[i] > jitter)
+				jitter = errors[i];
+		}
+
+		return jitter;
+	}
+
+	/**
+	 * @return true if the jitter is based on a full window of arrivals that agreed with the period
+	 */
+	public boolean hasJitter() {
+		return samples > JITTER_SAMPLES;
+	}
+
+	/**
+	 * Check whether the gap could be a multiple of a shorter period, with the frames in between
+	 * all arriving while we were away from the channel
+	 * @param gap	gap between the latest two arrivals
+	 * @return true if the gap might span missed frames
+	 */
+	private boolean mightHaveMissed(long gap) {
+		if (awayCount > AWAY_CAPACITY)
+			return true;
+
+		for (long periods = 2; gap / periods >= minPeriod; periods++) {
+			long candidate = gap / periods;
+			boolean hidden = true;
+			for (long i = 1; i < periods && hidden; i++) {
+				long missed = lastArrival + i * candidate;
+				hidden = false;
+				for (int j = 0; j < awayCount && !hidden; j++) {
+					hidden = missed >= awayStarts[j] - tolerance && missed <= awayEnds[j] + tolerance;
+				}
+			}
+
+			if (hidden)
+				return true;
+		}
+
+		return false;
+	}
+
+	/**
+	 * @return true if the gap is within the tolerance of a multiple of the period
+	 */
+	private boolean isMultiple(long gap, long period) {
+		long periods = (gap + period / 2) / period;
+		long error = gap - periods * period;
+		return periods > 0 && error <= tolerance && error >= -tolerance;
+	}
+
+	/**
+	 * Euclid's algorithm, with remainders within the tolerance of 0 counting as 0
+	 * @return the longest period both spans are (close to) a multiple of, or the latest span if there is none above the minimum
+	 */
+	private static long commonPeriod(long latest, long previous, long tolerance, long minPeriod) {
+		long a = latest > previous ? latest : previous;
+		long b = latest > previous ? previous : latest;
+
+		while (b >= minPeriod) {
+			long remainder = a % b;
+			if (remainder <= tolerance || b - remainder <= tolerance)
+				return b;
+
+			a = b;
+			b = remainder;
+		}
+
+		return latest;
+	}
+}
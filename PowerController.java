@@ -0,0 +1,152 @@
+/**
+ * Picks the tx power for transmissions to the sink, from the RSSI
+ * of the sink beacons, biased up by the beacons we miss of them
+ *
+ * The RSSI is smoothed with an exponentially weighted moving average,
+ * kept in fixed point, and the power only follows it once it has moved
+ * further than the hysteresis, so a single noisy beacon does not change
+ * the power of a whole reception phase. On top of that, the beacons of
+ * a sync phase count down, so a gap in the countdown shows frames lost
+ * on the way from the sink, which is taken as a hint that the way back
+ * is worse than its RSSI suggests. Every beacon missed steps the power
+ * up, a run of beacons without a gap backs it off a step again, never
+ * below what the RSSI gives
+ *
+ * This is not closed-loop control of the delivery to the sink, nothing
+ * tells the relay which of its frames arrived. The relay hears beacons
+ * while it syncs, so the bias is set once from those, afterwards the
+ * power only changes with the beacons of tracking windows, if any
+ *
+ */
+
+package embs;
+import com.ibm.saguaro.system.*;
+
+public class PowerController {
+	/**
+	 * The average moves by 1/8 of the difference to a new sample, kept with 4 fractional bits
+	 */
+	private final static int SMOOTHING_SHIFT = 3;
+	private final static int FRACTION_SHIFT = 4;
+
+	/**
+	 * Beacons in a row without a gap before backing off a step
+	 */
+	private final static int BEACONS_TO_BACK_OFF = 4;
+
+	private final static int POWER_MAX = 0xFF;
+
+	private int margin;
+	private int hysteresis;
+	private int step;
+	private int maxAdjustment;
+
+	private boolean seen = false;
+	private int average = 0;
+	private int level = 0;
+	private int adjustment = 0;
+	private int beacons = 0;
+
+	/**
+	 * @param margin			the RSSI is made to seem this much worse when turned into a power
+	 * @param hysteresis		how far the average RSSI has to move before the power follows it
+	 * @param step				power step when backing off or stepping up, in RSSI units
+	 * @param maxAdjustment		furthest the missed beacons can step the power up, in RSSI units
+	 */
+	public PowerController(int margin, int hysteresis, int step, int maxAdjustment) {
+		this.margin = margin;
+		this.hysteresis = hysteresis;
+		this.step = step;
+		this.maxAdjustment = maxAdjustment;
+	}
+
+	/**
+	 * Add the RSSI of a frame from the sink
+	 * @param rssi	RSSI, as reported by the radio
+	 */
+	public void addRssi(int rssi) {
+		if (!seen) {
+			seen = true;
+			average = rssi << FRACTION_SHIFT;
+			level = rssi;
+			return;
+		}
+
+		average += ((rssi << FRACTION_SHIFT) - average) >> SMOOTHING_SHIFT;
+
+		int rounded = (average + (1 << (FRACTION_SHIFT - 1))) >> FRACTION_SHIFT;
+		if (rounded > level + hysteresis || rounded < level - hysteresis)
+			level = rounded;
+	}
+
+	/**
+	 * Start from the power of an earlier run, as if the RSSI had been heard at the level
+	 * @param level			RSSI level the power was based on
+	 * @param adjustment	adjustment made for the missed beacons
+	 */
+	public void restore(int level, int adjustment) {
+		this.seen = true;
+		this.average = level << FRACTION_SHIFT;
+		this.level = level;
+		this.adjustment = adjustment > 0 ? adjustment : 0;
+		this.beacons = 0;
+	}
+
+	/**
+	 * Add a beacon that followed an earlier beacon of the same sync phase
+	 * @param missed	beacons of the phase missed between the two
+	 */
+	public void addBeacon(int missed) {
+		if (missed > 0) {
+			beacons = 0;
+			adjustment += missed * step;
+			if (adjustment > maxAdjustment)
+				adjustment = maxAdjustment;
+		} else {
+			if (++beacons < BEACONS_TO_BACK_OFF)
+				return;
+
+			beacons = 0;
+			adjustment -= step;
+			if (adjustment < 0)
+				adjustment = 0;
+		}
+	}
+
+	/**
+	 * @return the tx mode bits for the power of the next transmission, the maximum until the sink has been heard
+	 */
+	public int getTxPower() {
+		if (!seen)
+			return Radio.TXMODE_POWER_MAX;
+
+		int power = level - margin + adjustment;
+		if (power < 0)
+			power = 0;
+		else if (power > POWER_MAX)
+			power = POWER_MAX;
+
+		return (power << 8) & Radio.TXMODE_POWER_MASK;
+	}
+
+	/**
+	 * @return true once the sink has been heard, or the power restored
+	 */
+	public boolean isKnown() {
+		return seen;
+	}
+
+	/**
+	 * @return the RSSI level the power is currently based on
+	 */
+	public int getLevel() {
+		return level;
+	}
+
+	/**
+	 * @return adjustment made for the missed beacons, in RSSI units
+	 */
+	public int getAdjustment() {
+		return adjustment;
+	}
+}
@@ -0,0 +1,202 @@
+/**
+ * A frame buffer with one FIFO queue per channel, the queues
+ * share a fixed pool of frames
+ *
+ * Queues are prioritised by their index, lower index == higher priority.
+ * Frames are pulled from the highest priority queue first and when the
+ * pool runs out, the oldest frame of the lowest priority queue is evicted,
+ * a new frame with a lower priority than everything in the buffer is dropped.
+ * Frames can be looked at with peek in the order pull hands them out and
+ * removed with remove once they are used, so they stay evictable until then
+ *
+ * The queues are singly linked lists of slot indices, so no
+ * garbage is created once the buffer has been constructed
+ *
+ */
+
+package embs;
+import embs.Frame;
+
+public class PriorityFrameBuffer {
+	private final static int NONE = -1;
+
+	/**
+	 * The pool of frames and the link from each slot to the next in its queue (or the free list)
+	 */
+	private Frame[] buffer;
+	private int[] next;
+	private int free;
+
+	/**
+	 * Head (oldest), tail (newest) and length of each queue
+	 */
+	private int[] heads;
+	private int[] tails;
+	private int[] counts;
+	private int count;
+
+	/**
+     * @param size				total number of frames the buffer holds
+     * @param payloadCapacity	longest payload a frame in the buffer can hold
+     * @param queueCount		number of queues, typically the number of channels
+     */
+	public PriorityFrameBuffer(int size, int payloadCapacity, int queueCount) {
+		this.buffer = new Frame[size];
+		this.next = new int[size];
+		for (int i = 0; i < size; i++) {
+			buffer[i] = new Frame(payloadCapacity);
+			next[i] = i + 1 < size ? i + 1 : NONE;
+		}
+
+		this.free = size > 0 ? 0 : NONE;
+		this.heads = new int[queueCount];
+		this.tails = new int[queueCount];
+		this.counts = new int[queueCount];
+		for (int i = 0; i < queueCount; i++) {
+			heads[i] = NONE;
+			tails[i] = NONE;
+		}
+
+		this.count = 0;
+	}
+
+	/*
+	 * @return the oldest frame of the highest priority queue, the frame belongs to the
+	 * buffer and is only valid until its slot is reused by a later push
+	 */
+	public Frame pull() {
+		for (int queue = 0; queue < heads.length; queue++) {
+			if (counts[queue] > 0) {
+				int slot = unlinkHead(queue);
+
+				next[slot] = free;
+				free = slot;
+				return buffer[slot];
+			}
+		}
+
+		return null;
+	}
+
+	/*
+	 * @param index		position of the frame in the order pull hands them out, 0 for the next one
+	 * @return the frame, null if the buffer holds no more than index frames, the frame belongs to the
+	 * buffer and is only valid until the next push or remove
+	 */
+	public Frame peek(int index) {
+		for (int queue = 0; queue < heads.length; queue++) {
+			if (index >= counts[queue]) {
+				index -= counts[queue];
+				continue;
+			}
+
+			int slot = heads[queue];
+			for (int i = 0; i < index; i++) {
+				slot = next[slot];
+			}
+
+			return buffer[slot];
+		}
+
+		return null;
+	}
+
+	/*
+	 * Remove the frames pull would hand out next
+	 * @param count		number of frames to remove
+	 */
+	public void remove(int count) {
+		for (int i = 0; i < count; i++) {
+			if (pull() == null)
+				return;
+		}
+	}
+
+	/*
+	 * Copy a frame into the buffer, evicting a lower priority frame if the buffer is full
+	 * @param queue		queue to add the frame to
+	 * @param panID		PAN ID of the network the frame is from
+	 * @param address	address of the source
+	 * @param data		array holding the payload, for example the received frame
+	 * @param offset	offset of the payload in data
+	 * @param length	length of the payload
+	 * @param time		time the frame was received at
+	 * @return PAN ID of the frame that was evicted to make room, panID if the frame itself was dropped
+	 * as everything in the buffer has a higher priority, -1 if no frame was lost
+	 */
+	public int push(int queue, int panID, int address, byte[] data, int offset, int length, long time) {
+		int evicted = NONE;
+		int slot = free;
+		if (slot != NONE) {
+			free = next[slot];
+		} else {
+			// Evict from the lowest priority queue, which might be the queue of the frame itself
+			int victim = heads.length - 1;
+			while (victim > queue && counts[victim] == 0) {
+				victim--;
+			}
+
+			if (counts[victim] == 0)
+				return panID;
+
+			slot = unlinkHead(victim);
+			evicted = buffer[slot].getPanID();
+		}
+
+		Frame frame = buffer[slot];
+		frame.setPanID(panID);
+		frame.setAddress(address);
+		frame.copyPayload(data, offset, length);
+		frame.setTime(time);
+
+		next[slot] = NONE;
+		if (tails[queue] == NONE) {
+			heads[queue] = slot;
+		} else {
+			next[tails[queue]] = slot;
+		}
+
+		tails[queue] = slot;
+		counts[queue]++;
+		count++;
+		return evicted;
+	}
+
+	/*
+	 * @return true if buffer is empty
+	 */
+	public boolean isEmpty() {
+		return count == 0;
+	}
+
+	/*
+	 * @return number of items in the buffer
+	 */
+	public int count() {
+		return count;
+	}
+
+	/*
+	 * @param queue		queue to look at
+	 * @return number of items in the queue
+	 */
+	public int count(int queue) {
+		return counts[queue];
+	}
+
+	/*
+	 * Remove the oldest slot from a non-empty queue
+	 * @param queue		queue to remove from
+	 * @return the slot that was removed
+	 */
+	private int unlinkHead(int queue) {
+		int slot = heads[queue];
+		heads[queue] = next[slot];
+		if (heads[queue] == NONE)
+			tails[queue] = NONE;
+
+		counts[queue]--;
+		count--;
+		return slot;
+	}
+}
@@ -0,0 +1,1574 @@
+/**
+ * The relay, responsible for scanning the sources and forwarding
+ * frames on to the sink, as an instance running on a platform that
+ * provides the radio, the timer, the clock and the non-volatile memory
+ *
+ * Every engine keeps its state to itself, so any number of them can run
+ * side by side, on a mote Relay starts one on the mote itself
+ *
+ * The scheduling is based on a simple priority system, each channel in the
+ * channel table has a priority, or on the deadlines of the frames, where
+ * priority only breaks ties. The relay starts by syncing with the sink
+ * it then "discovers" channels in the order of their priority after which
+ * the timing is handled by the timers and the learnt periods
+ *
+ * Alternatively, once every period is known, the windows can be compiled
+ * into a static schedule that is walked on a single timer
+ *
+ * The platform calls back onReceive and onTransmit for the radio and
+ * onAlarm when its timer goes off
+ *
+ */
+
+package embs;
+
+import com.ibm.saguaro.system.*;
+import com.ibm.saguaro.logger.*;
+
+import embs.Frame;
+import embs.FrameBuffer;
+import embs.Metrics;
+import embs.PowerController;
+import embs.PriorityFrameBuffer;
+import embs.RelayPlatform;
+import embs.ScheduleWalker;
+import embs.SequenceTracker;
+import embs.Session;
+import embs.SessionStack;
+import embs.SinkEstimator;
+import embs.TimerWheel;
+import embs.TimingStore;
+import embs.TraceRecorder;
+import embs.Tracer;
+
+public class RelayEngine {
+	/**
+	 * Constants
+	 */
+
+	/**
+	 * Bounds specified by the spec
+	 */
+    private final static long BEACON_MIN_TIME = Time.toTickSpan(Time.MILLISECS, 500L);
+    private final static long BEACON_MAX_TIME = Time.toTickSpan(Time.MILLISECS, 1500L);
+    private final static long RX_MAX_TIME = Time.toTickSpan(Time.SECONDS, 60L);
+    private final static byte CHANNEL_START_PAN_ID = 0x11;
+
+    /**
+     * Timing constants, allowing some leeway in our calculations
+     * and helping with clock drift
+     */
+    private final static long TIMING_BUFFER = Time.toTickSpan(Time.MILLISECS, 50L);			// Timing buffer, so we are never late nor early
+    private final static long SINK_TIMING_BUFFER_MIN = Time.toTickSpan(Time.MILLISECS, 10L);	// Smallest timing buffer around the sink, once its timing is predicted accurately
+    private final static long RADIO_SWITCH_BUFFER = Time.toTickSpan(Time.MILLISECS, 5L);	// Time we leave between turning radio off and turning it back on, mainly for hardware to catch up
+    private final static long CHANNEL_DURATION = Time.toTickSpan(Time.MILLISECS, 200L);		// Amount of time we want to ideally spend listening to a channel
+    private final static long CHANNEL_INDEFINITE_DURATION = -1L;
+
+    /**
+     * Source periods are learnt from the arrivals of their frames, gaps shorter than the minimum
+     * are treated as duplicates. After a number of windows in a row without a frame, we assume
+     * the source has drifted out of the window and listen for a whole period to find it again
+     */
+    private final static long SOURCE_MIN_PERIOD = Time.toTickSpan(Time.MILLISECS, 500L);
+    private final static int SOURCE_MISSED_WINDOWS_LIMIT = 3;
+
+    /**
+     * Listen windows for the sources are sized from their jitter, once it is known. The window opens early by
+     * the time it takes the radio to switch plus a guard of twice the jitter and the margin, and stays open for
+     * the same guard after the predicted arrival. Windows never grow past TIMING_BUFFER and CHANNEL_DURATION
+     */
+    private final static long SOURCE_WINDOW_MARGIN = Time.toTickSpan(Time.MILLISECS, 2L);
+
+    /*
+     * Reducing energy consumption, adjust the tx power by monitoring the RSSI value returned by the sink
+     * this offset makes the RSSI seem worse then it really is when calculating the tx power, allowing
+     * for a nice padding to make sure the transmission is successful
+     * The power follows the average RSSI once it moves by more than the hysteresis and is biased up, within
+     * the adjustment, for every beacon missed in a sync phase, a run of beacons without a gap backs it off again.
+     * Missed beacons are lost on the way from the sink, not frames the sink did not get, it never tells us those
+     */
+    private final static int SINK_RSSI_OFFSET = 20;
+    private final static int POWER_RSSI_HYSTERESIS = 4;
+    private final static int POWER_STEP = 4;		// One step of the tx power, the 2 low bits are dropped by the mask
+    private final static int POWER_MAX_ADJUSTMENT = 24;
+
+    /**
+     * Once synced we only listen to the sink for its reception phase, so the power and its bias are set once from
+     * the beacons heard while syncing and then stay. With POWER_TRACKING the window opens a beacon interval early
+     * every POWER_TRACKING_INTERVAL periods, to hear the last beacon, whose RSSI moves the power, a single beacon
+     * shows no gap, so the bias stays.
+     * Off by default, the extra reception costs more than the tx it saves
+     */
+    private final static boolean POWER_TRACKING = false;
+    private final static int POWER_TRACKING_INTERVAL = 16;
+
+    /**
+     * Channel table, one row per channel we listen to, the radio channel (0 - 15, i.e IEEE 802.15.4 channels 11 - 26)
+     * followed by its priority, lower value == higher priority, rows with the same priority rank in table order
+     * Higher priority channels are allowed to pre-empt the lower priority ones
+     * Everywhere else channels are referred to by their row in this table, the sink has to be the first row
+     */
+    private final static byte[] CHANNEL_TABLE = new byte[]{
+    	/* channel, priority */
+    	0, 0,	// sink
+    	1, 1,
+    	2, 2,
+    	3, 3
+    };
+    private final static int CHANNEL_COUNT = CHANNEL_TABLE.length / 2;
+    private final static byte CHANNEL_OFF = (byte)-1;   // Use this to turn off the radio rx
+    private final static byte CHANNEL_SINK = (byte)0;
+
+    /**
+     * Timers, every relay event is an alarm of one timer wheel on a single system timer, the channels take the events
+     * from TIMER_CHANNEL on. With TIMER_BUCKET_SPAN buckets a round of the wheel is longer than the source periods,
+     * alarms due within TIMER_COALESCE of a wake-up go off with it, apart from the transmissions
+     */
+    private final static int TIMER_POP = 0;
+    private final static int TIMER_TRANSMISSION = 1;
+    private final static int TIMER_METRICS = 2;
+    private final static int TIMER_SCHEDULE = 3;
+    private final static int TIMER_STORE = 4;
+    private final static int TIMER_CHANNEL = 5;
+    private final static int TIMER_COUNT = TIMER_CHANNEL + CHANNEL_COUNT;
+    private final static int TIMER_BUCKET_COUNT = 64;
+    private final static long TIMER_BUCKET_SPAN = Time.toTickSpan(Time.MILLISECS, 128L);
+    private final static long TIMER_COALESCE = Time.toTickSpan(Time.MILLISECS, 2L);
+
+    /**
+     * Scheduling policy for colliding windows. With POLICY_PRIORITY a window pre-empts any lower priority one and is dropped
+     * while a higher priority one is open. With POLICY_DEADLINE the window whose frame is due first gets the radio and the
+     * other one is resumed after it, only when both frames cannot be caught is the window that loses more frames kept, with
+     * priority breaking ties. A reception phase of the sink that has started is never interrupted
+     * A window that never got the radio ages its channel, which counts it as losing one more frame every time, after
+     * POLICY_STARVATION_LIMIT windows in a row the channel wins any collision
+     * The baseline POLICY_PRIORITY is the default, POLICY_DEADLINE is the option
+     */
+    private final static int POLICY_PRIORITY = 0;
+    private final static int POLICY_DEADLINE = 1;
+    private final static int SCHEDULE_POLICY = POLICY_PRIORITY;
+    private final static int POLICY_STARVATION_LIMIT = 4;
+
+    /**
+     * Sync phases we require the system to look at, after these only the transmission phase is scheduled
+     * Increasing this number will produce more reliable estimates about the sink, but will allow the relay
+     * to miss more frames from sources whilst syncing with the sink. A relay that starts part way through a sync
+     * phase does not know N from it, it stays for the next one whatever this is (see SinkEstimator)
+     */
+    private final static int SYNC_PHASES_REQUIRED = 1;
+
+    /**
+     * Sync phases the beacons of the fit have to span, a fit over the beacons of one phase spans only N intervals,
+     * too short to hold the reception phases for long against jitter and skew, so until a beacon of a later phase
+     * is in, the window of the sink opens a beacon interval early to hear the last beacon, rather than whole phases
+     */
+    private final static int SYNC_PHASES_FITTED = 2;
+
+    /**
+     * Frame layout, all frames carry an 11 byte header (frame control, sequence number and short addressing)
+     * followed by the payload, payloads longer than what we can buffer are truncated
+     */
+    private final static int FRAME_HEADER_LENGTH = 11;
+    private final static int FRAME_PAYLOAD_CAPACITY = 4;
+
+    /**
+     * Aggregation, pack as many buffered payloads as fit into one data frame when forwarding to the sink
+     * instead of sending a beacon frame per payload. Each payload is prefixed by a record header holding
+     * the address of its source and its length. The PHY limits frames to 127 bytes, including the checksum
+     * Off by default, only the SI of this repository unpacks aggregated frames, a stock sink counts one payload per frame
+     */
+    private final static boolean AGGREGATE_FRAMES = false;
+    private final static int FRAME_MAX_LENGTH = 125;
+    private final static int AGGREGATE_RECORD_HEADER_LENGTH = 3;
+
+    /**
+     * Airtime, 250kbps on the 2.4GHz PHY, the preamble, SFD and length byte go before every frame and the radio
+     * appends a 2 byte checksum. A frame is only handed to the radio if it is off air by the transmission deadline
+     */
+    private final static long RADIO_BYTE_TIME = Time.toTickSpan(Time.MICROSECS, 32L);
+    private final static int RADIO_FRAME_OVERHEAD = 8;
+
+    /**
+     * Buffering, with a queue per channel the buffer is drained in priority order and a full buffer
+     * evicts frames of the lowest priority channel first, keeping the priority rule all the way to the sink
+     * Without it frames are forwarded in the order they arrived and a full buffer drops the new frame,
+     * the ring takes a power of two for its size. Off by default, the arrival order is kept unless it is set
+     */
+    private final static boolean BUFFER_PER_CHANNEL = false;
+    private final static int BUFFER_SIZE = 4;
+
+    /**
+     * How often the counters are written to the log
+     */
+    private final static long METRICS_LOG_INTERVAL = Time.toTickSpan(Time.SECONDS, 60L);
+
+    /**
+     * Tracing, every radio callback, timer and channel switch is recorded in a ring buffer of TRACE_BUFFER_SIZE
+     * bytes, which keeps the latest records. Timers are told apart by their id in the info of the record
+     * Off by default, with TRACE_ENABLED the trace starts once the relay is loaded and is exported to the log
+     * whenever the ring is more than TRACE_EXPORT_LEVEL bytes full and with the metrics, on the host startTrace
+     * starts it without the export, for the simulator to drain the ring itself
+     */
+    private final static boolean TRACE_ENABLED = false;
+    private final static int TRACE_BUFFER_SIZE = 2048;
+    private final static int TRACE_EXPORT_LEVEL = TRACE_BUFFER_SIZE / 2;
+
+    /**
+     * Static schedule, once every period is known and the sink is synced the windows are compiled into a table
+     * the relay walks on a single timer, in place of the channel timers and the session stack. The table covers
+     * the hyperperiod of the periods rounded to SCHEDULE_QUANTUM, or SCHEDULE_HORIZON if that is shorter, and the
+     * next part is compiled from the latest estimates when the walk reaches its end. A source that keeps missing
+     * its windows returns the relay to the dynamic schedule to find it again
+     * The sink windows of the table are not opened early for power tracking
+     */
+    private final static boolean STATIC_SCHEDULE = false;
+    private final static int SCHEDULE_CAPACITY = 64;
+    private final static long SCHEDULE_QUANTUM = Time.toTickSpan(Time.MILLISECS, 100L);
+    private final static long SCHEDULE_HORIZON = Time.toTickSpan(Time.SECONDS, 30L);
+
+    /**
+     * Warm restart, once every channel is known the learnt timing that does not depend on the clock (source periods
+     * and jitter, the sink t and N) and the tx power are checked every TIMING_STORE_INTERVAL and saved to non-volatile
+     * memory when they differ from the saved copy, by more than TIMING_STORE_TOLERANCE for the times, to spare the flash.
+     * The clock of the mote starts over on a power cycle, so no times are saved and a valid copy is restored whatever
+     * the clock. Every channel is still discovered, but the first frame of a source or beacon of the sink gives its
+     * phase from the restored timing and the next one verifies it, the first reception phase is sent in unverified.
+     * A channel whose frame is not where it was predicted, or is not heard in VERIFY_WINDOWS_LIMIT windows, is
+     * discovered from scratch. Only on a platform with non-volatile memory, elsewhere there is no store to keep
+     * up to date and its timer is never armed
+     */
+    private final static boolean WARM_RESTART = true;
+    private final static long TIMING_STORE_INTERVAL = Time.toTickSpan(Time.SECONDS, 30L);
+    private final static long TIMING_STORE_TOLERANCE = Time.toTickSpan(Time.MILLISECS, 2L);
+    private final static int VERIFY_WINDOWS_LIMIT = 1;
+
+    /**
+     * Variables
+     */
+    private final RelayPlatform platform;
+    private int syncPhasesSeen = 0;
+    private SessionStack sessionStack = new SessionStack(CHANNEL_COUNT + 5);
+    private FrameBuffer frameBuffer = BUFFER_PER_CHANNEL ? null : new FrameBuffer(BUFFER_SIZE, FRAME_PAYLOAD_CAPACITY);
+    private PriorityFrameBuffer priorityFrameBuffer = BUFFER_PER_CHANNEL ? new PriorityFrameBuffer(BUFFER_SIZE, FRAME_PAYLOAD_CAPACITY, CHANNEL_COUNT) : null;
+	private byte channel = CHANNEL_OFF;
+
+	/**
+	 * All timers, the pop timer ends sessions, the channel timers try to switch the system to their channel
+	 */
+	private TimerWheel timers;
+
+    /**
+     * Priority order of the channels, built from the channel table
+     * ranks hold the position of each channel in the order, 0 == highest priority
+     */
+    private final byte[] channelOrder = new byte[CHANNEL_COUNT];
+    private final byte[] channelRanks = new byte[CHANNEL_COUNT];
+
+    /**
+     * Timing variables, filled in for each row of the channel table
+     * Each channel has a timer that is responsible for trying to switch the system to that channel
+     * Also keep track of the duration we want to spend on the channel and how often (the period)
+     * The sink is adjusted after sync, the sources are learnt from arrivals
+     */
+    private final long[] channelPeriods = new long[CHANNEL_COUNT];
+    private final long[] channelDurations = new long[CHANNEL_COUNT];
+    private final long[] channelOffsets = new long[CHANNEL_COUNT];	// How early we open the channel
+
+    /**
+     * Period learning for the sources, the sink is handled by the sink estimator instead
+     * Count the windows we opened for each source since its latest frame
+     */
+    private final PeriodEstimator[] channelEstimators = new PeriodEstimator[CHANNEL_COUNT];
+    private final int[] channelMissedWindows = new int[CHANNEL_COUNT];
+
+    /**
+     * Windows for the deadline policy, when the frame of each channel is due (the reception phase for the sink) and
+     * when its window closes, 0 once the window is over. Windows that lost the radio are deferred, to be resumed
+     * when the window that won ends, and count towards the starvation of their channel
+     */
+    private final long[] channelDues = new long[CHANNEL_COUNT];
+    private final long[] channelCloses = new long[CHANNEL_COUNT];
+    private final boolean[] channelDeferred = new boolean[CHANNEL_COUNT];
+    private final int[] channelStarvation = new int[CHANNEL_COUNT];
+
+    /**
+     * Transmissions are scheduled independant of the channel switching, however, it does depend
+     * on CHANNEL_SINK being triggered beforehand, but that is taken care of by the appripriate channel timer
+     */
+    private long transmissionDeadline = 0;
+
+    /**
+     * Transmission pipeline, two frame buffers back to back in one array, the next frame is encoded into one
+     * while the other is on air, so the tx handler only has to hand it to the radio. An encoded frame that does
+     * not fit before the deadline waits in its buffer for the next reception phase. The payloads stay in the frame
+     * buffer, where they can still be evicted, until their frame is handed to the radio, and count as forwarded once
+     * it is off air. A frame received meanwhile makes the encoded frame stale, so it is encoded again
+     */
+    private final static int TRANSMISSION_FRAME_LENGTH = AGGREGATE_FRAMES ? FRAME_MAX_LENGTH : FRAME_HEADER_LENGTH + FRAME_PAYLOAD_CAPACITY;
+    private byte[] transmissionFrames = new byte[2 * TRANSMISSION_FRAME_LENGTH];
+    private int[] transmissionLengths = new int[2];
+    private int[] transmissionPayloads = new int[2];
+    private int[] transmissionAddresses = new int[2 * BUFFER_SIZE];	// Source and PAN ID of every payload, BUFFER_SIZE per buffer
+    private int[] transmissionPanIDs = new int[2 * BUFFER_SIZE];
+    private int transmissionNext = 0;			// Buffer the next frame is encoded into and sent from
+    private boolean transmissionReady = false;	// Next buffer holds an encoded frame
+    private int transmissionPanID = -1;			// Destination PAN ID written into the headers of both buffers
+
+    /**
+     * Tx power, tracked from the beacons of the sink, along with the latest beacon to spot the beacons we miss
+     * the sink window is opened early for a beacon when the tracking flag is set
+     */
+    private PowerController powerController = new PowerController(SINK_RSSI_OFFSET, POWER_RSSI_HYSTERESIS, POWER_STEP, POWER_MAX_ADJUSTMENT);
+    private int sinkLastBeacon = 0;
+    private long sinkLastBeaconTime = 0;
+    private boolean sinkTrackingWindow = false;
+    private int sinkWindowsSinceTracking = 0;
+
+    /**
+     * Sync info from the sink, the estimator fits the timing of the sink over all beacons seen
+     * and the estimated frame stores the addressing of the sink and the estimated beacon interval (t)
+     * Our logic trusts the estimate as long as it is in within given spec range
+     * thus it will become trusted after a few sync frames have been received and will be affirmed by future frames
+     */
+    private SinkEstimator sinkEstimator = new SinkEstimator(BEACON_MIN_TIME, BEACON_MAX_TIME, TIMING_BUFFER);
+    private Frame estimatedSinkFrame = new Frame((byte)0, (byte)0, new byte[1], 1, 0);
+
+    /**
+     * Counters for the duty cycle of the radio and the flow of frames, per channel
+     * along with the time we (re)started listening to the current channel
+     */
+    private Metrics metrics = new Metrics(CHANNEL_COUNT);
+    private long listenStart = 0;
+
+    /**
+     * Sequence numbers of the sources, for dropping duplicates and counting the frames we miss
+     */
+    private SequenceTracker sequenceTracker = new SequenceTracker(CHANNEL_COUNT);
+
+    /**
+     * The walker of the static schedule, which has taken over from the channel timers while it is active
+     */
+    private ScheduleWalker schedule = STATIC_SCHEDULE ? new ScheduleWalker(SCHEDULE_CAPACITY, CHANNEL_COUNT, SCHEDULE_POLICY == POLICY_DEADLINE,
+    		CHANNEL_SINK, RADIO_SWITCH_BUFFER, SCHEDULE_QUANTUM, SCHEDULE_HORIZON) : null;
+    private boolean scheduleActive = false;
+
+    /**
+     * Warm restart, the timing saved to and restored from non-volatile memory
+     * Channels restored from it stay unverified until their first frame, counting the windows they opened
+     */
+    private TimingStore timingStore = null;
+    private final boolean[] channelVerified = new boolean[CHANNEL_COUNT];
+    private final int[] channelVerifyWindows = new int[CHANNEL_COUNT];
+
+    private Tracer tracer = new Tracer(TRACE_BUFFER_SIZE, TRACE_EXPORT_LEVEL);
+
+    /**
+     * Set up the relay and start discovery, or restore the timing of an earlier run
+     * @param platform	radio, timer, clock and non-volatile memory the relay runs on
+     */
+    public RelayEngine(RelayPlatform platform) {
+    	this.platform = platform;
+    	if (WARM_RESTART && platform.hasMemory())
+    		timingStore = new TimingStore(platform, CHANNEL_COUNT, CHANNEL_SINK, SOURCE_MIN_PERIOD, TIMING_STORE_TOLERANCE);
+
+    	// Sort the channels by priority, keeping table order for equal priorities
+    	for (int i = 0; i < CHANNEL_COUNT; i++) {
+    		int position = i;
+    		while (position > 0 && CHANNEL_TABLE[2 * channelOrder[position - 1] + 1] > CHANNEL_TABLE[2 * i + 1]) {
+    			channelOrder[position] = channelOrder[position - 1];
+    			position--;
+    		}
+
+    		channelOrder[position] = (byte)i;
+    	}
+
+    	for (int rank = 0; rank < CHANNEL_COUNT; rank++) {
+    		channelRanks[channelOrder[rank]] = (byte)rank;
+    	}
+
+    	// Pretune the transmission frames we use, payload and addressing are figured out when sending
+		// this allows some flexibility when it comes to source addresses and the sink address
+		for (int offset = 0; offset < transmissionFrames.length; offset += TRANSMISSION_FRAME_LENGTH) {
+	    	transmissionFrames[offset] = AGGREGATE_FRAMES ? Radio.FCF_DATA : Radio.FCF_BEACON;
+	    	transmissionFrames[offset + 1] = Radio.FCA_SRC_SADDR|Radio.FCA_DST_SADDR;
+			Util.set16le(transmissionFrames, offset + 5, Radio.SADDR_BROADCAST);
+		}
+
+        // All timers run on the one timer of the platform
+        timers = new TimerWheel(TIMER_COUNT, TIMER_BUCKET_COUNT, TIMER_BUCKET_SPAN, TIMER_COALESCE, platform, new TimerEvent(null){
+            public void invoke(byte param, long time){
+                RelayEngine.this.onTimer(param, time);
+            }
+        });
+
+        // Open the radio, its callbacks and the alarms of the timer come back to this engine
+        platform.open(this);
+
+        // The transmissions have to wait for the reception phase, the other timers can go off a little early
+        timers.setExact(TIMER_TRANSMISSION, true);
+
+        // Metrics timer, periodically logs the counters
+        timers.setAlarmBySpan(TIMER_METRICS, METRICS_LOG_INTERVAL);
+
+        // Source/sink timing
+        for (int i = 0; i < CHANNEL_COUNT; i++) {
+            channelPeriods[i] = i == CHANNEL_SINK ? Time.toTickSpan(Time.MILLISECS, 4000L) : 0L;
+            channelDurations[i] = i == CHANNEL_SINK ? Time.toTickSpan(Time.MILLISECS, 1500L) : CHANNEL_DURATION;
+            channelOffsets[i] = TIMING_BUFFER;
+            channelEstimators[i] = new PeriodEstimator(SOURCE_MIN_PERIOD, TIMING_BUFFER);
+            channelVerified[i] = true;
+        }
+
+        // Timing of an earlier run, saved once every channel is known
+        if (timingStore != null)
+        	timers.setAlarmBySpan(TIMER_STORE, TIMING_STORE_INTERVAL);
+
+        // Bottom of the session stack
+        sessionStack.push(CHANNEL_OFF, CHANNEL_INDEFINITE_DURATION, platform.currentTicks());
+
+        // With the timing restored a channel only has to be heard once to know its phase
+        if (timingStore != null)
+        	restoreTiming();
+
+        // This is the 'discovery' part for each channel
+        // These sessions are never to be popped, unless by the channel itself
+        // when either sync completes or a frame is received
+        // Pushed in reverse priority order, so that the highest priority channel is discovered first
+        for (int rank = CHANNEL_COUNT - 1; rank > 0; rank--) {
+        	sessionStack.push(channelOrder[rank], CHANNEL_INDEFINITE_DURATION, platform.currentTicks());
+        }
+
+        pushSession(channelOrder[0], CHANNEL_INDEFINITE_DURATION);
+
+        if (TRACE_ENABLED)
+        	startTrace(true);
+    }
+
+
+    /**
+     * The timer of the platform went off, the timer wheel hands the alarms that are due to onTimer
+     * @param time
+     */
+    public void onAlarm(long time) {
+    	timers.onTimer(time);
+    }
+
+    /**
+     * Start the trace, with a start marker, unless it has been started already
+     * @param export	true to write the records to the log, false if they are drained from the recorder
+     */
+    public void startTrace(boolean export) {
+    	tracer.start(platform.currentTicks(), getRadioChannel(), export);
+    }
+
+    /**
+     * @return recorder of the trace, null if tracing has not been started
+     */
+    public TraceRecorder getTraceRecorder() {
+    	return tracer.getRecorder();
+    }
+
+    /**
+     * Timer wheel callback, hands every alarm to the handler of its event
+     * @param param	event of the alarm
+     * @param time
+     */
+    private void onTimer(byte param, long time) {
+    	switch (param) {
+    		case TIMER_POP:
+    			// Pop timer, responsible for ending sessions by popping them off the stack
+    			popSession((byte)0, time);
+    			break;
+    		case TIMER_TRANSMISSION:
+    			// Transmission timer, responsible for initiating the transmission phase
+    			// assumes the channel is set correctly by the channel timer
+    			onScheduleTransmit((byte)0, time);
+    			break;
+    		case TIMER_METRICS:
+    			onMetricsTimer((byte)0, time);
+    			break;
+    		case TIMER_SCHEDULE:
+    			// Schedule timer, walks the static schedule
+    			onScheduleTimer((byte)0, time);
+    			break;
+    		case TIMER_STORE:
+    			onStoreTimer((byte)0, time);
+    			break;
+    		default:
+    			// Channel timers, the channel follows from the event
+    			onChannelTimer((byte)(param - TIMER_CHANNEL), time);
+    			break;
+    	}
+    }
+
+
+    /**
+     * Radio callbacks
+     */
+
+    /**
+     * Radio reception, receiving data, including both the sync frames and source data
+     * @param flags
+     * @param data
+     * @param len
+     * @param info
+     * @param time
+     * @return status
+     */
+    public int onReceive(int flags, byte[] data, int len, int info, long time) {
+    	if (data == null) {
+    		tracer.record(TraceRecorder.TYPE_RX_END, time, getRadioChannel(), info, null, 0);
+    		return 0;
+    	}
+
+    	tracer.record(TraceRecorder.TYPE_RX, time, getRadioChannel(), info, data, len);
+
+    	if (channel == CHANNEL_OFF)
+    		return 0;
+
+        if (channel == CHANNEL_SINK) {
+            onSinkReceive(flags, data, len, info, time);
+        } else {
+            onSourceReceive(flags, data, len, info, time);
+        }
+
+        return 0;
+    }
+
+    /**
+     * Subroutine for handling data from the sink
+     * @param flags
+     * @param data
+     * @param len
+     * @param info
+     * @param time
+     */
+    private void onSinkReceive(int flags, byte[] data, int len, int info, long time) {
+        // Sink node, synch phase
+        // Read out the values from the data
+        int srcPanID = Util.get16le(data, 7);
+        int srcAddr = Util.get16le(data, 9);
+        int n = (int)data[11];	// Sink frames have only one payload byte (because 2 <= n <= 10)
+
+        // Relays forward with the PAN ID of the source, only a beacon comes from the PAN of the sink
+        if (srcPanID != CHANNEL_TABLE[2 * CHANNEL_SINK] + CHANNEL_START_PAN_ID)
+        	return;
+
+        metrics.frameReceived(CHANNEL_SINK);
+
+        // After a warm restart the first beacon gives the phase to the restored t, the next has to announce the same reception phase
+        if (!channelVerified[CHANNEL_SINK] && sinkEstimator.isTrusted())
+        	verifyChannel(CHANNEL_SINK, sinkEstimator.getError(n, time));
+
+        // The source address and PAN ID are the latest we have seen, so always update
+        estimatedSinkFrame.setPanID(srcPanID);
+        estimatedSinkFrame.setAddress(srcAddr);
+
+        // Fit the timing over every beacon seen so far, the estimator also keeps track of the sync phases
+        sinkEstimator.add(n, time);
+        syncPhasesSeen = sinkEstimator.getPhasesSeen();
+
+        if (sinkEstimator.isTrusted()) {
+        	estimatedSinkFrame.setTime(sinkEstimator.getInterval());
+        }
+
+        // The static schedule takes its timing from the estimator when it is compiled
+        if (sinkEstimator.isTrusted() && !scheduleActive) {
+            // Every beacon places the reception phase n beacon intervals ahead, schedule from the first beacon
+            // we can trust and refine with every later one, so losing the last beacon of the phase is harmless
+            long currentEstimate = sinkEstimator.getInterval();
+            long receptionStart = sinkEstimator.getReceptionStart();
+            long buffer = getSinkTimingBuffer();
+
+            // Update the period we predict for the sink
+            long period = sinkEstimator.getPeriod();
+
+			// Calculate the duration of the channel and the next time we have to open it
+            long nextOpen = receptionStart + period - buffer;
+            long duration = currentEstimate;
+            if (!isSinkSynced()) {
+            	// Open for the whole of the next sync phase, 6 = 1 reception + 5 sleep
+				nextOpen = receptionStart + currentEstimate * 6 - buffer;
+				duration += currentEstimate * sinkEstimator.getBeaconCount();
+				sinkTrackingWindow = false;
+			} else {
+				// The next window is due to hear the last beacon, at least until the fit spans more than one phase
+				sinkTrackingWindow |= syncPhasesSeen < SYNC_PHASES_FITTED;
+				if (sinkTrackingWindow)
+					nextOpen -= currentEstimate;
+			}
+
+			channelPeriods[CHANNEL_SINK] = period;
+			channelDurations[CHANNEL_SINK] = duration;
+
+            timers.setAlarmTime(TIMER_CHANNEL + CHANNEL_SINK, nextOpen);
+
+            // Start transmitting when the reception phase starts (n * t after this beacon)
+            timers.setAlarmTime(TIMER_TRANSMISSION, receptionStart);
+
+            // Re-schedule the session end (in case our estimates improved or in case this was the first beacon we trust)
+            timers.setAlarmTime(TIMER_POP, receptionStart + currentEstimate);
+
+            // Once the beacon of a tracking window is in, the window is only needed again for the reception phase
+            if (isSinkSynced() && channelCloses[CHANNEL_SINK] > time)
+            	channelDues[CHANNEL_SINK] = receptionStart;
+
+            // The first beacon after a warm restart is trusted for the reception phase it announces, rather than wait
+            // for the beacon that verifies it, discover the sources until the phase, the window after it verifies.
+            // The restored N needs no second sync phase, the window is only needed for the reception phase
+            if (!channelVerified[CHANNEL_SINK] && channel == CHANNEL_SINK && receptionStart - buffer > time) {
+            	sinkTrackingWindow = false;
+            	channelDurations[CHANNEL_SINK] = currentEstimate;
+            	timers.setAlarmTime(TIMER_CHANNEL + CHANNEL_SINK, receptionStart - buffer);
+            	timers.setAlarmTime(TIMER_POP, time);
+            }
+        }
+
+        // Update the smoothed RSSI the tx power is based on, a beacon that follows one of the same phase
+        // also tells us how many beacons we missed in between, which biases the power up
+        powerController.addRssi(info & 0xFF);
+        if (sinkEstimator.isTrusted() && n < sinkLastBeacon
+        		&& time - sinkLastBeaconTime < (sinkLastBeacon - n) * sinkEstimator.getInterval() + TIMING_BUFFER)
+        	powerController.addBeacon(sinkLastBeacon - n - 1);
+
+        sinkLastBeacon = n;
+        sinkLastBeaconTime = time;
+    }
+
+    /**
+     * The timing buffer we leave around the reception phase of the sink, shrinks from TIMING_BUFFER
+     * as the sink estimator proves that its predictions are accurate
+     * @return timing buffer, in ticks
+     */
+    private long getSinkTimingBuffer() {
+    	if (sinkEstimator.getConfidence() == 0)
+    		return TIMING_BUFFER;
+
+    	long buffer = SINK_TIMING_BUFFER_MIN + 2 * sinkEstimator.getUncertainty();
+    	return buffer < TIMING_BUFFER ? buffer : TIMING_BUFFER;
+    }
+
+    /**
+     * Subroutine for handling data from any source
+     * @param flags
+     * @param data
+     * @param len
+     * @param info
+     * @param time
+     */
+    private void onSourceReceive(int flags, byte[] data, int len, int info, long time) {
+    	// Cheat a bit and use the channel of our radio
+    	// it would be more correct to read it out of 'data'
+    	// but as we only have one source per channel it is more efficient to just use the channel
+	    int index = (int)getChannel();
+
+		// Read out the values from the data
+        int srcPanID = Util.get16le(data, 7);
+        int srcAddr = Util.get16le(data, 9);
+
+        // Sources number their frames in the last byte of the payload, drop frames we already have before
+        // they count as received or move the window of the channel, a retransmission is not where the frame was due
+        if (len > FRAME_HEADER_LENGTH && !sequenceTracker.accept(srcAddr, data[len - 1], time, channelPeriods[index]))
+        	return;
+
+		// After a warm restart the first frame gives the phase to the restored period, the next has to arrive where it predicts
+		PeriodEstimator estimator = channelEstimators[index];
+		if (!channelVerified[index] && estimator.hasArrival())
+			verifyChannel(index, estimator.getError(time));
+
+		// Learn the period from the arrival, once known we can immediately reschedule the timer
+		// as this callback helps us fix the period and timing for the channel in the future
+		estimator.add(time);
+		metrics.frameReceived(index);
+		channelMissedWindows[index] = 0;
+		channelCloses[index] = 0;
+
+		if (estimator.isKnown()) {
+			channelPeriods[index] = estimator.getPeriod();
+
+			// Size the window around the next arrival from the jitter we have seen
+			if (estimator.hasJitter()) {
+				long guard = 2 * estimator.getJitter() + SOURCE_WINDOW_MARGIN;
+				if (guard > TIMING_BUFFER - RADIO_SWITCH_BUFFER)
+					guard = TIMING_BUFFER - RADIO_SWITCH_BUFFER;
+
+				channelOffsets[index] = RADIO_SWITCH_BUFFER + guard;
+				channelDurations[index] = channelOffsets[index] + guard < CHANNEL_DURATION ? channelOffsets[index] + guard : CHANNEL_DURATION;
+			}
+
+			if (!scheduleActive) {
+				timers.setAlarmTime(TIMER_CHANNEL + index, time + channelPeriods[index] - channelOffsets[index]);
+			}
+		}
+
+        // Copy the payload straight into the buffer, it recycles its frames so nothing is allocated here
+        int droppedPanID;
+        if (BUFFER_PER_CHANNEL) {
+        	droppedPanID = priorityFrameBuffer.push(channelRanks[index], srcPanID, srcAddr, data, FRAME_HEADER_LENGTH, len - FRAME_HEADER_LENGTH, time);
+        } else {
+        	droppedPanID = frameBuffer.push(srcPanID, srcAddr, data, FRAME_HEADER_LENGTH, len - FRAME_HEADER_LENGTH, time);
+        }
+
+        // Count the frame we lost against the channel it came from
+        byte dropped = getChannelForPanID(droppedPanID);
+        if (dropped != CHANNEL_OFF)
+        	metrics.frameDropped(dropped);
+
+        // The encoded frame may hold the payload that was lost or miss a higher priority one
+        transmissionReady = false;
+
+		// Terminate the session immediately as there is only 1 frame per source period
+		// unless this is the first frame we see, in which case we stay until the next one reveals the period
+		if (estimator.isKnown()) {
+			endWindow();
+		}
+    }
+
+    /**
+     * Transmission callback from the radio, used to determine if another transmission should be attempted
+     * @param flags
+     * @param data
+     * @param len
+     * @param info
+     * @param time
+     */
+    public int onTransmit(int flags, byte[] data, int len, int info, long time) {
+    	tracer.record(TraceRecorder.TYPE_TX, time, getRadioChannel(), info, data, len);
+
+    	// The frame is off air, its payloads are forwarded
+    	int sent = transmissionNext ^ 1;
+    	for (int i = 0; i < transmissionPayloads[sent]; i++) {
+    		countForwarded(transmissionAddresses[sent * BUFFER_SIZE + i], transmissionPanIDs[sent * BUFFER_SIZE + i]);
+    	}
+
+    	transmissionPayloads[sent] = 0;
+
+    	// Hand over the frame encoded while this one was on air, for as long as there is time
+    	transmitFromBuffer();
+    	return 0;
+    }
+
+
+    /**
+     * Transmission
+     */
+
+    /**
+     * Transmission, started by a timer and then recursively done until now + t
+     * @param param
+     * @param time
+     */
+    private void onScheduleTransmit(byte param, long time) {
+    	tracer.timer(time, param, Tracer.TIMER_TRANSMISSION);
+        timers.setAlarmTime(TIMER_TRANSMISSION, time + channelPeriods[CHANNEL_SINK]);
+
+        // A source may still hold the radio under the deadline policy, the reception phase takes it over
+        if (SCHEDULE_POLICY == POLICY_DEADLINE && channel != CHANNEL_SINK && channelCloses[CHANNEL_SINK] > time)
+        	pushSession(CHANNEL_SINK, channelCloses[CHANNEL_SINK] - time);
+
+        // Without the sink window there is no one to send to, and ending the window would end another channel's session
+        if (channel != CHANNEL_SINK)
+        	return;
+
+        startTransmission(time);
+    }
+
+    /**
+     * Start the transmissions of a reception phase, lasting until its end
+     * @param time	start of the reception phase
+     */
+    private void startTransmission(long time) {
+        transmissionDeadline = time + estimatedSinkFrame.getTime() - getSinkTimingBuffer();
+
+		// Transmit from buffer, the Tx handler takes care of continuing transmission for as long as possible
+        transmitFromBuffer();
+    }
+
+    /**
+     * Send the encoded frame if it is off air by the deadline and encode the next one while it is on air
+     */
+    private void transmitFromBuffer() {
+    	if (!transmissionReady)
+    		encodeTransmission();
+
+	    // If buffer has been emptied, then bail and take the channel with us in case
+	    // there is an impending reception from one of the sources
+	    if (!transmissionReady) {
+	        endWindow();
+	        return;
+        }
+
+	    int length = transmissionLengths[transmissionNext];
+	    if (platform.currentTicks() + getAirtime(length) > transmissionDeadline) {
+    		// Out of time with frames left over, the encoded one goes first in the next reception phase
+    		metrics.deadlineHit();
+    		return;
+	    }
+
+		// Tx handler will take care of the recursion (i.e sending more frames than 1)
+	    // The payloads leave the frame buffer only now that their frame goes to the radio
+	    int sent = transmissionNext;
+	    if (BUFFER_PER_CHANNEL) {
+	    	priorityFrameBuffer.remove(transmissionPayloads[sent]);
+	    } else {
+	    	frameBuffer.remove(transmissionPayloads[sent]);
+	    }
+
+		metrics.transmission();
+		platform.transmit(Device.ASAP|powerController.getTxPower(), transmissionFrames, sent * TRANSMISSION_FRAME_LENGTH, length);
+
+		transmissionNext = sent ^ 1;
+		transmissionReady = false;
+		encodeTransmission();
+    }
+
+    /**
+     * Encode the buffered frames into the next transmission buffer, they are left in the frame buffer until it is sent
+     */
+    private void encodeTransmission() {
+	    if (BUFFER_PER_CHANNEL ? priorityFrameBuffer.isEmpty() : frameBuffer.isEmpty())
+	    	return;
+
+	    // Per channel queues hand out the frames of the highest priority channel first
+	    Frame nextFrame = BUFFER_PER_CHANNEL ? priorityFrameBuffer.peek(0) : frameBuffer.peek(0);
+
+	    // The destination PAN ID only changes with the sink, rewrite it in both buffers when it does
+	    int panID = estimatedSinkFrame.getPanID();
+	    if (panID != transmissionPanID) {
+	    	for (int offset = 0; offset < transmissionFrames.length; offset += TRANSMISSION_FRAME_LENGTH) {
+	    		Util.set16le(transmissionFrames, offset + 3, panID);
+	    	}
+
+	    	transmissionPanID = panID;
+	    }
+
+	    // Pass along the PAN ID and address of the source, the PAN ID keeps other relays from taking the frame for a beacon
+	    int offset = transmissionNext * TRANSMISSION_FRAME_LENGTH;
+		Util.set16le(transmissionFrames, offset + 7, nextFrame.getPanID());
+		Util.set16le(transmissionFrames, offset + 9, nextFrame.getAddress());
+
+		int length = FRAME_HEADER_LENGTH;
+		int payloads = 0;
+		int sources = transmissionNext * BUFFER_SIZE;
+		if (AGGREGATE_FRAMES) {
+			// Keep adding records for as long as the largest possible record still fits
+			while (true) {
+				transmissionAddresses[sources + payloads] = nextFrame.getAddress();
+				transmissionPanIDs[sources + payloads] = nextFrame.getPanID();
+				Util.set16le(transmissionFrames, offset + length, nextFrame.getAddress());
+				transmissionFrames[offset + length + 2] = (byte)nextFrame.getPayloadLength();
+				Util.copyData(nextFrame.getPayload(), 0, transmissionFrames, offset + length + AGGREGATE_RECORD_HEADER_LENGTH, nextFrame.getPayloadLength());
+				length += AGGREGATE_RECORD_HEADER_LENGTH + nextFrame.getPayloadLength();
+				payloads++;
+
+				if (length + AGGREGATE_RECORD_HEADER_LENGTH + FRAME_PAYLOAD_CAPACITY > FRAME_MAX_LENGTH)
+					break;
+
+				nextFrame = BUFFER_PER_CHANNEL ? priorityFrameBuffer.peek(payloads) : frameBuffer.peek(payloads);
+				if (nextFrame == null)
+					break;
+			}
+		} else {
+			transmissionAddresses[sources] = nextFrame.getAddress();
+			transmissionPanIDs[sources] = nextFrame.getPanID();
+			Util.copyData(nextFrame.getPayload(), 0, transmissionFrames, offset + FRAME_HEADER_LENGTH, nextFrame.getPayloadLength());
+			length += nextFrame.getPayloadLength();
+			payloads++;
+		}
+
+		transmissionLengths[transmissionNext] = length;
+		transmissionPayloads[transmissionNext] = payloads;
+		transmissionReady = true;
+    }
+
+    /**
+     * Count a payload as forwarded against its source and the channel it came from
+     * @param address	address of the source of the payload
+     * @param panID		PAN ID of the network the payload came from
+     */
+    private void countForwarded(int address, int panID) {
+    	sequenceTracker.forwarded(address);
+
+    	// Frames of a PAN ID outside the channel table have no counters
+    	byte forwarded = getChannelForPanID(panID);
+    	if (forwarded != CHANNEL_OFF)
+    		metrics.frameForwarded(forwarded);
+    }
+
+    /**
+     * @param length	length of the frame, without the checksum
+     * @return time the frame is on air for, in ticks
+     */
+    private long getAirtime(int length) {
+    	return (RADIO_FRAME_OVERHEAD + length) * RADIO_BYTE_TIME;
+    }
+
+
+    /**
+     * Session management, a session is the time we spend listening to a specific channel
+     * in some cases one session can pre-empt the other, to efficiently transition from
+     * one channel to another, keep a stack system with sessions in them, each specifying
+     * duration and start time, so that it can be ended as requested
+     */
+
+    /**
+     * Pop a session, giving time to the previous session
+     * @param param
+     * @param time
+     */
+    private void popSession(byte param, long time) {
+    	tracer.timer(time, param, Tracer.TIMER_POP);
+
+    	// An empty stack should never occur, but just in case, check for it
+    	if (sessionStack.isEmpty())
+	    	return;
+
+		Session poppedSession = sessionStack.pop();
+		if (poppedSession.getChannel() != CHANNEL_OFF)
+			metrics.sessionPopped(poppedSession.getChannel());
+
+    	if (sessionStack.isEmpty())
+	    	return;
+
+		// Move to the previous channel, schedule the next pop (which might happen immediately)
+		Session session = sessionStack.peek();
+		setChannel(session.getChannel());
+
+		// A window that lost the radio to the session that ended gets it if it is still open
+		if (SCHEDULE_POLICY == POLICY_DEADLINE && resumeDeferred(time))
+			return;
+
+		// Back at the bottom of the stack with every channel discovered, hand over to the static schedule
+		if (STATIC_SCHEDULE && session.getChannel() == CHANNEL_OFF && isTimingKnown()) {
+			startSchedule(time);
+			return;
+		}
+
+		// Calculate the remaining time in the session
+		// Notice that the alarm time might end up being in past
+		// in which case the session is terminated immediately
+		// and another one is made key
+		if (session.getDuration() != CHANNEL_INDEFINITE_DURATION) {
+			timers.setAlarmTime(TIMER_POP, session.getStartTime() + session.getDuration());
+		}
+    }
+
+    /**
+     * Push a new session, starts the session and schedules its' end
+     * The stack reuses its sessions, so nothing is allocated here
+     * @param sessionChannel	channel of the session
+     * @param duration			duration of the session, CHANNEL_INDEFINITE_DURATION for a session only ended by its channel
+     */
+    private void pushSession(byte sessionChannel, long duration) {
+	    Session session = sessionStack.push(sessionChannel, duration, platform.currentTicks());
+
+	    if (channel != CHANNEL_OFF)
+	    	metrics.sessionPreempted(channel);
+
+	    if (session.getChannel() != CHANNEL_OFF)
+	    	metrics.sessionPushed(session.getChannel());
+
+	    // Change the channel, in case of CHANNEL_OFF, this simply switches off the radio
+	    setChannel(session.getChannel());
+
+    	// Schedule the end of the session if this is not an indefinite session
+	    if (session.getDuration() != CHANNEL_INDEFINITE_DURATION) {
+		    timers.setAlarmBySpan(TIMER_POP, session.getDuration());
+	    }
+    }
+
+    /**
+     * Channel timer, fired when there is a scheduled channel change. Channel is determined from the timer that fires
+     * @param param	param from the timer, treated as the channel number to switch to
+     * @param time
+     */
+    private void onChannelTimer(byte param, long time) {
+    	tracer.timer(time, param, Tracer.TIMER_CHANNEL);
+
+        // Schedule next of this timer, remember, callback means that we have seen at least
+        // one communication from the channel represented by this timer
+        // First communication is taken care of by the indefinite session, hence not reaching this
+        int index = (int)param;
+        long next = time + channelPeriods[index];
+        long duration = channelDurations[index];
+        long due = time + channelOffsets[index];
+        boolean verifying = !channelVerified[index];
+
+        if (index == CHANNEL_SINK) {
+        	// This window opened a beacon interval early, stay for the beacon and the reception phase,
+        	// only such a window hears a beacon to verify restored timing with
+        	long interval = estimatedSinkFrame.getTime();
+        	due = getNextReceptionStart(time);
+        	verifying &= sinkTrackingWindow;
+        	if (sinkTrackingWindow) {
+        		next += interval;
+        		duration += interval;
+        		due -= interval;
+        	}
+
+        	// The whole window is needed while syncing
+        	if (!isSinkSynced())
+        		due = time;
+
+        	// Open the next window early if it is time to track the power again, to verify restored timing,
+        	// or to stretch the fit of the sink over a second phase
+        	sinkTrackingWindow = (POWER_TRACKING && ++sinkWindowsSinceTracking >= POWER_TRACKING_INTERVAL) || !channelVerified[CHANNEL_SINK]
+        			|| syncPhasesSeen < SYNC_PHASES_FITTED;
+        	if (sinkTrackingWindow) {
+        		sinkWindowsSinceTracking = 0;
+        		next -= interval;
+        	}
+        }
+
+        timers.setAlarmTime(TIMER_CHANNEL + index, next);
+
+        // The previous window of the channel never got the radio
+        if (channelDeferred[index])
+        	channelStarvation[index]++;
+
+        channelDues[index] = due;
+        channelCloses[index] = time + duration;
+        channelDeferred[index] = false;
+
+        // Switch to the channel if we can pre-empt or if the radio is off
+        byte currentChannel = getChannel();
+        if (takesOver(index, currentChannel, time)) {
+
+        	// Restored timing that keeps missing the frames is given up on
+        	if (verifying && ++channelVerifyWindows[index] > VERIFY_WINDOWS_LIMIT) {
+        		rediscoverChannel(index);
+        		return;
+        	}
+
+        	// Pre-empting a source cuts its window short, so do not count it as missed
+        	if (currentChannel != CHANNEL_OFF && currentChannel != CHANNEL_SINK && channelMissedWindows[currentChannel] > 0)
+        		channelMissedWindows[currentChannel]--;
+
+        	// A source that keeps missing its windows has drifted away from the period we learnt,
+        	// listen for a whole period to catch its next frame, which re-aligns the timer
+        	if (index != CHANNEL_SINK && ++channelMissedWindows[index] > SOURCE_MISSED_WINDOWS_LIMIT) {
+        		duration = channelPeriods[index] + channelDurations[index];
+        		channelMissedWindows[index] = 0;
+        		channelCloses[index] = time + duration;
+        	}
+
+        	channelStarvation[index] = 0;
+        	pushSession(param, duration);
+        } else if (SCHEDULE_POLICY == POLICY_DEADLINE) {
+        	channelDeferred[index] = true;
+        }
+    }
+
+    /**
+     * Scheduling policy, decides which of two open windows gets the radio
+     */
+
+    /**
+     * @param index		channel whose window wants the radio
+     * @param current	channel that has the radio, CHANNEL_OFF if the radio is off
+     * @param time
+     * @return true if the window should take the radio
+     */
+    private boolean takesOver(int index, byte current, long time) {
+    	if (current == CHANNEL_OFF)
+    		return true;
+
+    	if (SCHEDULE_POLICY == POLICY_PRIORITY)
+    		return channelRanks[current] >= channelRanks[index];
+
+    	// A reception phase that has started is never interrupted
+    	if (current == CHANNEL_SINK && channelDues[CHANNEL_SINK] <= time)
+    		return false;
+
+    	return precedes(index, current, time);
+    }
+
+    /**
+     * Deadline policy, the frame due first wins if there is time to switch to the other one after it
+     * otherwise the window that loses more frames, then the higher priority one
+     * @return true if window a should be listened to rather than window b
+     */
+    private boolean precedes(int a, int b, long time) {
+    	// Windows still waiting for their frame come before those that are over
+    	boolean aPending = channelDues[a] + RADIO_SWITCH_BUFFER > time;
+    	boolean bPending = channelDues[b] + RADIO_SWITCH_BUFFER > time;
+    	if (aPending != bPending)
+    		return aPending;
+
+    	if (aPending) {
+    		long first = channelDues[a] < channelDues[b] ? channelDues[a] : channelDues[b];
+    		long last = channelDues[a] < channelDues[b] ? channelDues[b] : channelDues[a];
+    		if (first + 2 * RADIO_SWITCH_BUFFER <= last)
+    			return channelDues[a] < channelDues[b];
+
+    		int aLoss = getWindowLoss(a);
+    		int bLoss = getWindowLoss(b);
+    		if (aLoss != bLoss)
+    			return aLoss > bLoss;
+    	}
+
+    	return channelRanks[a] < channelRanks[b];
+    }
+
+    /**
+     * @param index	channel to look at
+     * @return frames lost if the current window of the channel does not get the radio, aged by its starvation
+     */
+    private int getWindowLoss(int index) {
+    	if (channelStarvation[index] >= POLICY_STARVATION_LIMIT)
+    		return Integer.MAX_VALUE;
+
+    	if (index != CHANNEL_SINK)
+    		return 1 + channelStarvation[index];
+
+    	// Missing a reception phase only loses the frames that do not fit the buffer until the next one
+    	int expected = BUFFER_PER_CHANNEL ? priorityFrameBuffer.count() : frameBuffer.count();
+    	for (int i = 0; i < CHANNEL_COUNT; i++) {
+    		if (i != CHANNEL_SINK && channelPeriods[i] > 0)
+    			expected += (int)(channelPeriods[CHANNEL_SINK] / channelPeriods[i]);
+    	}
+
+    	int overflow = expected - (BUFFER_PER_CHANNEL ? BUFFER_SIZE : frameBuffer.capacity());
+    	return (overflow > 0 ? overflow : 0) + channelStarvation[index];
+    }
+
+    /**
+     * Give the radio to the deferred window that comes first, if it is still open and takes over from the current session
+     * @param time
+     * @return true if a window was resumed
+     */
+    private boolean resumeDeferred(long time) {
+    	int best = -1;
+    	for (int i = 0; i < CHANNEL_COUNT; i++) {
+    		if (channelDeferred[i] && channelCloses[i] <= time)
+    			channelDeferred[i] = false;
+
+    		if (channelDeferred[i] && (best < 0 || precedes(i, best, time)))
+    			best = i;
+    	}
+
+    	if (best < 0 || !takesOver(best, channel, time))
+    		return false;
+
+    	channelDeferred[best] = false;
+    	channelStarvation[best] = 0;
+    	pushSession((byte)best, channelCloses[best] - time);
+    	return true;
+    }
+
+    /**
+     * @param time
+     * @return start of the first reception phase of the sink at or after the time
+     */
+    private long getNextReceptionStart(long time) {
+    	long receptionStart = sinkEstimator.getReceptionStart();
+    	long period = channelPeriods[CHANNEL_SINK];
+    	while (period > 0 && receptionStart < time) {
+    		receptionStart += period;
+    	}
+
+    	return receptionStart;
+    }
+
+    /**
+     * End the window we are listening to early, as there is nothing more to receive or send in it
+     */
+    private void endWindow() {
+    	if (channel != CHANNEL_OFF)
+    		channelCloses[channel] = 0;
+
+    	if (scheduleActive) {
+    		long now = platform.currentTicks();
+    		if (channel != CHANNEL_OFF)
+    			schedule.endWindow(channel, now + channelDurations[channel]);
+
+    		setChannel(schedule.getListenChannel(now));
+    	} else {
+    		timers.setAlarmBySpan(TIMER_POP, 0);
+    	}
+    }
+
+
+    /**
+     * Static schedule, the windows of all channels compiled into a table of entries that is walked on one timer
+     * Collisions between the windows are resolved when compiling, so each entry only switches the channel
+     * or starts the transmissions of a reception phase
+     */
+
+    /**
+     * @return true once the sync phases required have been heard and the estimator knows N from them
+     */
+    private boolean isSinkSynced() {
+    	return syncPhasesSeen >= SYNC_PHASES_REQUIRED && sinkEstimator.isBeaconCountKnown();
+    }
+
+    /**
+     * @return true if every period is known, the sink is synced and any restored timing verified, so the schedule can be compiled
+     */
+    private boolean isTimingKnown() {
+    	if (!sinkEstimator.isTrusted() || !isSinkSynced() || syncPhasesSeen < SYNC_PHASES_FITTED)
+    		return false;
+
+    	for (int i = 0; i < CHANNEL_COUNT; i++) {
+    		if (!channelVerified[i] || (i != CHANNEL_SINK && !channelEstimators[i].isKnown()))
+    			return false;
+    	}
+
+    	return true;
+    }
+
+    /**
+     * Take over from the channel timers and the session stack, which is left at its bottom session
+     * @param time
+     */
+    private void startSchedule(long time) {
+    	for (int i = 0; i < CHANNEL_COUNT; i++) {
+    		timers.cancelAlarm(TIMER_CHANNEL + i);
+    	}
+
+    	timers.cancelAlarm(TIMER_TRANSMISSION);
+    	timers.cancelAlarm(TIMER_POP);
+
+    	scheduleActive = true;
+    	compileSchedule(time);
+    	timers.setAlarmTime(TIMER_SCHEDULE, schedule.getNextTime());
+    }
+
+    /**
+     * Hand back to the channel timers, they are armed for the next windows of their channels
+     * @param time
+     */
+    private void stopSchedule(long time) {
+    	scheduleActive = false;
+    	timers.cancelAlarm(TIMER_SCHEDULE);
+    	setChannel(CHANNEL_OFF);
+
+    	fillScheduleOpens(time);
+    	for (int i = 0; i < CHANNEL_COUNT; i++) {
+    		timers.setAlarmTime(TIMER_CHANNEL + i, schedule.getOpen(i));
+    	}
+
+    	timers.setAlarmTime(TIMER_TRANSMISSION, schedule.getOpen(CHANNEL_SINK) + getSinkTimingBuffer());
+    }
+
+    /**
+     * Compile the schedule from the latest estimates
+     * @param time	time the schedule starts at
+     */
+    private void compileSchedule(long time) {
+    	fillScheduleOpens(time);
+    	schedule.compile(time, channelPeriods, channelDurations, channelRanks, getSinkTimingBuffer());
+    }
+
+    /**
+     * Work out the next time the window of each channel opens and when its frame arrives in the window
+     * @param time	earliest time a window can open
+     */
+    private void fillScheduleOpens(long time) {
+    	for (int i = 0; i < CHANNEL_COUNT; i++) {
+    		long period = channelPeriods[i];
+    		long open = i == CHANNEL_SINK ? sinkEstimator.getReceptionStart() - getSinkTimingBuffer()
+    				: channelEstimators[i].getLastArrival() + period - channelOffsets[i];
+
+    		while (open < time) {
+    			open += period;
+    		}
+
+    		schedule.setWindow(i, open, i == CHANNEL_SINK ? -1L : channelOffsets[i]);
+    	}
+    }
+
+    /**
+     * Schedule timer, walks to the next entry of the schedule, compiling the next part at the end of the table
+     * @param param
+     * @param time
+     */
+    private void onScheduleTimer(byte param, long time) {
+    	tracer.timer(time, param, Tracer.TIMER_SCHEDULE);
+
+    	if (schedule.isAtEnd())
+    		compileSchedule(schedule.getEnd());
+
+    	int entry = schedule.step();
+    	if (schedule.isTransmit(entry)) {
+    		startTransmission(time);
+    	} else {
+    		byte next = schedule.getChannel(entry, time);
+
+    		// A source that keeps missing its windows has drifted away from the period we learnt,
+    		// the dynamic schedule listens for a whole period to find it again
+    		if (next != CHANNEL_OFF && next != CHANNEL_SINK && next != channel && ++channelMissedWindows[next] > SOURCE_MISSED_WINDOWS_LIMIT) {
+    			stopSchedule(time);
+    			return;
+    		}
+
+    		setChannel(next);
+    		schedule.listen(entry);
+    	}
+
+    	timers.setAlarmTime(TIMER_SCHEDULE, schedule.getNextTime());
+    }
+
+
+    /**
+     * Channel management, the interface that handles switching channels on the radio itself
+     * also responsible for turning the radio on/off during that channel change
+     */
+
+    /**
+     * @return the current channel (row of the channel table) or CHANNEL_OFF if radio is not receiving
+     */
+    private byte getChannel() {
+    	return channel;
+    }
+
+    /**
+     * @return the radio channel we are listening to, TraceRecorder.NO_CHANNEL if the radio is off
+     */
+    private int getRadioChannel() {
+    	return channel == CHANNEL_OFF ? TraceRecorder.NO_CHANNEL : CHANNEL_TABLE[2 * channel];
+    }
+
+    /**
+     * Setting a new channel, stops Rx, switches channel and the restarts Rx
+     * @param nextChannel	new channel to switch to, as a row of the channel table
+     */
+    private void setChannel(byte nextChannel) {
+    	if (getChannel() == nextChannel)
+    		return;
+
+    	long switchStart = platform.currentTicks();
+    	if (channel != CHANNEL_OFF) {
+    		// Stop the radio first
+    		platform.stopRx();
+    		countListenTime(switchStart);
+    	}
+
+    	// Let the period estimators know when we stop and start listening to a source
+    	if (channel != CHANNEL_OFF && channel != CHANNEL_SINK)
+    		channelEstimators[channel].leave(platform.currentTicks());
+
+    	if (nextChannel != CHANNEL_OFF && nextChannel != CHANNEL_SINK)
+    		channelEstimators[nextChannel].rejoin(platform.currentTicks() + RADIO_SWITCH_BUFFER);
+
+    	// And the sink estimator when we start listening for beacons, to tell whether the first one heard tops the countdown
+    	if (nextChannel == CHANNEL_SINK)
+    		sinkEstimator.listen(platform.currentTicks() + RADIO_SWITCH_BUFFER);
+
+    	channel = nextChannel;
+    	tracer.record(TraceRecorder.TYPE_CHANNEL, switchStart, getRadioChannel(), 0, null, 0);
+
+    	// Tune the radio and start it, if it was not meant to stay off
+    	if (nextChannel != CHANNEL_OFF) {
+    		byte radioChannel = CHANNEL_TABLE[2 * nextChannel];
+    		int panid = radioChannel + CHANNEL_START_PAN_ID;
+
+            platform.setChannel(radioChannel);
+            platform.setPanId(panid);
+
+            // Start the radio with a small delay
+            // TODO: This is a workaround for an IBM bug which causes the radio to start listening to the old channel, remove the delay when the bug is fixed
+            platform.startRx(Device.TIMED, platform.currentTicks()+RADIO_SWITCH_BUFFER, platform.currentTicks()+RX_MAX_TIME);
+            listenStart = platform.currentTicks() + RADIO_SWITCH_BUFFER;
+    	}
+
+    	metrics.channelSwitched(platform.currentTicks() - switchStart + (nextChannel != CHANNEL_OFF ? RADIO_SWITCH_BUFFER : 0L));
+    }
+
+    /**
+     * Add the time we have been listening to the current channel to its counter
+     * @param time	time we stopped (or are accounting up to), in ticks
+     */
+    private void countListenTime(long time) {
+    	// Switching again before the radio came back on leaves nothing to count
+    	if (time > listenStart)
+    		metrics.addRxTicks(channel, time - listenStart);
+
+    	listenStart = time;
+    }
+
+    /**
+     * @param panID	PAN ID of a frame
+     * @return the row of the channel table the PAN ID belongs to, CHANNEL_OFF if there is none
+     */
+    private byte getChannelForPanID(int panID) {
+    	for (int i = 0; i < CHANNEL_COUNT; i++) {
+    		if (CHANNEL_TABLE[2 * i] + CHANNEL_START_PAN_ID == panID)
+    			return (byte)i;
+    	}
+
+    	return CHANNEL_OFF;
+    }
+
+    /**
+     * Warm restart, the timing is saved while every channel is known and restored on boot, a restored channel
+     * is verified by its second frame or discovered from scratch, without holding up the other channels
+     */
+
+    /**
+     * Store timer, saves the timing once every channel is known and whenever it changes
+     * @param param
+     * @param time
+     */
+    private void onStoreTimer(byte param, long time) {
+    	tracer.timer(time, param, Tracer.TIMER_STORE);
+    	timers.setAlarmTime(TIMER_STORE, time + TIMING_STORE_INTERVAL);
+
+    	if (isTimingKnown() && timingStore.isChanged(sinkEstimator, powerController, channelEstimators))
+    		timingStore.save(sinkEstimator, powerController, channelEstimators);
+    }
+
+    /**
+     * Read the timing of an earlier run, the channels keep being discovered but their first frame gives their phase
+     */
+    private void restoreTiming() {
+    	if (!timingStore.restore(sinkEstimator, powerController, channelEstimators))
+    		return;
+
+    	// The sink is only trusted once a beacon has given the phase to the restored t,
+    	// its windows open a beacon interval early, to verify the timing with the last beacon
+    	channelVerified[CHANNEL_SINK] = false;
+    	sinkTrackingWindow = true;
+
+    	// The source windows keep their width from before the jitter was known until the first frame
+    	for (int i = 0; i < CHANNEL_COUNT; i++) {
+    		if (i == CHANNEL_SINK)
+    			continue;
+
+    		channelPeriods[i] = channelEstimators[i].getPeriod();
+    		channelVerified[i] = false;
+    	}
+
+    	Logger.appendString(csr.s2b("Timing: restored, sink t ms "));
+    	Logger.appendLong(Time.fromTickSpan(Time.MILLISECS, sinkEstimator.getInterval()));
+    	Logger.appendString(csr.s2b(" n "));
+    	Logger.appendInt(sinkEstimator.getBeaconCount());
+    	Logger.flush(Mote.INFO);
+    }
+
+    /**
+     * Check the second frame of a restored channel against the prediction of the first, a frame too far from it
+     * means the restored timing is wrong and the channel is discovered from scratch, starting with this frame
+     * @param index		channel the frame arrived on
+     * @param error		distance of the frame from the predicted one, in ticks
+     */
+    private void verifyChannel(int index, long error) {
+    	if (error > TIMING_BUFFER) {
+    		rediscoverChannel(index);
+    		return;
+    	}
+
+    	channelVerified[index] = true;
+    	Logger.appendString(csr.s2b("Timing: channel "));
+    	Logger.appendInt(index);
+    	Logger.appendString(csr.s2b(" verified, error ms "));
+    	Logger.appendLong(Time.fromTickSpan(Time.MILLISECS, error));
+    	Logger.flush(Mote.INFO);
+    }
+
+    /**
+     * Give up on the restored timing of a channel, it is discovered as on boot, in an indefinite session
+     * that takes the place of the current one, which ends as soon as it gets the radio back
+     * @param index		channel to discover
+     */
+    private void rediscoverChannel(int index) {
+    	channelVerified[index] = true;
+    	channelCloses[index] = 0;
+    	channelDeferred[index] = false;
+    	timers.cancelAlarm(TIMER_CHANNEL + index);
+
+    	if (index == CHANNEL_SINK) {
+    		sinkEstimator.reset();
+    		syncPhasesSeen = 0;
+    		sinkTrackingWindow = false;
+    		if (channel == CHANNEL_SINK)
+    			sinkEstimator.listen(platform.currentTicks());
+    		timers.cancelAlarm(TIMER_TRANSMISSION);
+    	} else {
+    		channelEstimators[index].reset();
+    		channelPeriods[index] = 0L;
+    		channelOffsets[index] = TIMING_BUFFER;
+    		channelDurations[index] = CHANNEL_DURATION;
+    	}
+
+    	Logger.appendString(csr.s2b("Timing: channel "));
+    	Logger.appendInt(index);
+    	Logger.appendString(csr.s2b(" missed, discovering"));
+    	Logger.flush(Mote.INFO);
+
+    	timers.cancelAlarm(TIMER_POP);
+    	pushSession((byte)index, CHANNEL_INDEFINITE_DURATION);
+    }
+
+
+    /**
+     * Metrics
+     */
+
+    /**
+     * Metrics timer, writes the counters to the log, accounting for the channel we are listening to
+     * @param param
+     * @param time
+     */
+    private void onMetricsTimer(byte param, long time) {
+    	tracer.timer(time, param, Tracer.TIMER_METRICS);
+    	timers.setAlarmTime(TIMER_METRICS, time + METRICS_LOG_INTERVAL);
+
+    	if (channel != CHANNEL_OFF)
+    		countListenTime(platform.currentTicks());
+
+    	metrics.dump();
+    	sequenceTracker.dump();
+    	timers.dump();
+
+    	if (scheduleActive)
+    		schedule.dump();
+
+    	tracer.export();
+    }
+
+
+    /**
+     * Hooks for the benchmarks, which drive the relay without the radio and the timer
+     * Package-private, so a rename breaks the build of the benchmarks rather than a run
+     */
+
+    /**
+     * @return sequence numbers of the sources
+     */
+    SequenceTracker getSequenceTracker() {
+    	return sequenceTracker;
+    }
+
+    /**
+     * Take the channel over without tuning the radio, as if the window of the channel had opened
+     * @param nextChannel	row of the channel table, CHANNEL_OFF for none
+     */
+    void overrideChannel(byte nextChannel) {
+    	channel = nextChannel;
+    }
+
+    /**
+     * @param interval	beacon interval of the sink, the length of its reception phase, in ticks
+     */
+    void overrideSinkInterval(long interval) {
+    	estimatedSinkFrame.setTime(interval);
+    }
+
+    /**
+     * Drop every alarm the relay has set
+     */
+    void cancelAlarms() {
+    	for (int i = 0; i < TIMER_COUNT; i++) {
+    		timers.cancelAlarm(i);
+    	}
+    }
+
+    /**
+     * Start the transmissions of a reception phase, as the transmission alarm does
+     * @param time	start of the reception phase
+     */
+    void fireTransmission(long time) {
+    	onTimer((byte)TIMER_TRANSMISSION, time);
+    }
+}
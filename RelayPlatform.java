@@ -0,0 +1,92 @@
+/**
+ * What a RelayEngine needs from the mote it runs on, one radio, one timer,
+ * the clock and the non-volatile memory, all times are in ticks of the clock
+ *
+ * MotePlatform provides them from the Mote Runner system API, other
+ * platforms let a host run many engines side by side
+ *
+ */
+
+package embs;
+
+public interface RelayPlatform {
+	/**
+	 * Open the radio, from now on the platform calls the engine back with
+	 * onReceive and onTransmit for the radio and onAlarm for the timer
+	 * @param engine	engine to call back
+	 */
+	public void open(RelayEngine engine);
+
+	/**
+	 * Clock
+	 */
+
+	/**
+	 * @return current time, in ticks
+	 */
+	public long currentTicks();
+
+	/**
+	 * Timer
+	 */
+
+	/**
+	 * @param time	time the timer goes off at, replacing the pending alarm, times in the past go off as soon as possible
+	 */
+	public void setAlarmTime(long time);
+
+	/**
+	 * Radio
+	 */
+
+	/**
+	 * @param channel	radio channel, 0 - 15
+	 */
+	public void setChannel(byte channel);
+
+	/**
+	 * @param panId		PAN ID to accept frames for
+	 */
+	public void setPanId(int panId);
+
+	/**
+	 * Start receiving, onReceive is called with null data when the period ends
+	 * @param mode		Device.ASAP to start now or Device.TIMED to start at the given time
+	 * @param start		start of the period
+	 * @param end		end of the period
+	 */
+	public void startRx(int mode, long start, long end);
+
+	/**
+	 * Stop receiving, without calling onReceive
+	 */
+	public void stopRx();
+
+	/**
+	 * Send a frame now, onTransmit is called once it has left the radio
+	 * @param mode		Device.ASAP combined with the tx power and the TXMODE flags
+	 * @param data		frame data
+	 * @param offset	offset of the frame in the data
+	 * @param len		length of the frame
+	 */
+	public void transmit(int mode, byte[] data, int offset, int len);
+
+	/**
+	 * Non-volatile memory, a platform without any reads nothing back and the engine starts cold
+	 */
+
+	/**
+	 * @return true if the platform has non-volatile memory, without it the engine neither saves nor restores its timing
+	 */
+	public boolean hasMemory();
+
+	/**
+	 * @return number of bytes read, fewer than asked for past the end of the memory
+	 */
+	public int readMemory(int address, byte[] data, int offset, int len);
+
+	/**
+	 * @return number of bytes written, fewer than asked for past the end of the memory
+	 */
+	public int writeMemory(int address, byte[] data, int offset, int len);
+}
@@ -0,0 +1,170 @@
+/**
+ * Walks a static schedule for the relay, one entry every time its timer
+ * goes off, and compiles the next part of the table when the walk reaches
+ * the end of it, from the windows the relay fills in with its latest
+ * estimates
+ *
+ * A listen entry takes the radio to the channel of the entry, unless the
+ * window of that channel ended early, once its frame was in. Such a window
+ * is skipped until it would have closed, the entry falls back to the
+ * channel that comes next at the time, or to none if that window ended
+ * early as well
+ *
+ */
+
+package embs;
+
+import embs.StaticSchedule;
+
+public class ScheduleWalker {
+	private StaticSchedule schedule;
+	private int transmitChannel;
+	private long switchTime;
+	private long quantum;
+	private long horizon;
+
+	/**
+	 * Next time the window of each channel opens and when its frame arrives in it, filled in before compiling
+	 */
+	private long[] opens;
+	private long[] arrivals;
+
+	/**
+	 * The next entry to walk, the latest listen entry walked and until when each window that ended early is skipped
+	 */
+	private int entry = 0;
+	private int listenEntry = 0;
+	private long[] endedUntil;
+
+	/**
+	 * @param capacity			number of entries the table holds
+	 * @param channelCount		number of channels
+	 * @param deadlineFirst		true to listen to the window whose frame is due first, false to go by priority
+	 * @param transmitChannel	channel whose windows start a transmission
+	 * @param switchTime		time the radio takes to start listening after a switch
+	 * @param quantum			periods are rounded to this for the hyperperiod
+	 * @param horizon			longest time a table can cover
+	 */
+	public ScheduleWalker(int capacity, int channelCount, boolean deadlineFirst, int transmitChannel, long switchTime, long quantum, long horizon) {
+		this.schedule = new StaticSchedule(capacity, channelCount, deadlineFirst);
+		this.transmitChannel = transmitChannel;
+		this.switchTime = switchTime;
+		this.quantum = quantum;
+		this.horizon = horizon;
+		this.opens = new long[channelCount];
+		this.arrivals = new long[channelCount];
+		this.endedUntil = new long[channelCount];
+	}
+
+	/**
+	 * @param channel	channel of the window
+	 * @param open		next time the window opens
+	 * @param arrival	when the frame is expected, from the window opening, negative for channels without frames
+	 */
+	public void setWindow(int channel, long open, long arrival) {
+		opens[channel] = open;
+		arrivals[channel] = arrival;
+	}
+
+	/**
+	 * @return next time the window of the channel opens, as filled in
+	 */
+	public long getOpen(int channel) {
+		return opens[channel];
+	}
+
+	/**
+	 * Compile the table from the windows filled in and walk it from its first entry
+	 * @param start				time the table starts at
+	 * @param periods			period of each channel
+	 * @param durations			how long the window of each channel stays open
+	 * @param ranks				priority of each channel, 0 == highest priority
+	 * @param transmitOffset	when the transmission starts, from the window of the transmit channel opening
+	 */
+	public void compile(long start, long[] periods, long[] durations, byte[] ranks, long transmitOffset) {
+		schedule.compile(start, opens, periods, durations, arrivals, ranks, transmitChannel, transmitOffset, switchTime, quantum, horizon);
+		entry = 0;
+	}
+
+	/**
+	 * @return true if every entry of the table has been walked, the next part starts at getEnd
+	 */
+	public boolean isAtEnd() {
+		return entry == schedule.getCount();
+	}
+
+	/**
+	 * @return time the table ends at
+	 */
+	public long getEnd() {
+		return schedule.getStart() + schedule.getLength();
+	}
+
+	/**
+	 * @return time of the next entry, the end of the table once every entry has been walked
+	 */
+	public long getNextTime() {
+		return schedule.getStart() + (entry < schedule.getCount() ? schedule.getOffset(entry) : schedule.getLength());
+	}
+
+	/**
+	 * Step to the next entry
+	 * @return the entry stepped to
+	 */
+	public int step() {
+		return entry++;
+	}
+
+	/**
+	 * @return true if the entry starts the transmissions of a reception phase, false if it listens
+	 */
+	public boolean isTransmit(int entry) {
+		return schedule.getAction(entry) == StaticSchedule.ACTION_TRANSMIT;
+	}
+
+	/**
+	 * @param entry	listen entry of the table
+	 * @param time
+	 * @return channel to listen to for the entry, falling back from a window that ended early
+	 */
+	public byte getChannel(int entry, long time) {
+		byte next = schedule.getChannel(entry);
+		if (next != StaticSchedule.CHANNEL_OFF && endedUntil[next] > time)
+			next = schedule.getResume(entry);
+
+		if (next != StaticSchedule.CHANNEL_OFF && endedUntil[next] > time)
+			next = StaticSchedule.CHANNEL_OFF;
+
+		return next;
+	}
+
+	/**
+	 * @param entry	listen entry the radio was taken to the channel of
+	 */
+	public void listen(int entry) {
+		listenEntry = entry;
+	}
+
+	/**
+	 * @return channel to listen to for the latest listen entry walked
+	 */
+	public byte getListenChannel(long time) {
+		return getChannel(listenEntry, time);
+	}
+
+	/**
+	 * The window of a channel ended early, it is skipped until it closes
+	 * @param channel	channel of the window
+	 * @param until		time the window would have closed at
+	 */
+	public void endWindow(byte channel, long until) {
+		endedUntil[channel] = until;
+	}
+
+	/**
+	 * Write the table to the log
+	 */
+	public void dump() {
+		schedule.dump();
+	}
+}
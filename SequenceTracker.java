@@ -0,0 +1,169 @@
+/**
+ * Keeps track of the sequence numbers of the sources, the sources
+ * increment the last byte of their payload with every frame they send
+ *
+ * A frame with the same sequence number as the latest one is a duplicate,
+ * a jump in the sequence numbers means frames were missed. The numbers wrap
+ * every 256 frames, so once the period of a source is known the time since
+ * its latest frame tells how many times they wrapped, a source that lost
+ * 256 frames is not taken for a duplicate. Together with the frames that
+ * were forwarded, this gives the loss rate and the forward rate of every source
+ *
+ * Sources are kept in fixed size arrays, found by their address, sources
+ * beyond the capacity are not tracked and none of their frames are dropped
+ *
+ */
+
+package embs;
+import com.ibm.saguaro.system.*;
+import com.ibm.saguaro.logger.*;
+
+public class SequenceTracker {
+	private final static int NONE = -1;
+	private final static int SEQUENCE_MASK = 0xFF;
+	private final static int SEQUENCE_SPAN = SEQUENCE_MASK + 1;
+
+	private int[] addresses;
+	private int[] sequences;
+	private long[] times;
+	private int[] received;
+	private int[] missed;
+	private int[] duplicates;
+	private int[] forwarded;
+	private int count = 0;
+
+	/**
+	 * @param capacity	number of sources to keep track of
+	 */
+	public SequenceTracker(int capacity) {
+		this.addresses = new int[capacity];
+		this.sequences = new int[capacity];
+		this.times = new long[capacity];
+		this.received = new int[capacity];
+		this.missed = new int[capacity];
+		this.duplicates = new int[capacity];
+		this.forwarded = new int[capacity];
+	}
+
+	/**
+	 * Add a frame from a source
+	 * @param address	address of the source
+	 * @param sequence	sequence number carried by the frame
+	 * @param time		time the frame arrived at, in ticks
+	 * @param period	period of the source, in ticks, 0 if it is not known
+	 * @return false if the frame is a duplicate and should be dropped
+	 */
+	public boolean accept(int address, int sequence, long time, long period) {
+		sequence &= SEQUENCE_MASK;
+
+		int source = SequenceTracker.find(addresses, count, address);
+		if (source == NONE) {
+			if (count == addresses.length)
+				return true;
+
+			source = count++;
+			addresses[source] = address;
+			sequences[source] = sequence;
+			times[source] = time;
+			received[source] = 1;
+			return true;
+		}
+
+		// Add the wraps the periods since the latest frame account for
+		int gap = (sequence - sequences[source]) & SEQUENCE_MASK;
+		if (period > 0) {
+			long periods = (time - times[source] + period / 2) / period;
+			if (periods > gap)
+				gap += (int)((periods - gap + SEQUENCE_SPAN / 2) / SEQUENCE_SPAN) * SEQUENCE_SPAN;
+		}
+
+		if (gap == 0) {
+			duplicates[source]++;
+			return false;
+		}
+
+		missed[source] += gap - 1;
+		received[source]++;
+		sequences[source] = sequence;
+		times[source] = time;
+		return true;
+	}
+
+	/**
+	 * A frame from a source was sent on to the sink
+	 * @param address	address of the source
+	 */
+	public void forwarded(int address) {
+		int source = SequenceTracker.find(addresses, count, address);
+		if (source != NONE)
+			forwarded[source]++;
+	}
+
+	/**
+	 * @param address	address of the source
+	 * @return percentage of the frames sent by the source that we did not receive, 0 for unknown sources
+	 */
+	public int getLossRate(int address) {
+		int source = SequenceTracker.find(addresses, count, address);
+		if (source == NONE)
+			return 0;
+
+		return (100 * missed[source]) / (received[source] + missed[source]);
+	}
+
+	/**
+	 * @param address	address of the source
+	 * @return percentage of the frames received from the source that were forwarded, 0 for unknown sources
+	 */
+	public int getForwardRate(int address) {
+		int source = SequenceTracker.find(addresses, count, address);
+		if (source == NONE)
+			return 0;
+
+		return (100 * forwarded[source]) / received[source];
+	}
+
+	/**
+	 * @param address	address of the source
+	 * @return number of duplicates dropped from the source
+	 */
+	public int getDuplicates(int address) {
+		int source = SequenceTracker.find(addresses, count, address);
+		return source == NONE ? 0 : duplicates[source];
+	}
+
+	/**
+	 * Write the statistics of every source to the log
+	 */
+	public void dump() {
+		for (int i = 0; i < count; i++) {
+			Logger.appendString(csr.s2b("Source "));
+			Logger.appendInt(addresses[i]);
+			Logger.appendString(csr.s2b(": received "));
+			Logger.appendInt(received[i]);
+			Logger.appendString(csr.s2b(" missed "));
+			Logger.appendInt(missed[i]);
+			Logger.appendString(csr.s2b(" duplicates "));
+			Logger.appendInt(duplicates[i]);
+			Logger.appendString(csr.s2b(" forwarded "));
+			Logger.appendInt(forwarded[i]);
+			Logger.appendString(csr.s2b(", loss % "));
+			Logger.appendInt(getLossRate(addresses[i]));
+			Logger.appendString(csr.s2b(" forward % "));
+			Logger.appendInt(getForwardRate(addresses[i]));
+			Logger.flush(Mote.INFO);
+		}
+	}
+
+	/**
+	 * @return index of the address in the first count entries, NONE if it is not there
+	 */
+	private static int find(int[] addresses, int count, int address) {
+		for (int i = 0; i < count; i++) {
+			if (addresses[i] == address)
+				return i;
+		}
+
+		return NONE;
+	}
+}
@@ -14,9 +14,14 @@
  */
 
 package embs;
-import com.ibm.saguaro.system.*;
 
 public class Session {
+	/**
+	 * Number of sessions created, sessions are meant to be pooled (see SessionStack)
+	 * so this should stay constant once the relay is running
+	 */
+	private static int allocationCount = 0;
+	
 	/**
 	 * Channel the session is tied to
 	 */
@@ -35,11 +40,32 @@ public class Session {
 	/**
 	 * @param channel	channel to tie this session to
 	 * @param duration	intended duration of the session, used to calculate the end time
+	 * @param startTime	start of the session, in ticks
+	 */
+	public Session(byte channel, long duration, long startTime) {
+		this.channel = channel;
+		this.duration = duration;
+		this.startTime = startTime;
+		allocationCount++;
+	}
+	
+	/**
+	 * @return number of sessions created so far
+	 */
+	public static int getAllocationCount() {
+		return allocationCount;
+	}
+	
+	/**
+	 * Reuse the session, for another channel or duration
+	 * @param channel	channel to tie this session to
+	 * @param duration	intended duration of the session, used to calculate the end time
+	 * @param startTime	start of the session, in ticks
 	 */
-	public Session(byte channel, long duration) {
+	public void set(byte channel, long duration, long startTime) {
 		this.channel = channel;
 		this.duration = duration;
-		this.startTime = Time.currentTicks();
+		this.startTime = startTime;
 	}
 	
 	/**
@@ -57,7 +83,7 @@ public class Session {
 	}
 		
 	/**
-	 * @return start time of this session, which is set automatically in the constructor, in ticks
+	 * @return start time of this session, in ticks
 	 */
 	public long getStartTime() {
 		return startTime;
@@ -6,6 +6,10 @@
  * A simple data structure to represent
  * a stack - as the Java Stack is not available
  * 
+ * The stack owns a session per slot, pushing fills in the session
+ * of the next slot instead of storing a new one, so no garbage is
+ * created unless the stack grows
+ * 
  */
 
 package embs;
@@ -32,8 +36,11 @@ public class SessionStack {
 	 */
 	public SessionStack(int initialSize) {
 		this.size = initialSize;
-		this.index = 0;
+		this.index = -1;
 		this.stack = new Session[size];
+		for (int i = 0; i < size; i++) {
+			stack[i] = new Session((byte)0, 0L, 0L);
+		}
 	}
 	
 	/**
@@ -49,7 +56,7 @@ public class SessionStack {
 	
 	/**
 	 * Remove the top session from the stack
-	 * @return top Session that was just removed from the stack
+	 * @return top Session that was just removed from the stack, only valid until the next push
 	 */
 	public Session pop() {
 		int oldIndex = index;
@@ -62,11 +69,13 @@ public class SessionStack {
 	}
 	
 	/**
-	 * Push a new session to the stack
-	 * @param session	Session to add to the stack
+	 * Push a new session to the stack, reusing the session of the slot
+	 * @param channel	channel to tie the session to
+	 * @param duration	intended duration of the session
+	 * @param startTime	start of the session, in ticks
 	 * @return the session that was just pushed to the stack
 	 */
-	public Session push(Session session) {
+	public Session push(byte channel, long duration, long startTime) {
 		index++;
 		
 		if (index == size) {
@@ -76,11 +85,16 @@ public class SessionStack {
 				expandedStack[i] = stack[i];
 			}
 			
+			for (int i = size; i < newSize; i++) {
+				expandedStack[i] = new Session((byte)0, 0L, 0L);
+			}
+			
 			size = newSize;
 			stack = expandedStack;
 		}
 		
-		stack[index] = session;
+		Session session = stack[index];
+		session.set(channel, duration, startTime);
 		return session;
 	}
 	
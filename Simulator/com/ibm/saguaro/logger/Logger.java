@@ -0,0 +1,53 @@
+/**
+ * Host stand-in for the Mote Runner logger, lines are buffered
+ * on the running node and handed to the simulator when flushed
+ *
+ */
+
+package com.ibm.saguaro.logger;
+
+import embs.sim.Simulator;
+
+public class Logger {
+	private final static char[] HEX = "0123456789ABCDEF".toCharArray();
+
+	private static StringBuilder buffer() {
+		return Simulator.current().getCurrentNode().getLogBuffer();
+	}
+
+	public static void appendString(byte[] s) {
+		StringBuilder buffer = buffer();
+		for (int i = 0; i < s.length; i++) {
+			buffer.append((char)(s[i] & 0xFF));
+		}
+	}
+
+	public static void appendByte(byte b) {
+		buffer().append(b);
+	}
+
+	public static void appendInt(int i) {
+		buffer().append(i);
+	}
+
+	public static void appendLong(long l) {
+		buffer().append(l);
+	}
+
+	public static void appendHexByte(byte b) {
+		buffer().append(HEX[(b >> 4) & 0xF]).append(HEX[b & 0xF]);
+	}
+
+	public static void appendHexInt(int i) {
+		for (int shift = 28; shift >= 0; shift -= 4) {
+			buffer().append(HEX[(i >> shift) & 0xF]);
+		}
+	}
+
+	/**
+	 * @param level		severity of the line
+	 */
+	public static void flush(int level) {
+		Simulator.current().getCurrentNode().flushLog(level);
+	}
+}
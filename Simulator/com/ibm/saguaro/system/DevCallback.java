@@ -0,0 +1,24 @@
+/**
+ * Host stand-in for the Mote Runner device callback delegate
+ *
+ */
+
+package com.ibm.saguaro.system;
+
+public abstract class DevCallback {
+	/**
+	 * @param target	object the delegate is bound to, unused on the host
+	 */
+	public DevCallback(Object target) {
+	}
+
+	/**
+	 * @param flags		status flags of the operation
+	 * @param data		frame data, null when a reception period ends
+	 * @param len		length of the data
+	 * @param info		additional info, the low byte holds the RSSI for received frames
+	 * @param time		time of the event, in ticks
+	 * @return status
+	 */
+	public abstract int invoke(int flags, byte[] data, int len, int info, long time);
+}
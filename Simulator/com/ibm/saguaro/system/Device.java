@@ -0,0 +1,19 @@
+/**
+ * Host stand-in for the Mote Runner device base class,
+ * only the mode flags used by Relay and the Assessment Rig
+ *
+ */
+
+package com.ibm.saguaro.system;
+
+public abstract class Device {
+	/**
+	 * Start the operation right away
+	 */
+	public final static int ASAP = 0x0000;
+
+	/**
+	 * Start the operation at the time given with the call
+	 */
+	public final static int TIMED = 0x0001;
+}
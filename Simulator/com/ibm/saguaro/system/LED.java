@@ -0,0 +1,26 @@
+/**
+ * Host stand-in for the Mote Runner LED API, the state is kept on the node
+ *
+ */
+
+package com.ibm.saguaro.system;
+
+import embs.sim.Simulator;
+
+public class LED {
+	/**
+	 * @param index		index of the LED
+	 * @param state		0 for off, anything else for on
+	 */
+	public static void setState(byte index, byte state) {
+		Simulator.current().getCurrentNode().setLED(index, state);
+	}
+
+	/**
+	 * @param index		index of the LED
+	 * @return state of the LED
+	 */
+	public static byte getState(byte index) {
+		return Simulator.current().getCurrentNode().getLED(index);
+	}
+}
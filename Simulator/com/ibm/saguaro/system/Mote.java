@@ -0,0 +1,13 @@
+/**
+ * Host stand-in for the Mote Runner mote API, only the log levels
+ *
+ */
+
+package com.ibm.saguaro.system;
+
+public class Mote {
+	public final static int INFO = 1;
+	public final static int WARN = 2;
+	public final static int ERROR = 3;
+	public final static int FATAL = 4;
+}
@@ -0,0 +1,342 @@
+/**
+ * Host stand-in for the Mote Runner IEEE 802.15.4 radio
+ *
+ * Frames are handed to the medium of the simulator, which decides
+ * who hears them. The radio keeps track of the time spent receiving
+ * and transmitting, which is what the energy figures are based on
+ *
+ */
+
+package com.ibm.saguaro.system;
+
+import embs.sim.Event;
+import embs.sim.Node;
+import embs.sim.Simulator;
+
+public class Radio extends Device {
+	public final static int DID = 0x01;
+
+	/**
+	 * Frame control, first byte holds the frame type, second the addressing modes
+	 */
+	public final static byte FCF_BEACON = 0x00;
+	public final static byte FCF_DATA = 0x01;
+	public final static byte FCA_DST_SADDR = 0x08;
+	public final static byte FCA_SRC_SADDR = (byte)0x80;
+
+	public final static int SADDR_BROADCAST = 0xFFFF;
+	public final static int PAN_BROADCAST = 0xFFFF;
+
+	/**
+	 * Transmission modes, the power level occupies the high byte
+	 */
+	public final static int TXMODE_CCA = 0x0010;
+	public final static int TXMODE_POWER_MASK = 0xFC00;
+	public final static int TXMODE_POWER_MAX = 0xFC00;
+
+	/**
+	 * Status flag of the tx handler, the frame was sent with TXMODE_CCA and not sent as the channel was busy,
+	 * only a medium that models the channels reports it
+	 */
+	public final static int FLAG_CCA_BUSY = 0x0010;
+
+	private final Node node;
+	private final Simulator simulator;
+	private boolean open = false;
+	private byte channel = 0;
+	private int panId = PAN_BROADCAST;
+	private int shortAddr = SADDR_BROADCAST;
+	private DevCallback rxHandler;
+	private DevCallback txHandler;
+
+	/**
+	 * Reception state, the epoch changes every time the radio stops listening or changes channel
+	 */
+	private boolean listening = false;
+	private int epoch = 0;
+	private long epochSince = 0;
+	private Event rxStart;
+	private Event rxEnd;
+
+	/**
+	 * Statistics, in global ticks
+	 */
+	private long rxSince = 0;
+	private long rxTicks = 0;
+	private long txTicks = 0;
+	private int rxFrames = 0;
+	private int txFrames = 0;
+	private int ccaFailures = 0;
+	private int lastTxMode = 0;
+
+	public Radio() {
+		this.simulator = Simulator.current();
+		this.node = simulator.getCurrentNode();
+		node.addRadio(this);
+	}
+
+	public void open(int did, Object owner, int arg1, int arg2) {
+		open = true;
+		simulator.getMedium().attach(this);
+	}
+
+	public void close() {
+		stopRx();
+		open = false;
+		simulator.getMedium().detach(this);
+	}
+
+	public void setChannel(byte channel) {
+		if (this.channel != channel) {
+			epoch++;
+			epochSince = simulator.getTime();
+		}
+
+		this.channel = channel;
+	}
+
+	public byte getChannel() {
+		return channel;
+	}
+
+	public void setPanId(int panId, boolean coordinator) {
+		this.panId = panId & 0xFFFF;
+	}
+
+	public int getPanId() {
+		return panId;
+	}
+
+	public void setShortAddr(int shortAddr) {
+		this.shortAddr = shortAddr & 0xFFFF;
+	}
+
+	public int getShortAddr() {
+		return shortAddr;
+	}
+
+	public void setRxHandler(DevCallback handler) {
+		this.rxHandler = handler;
+	}
+
+	public void setTxHandler(DevCallback handler) {
+		this.txHandler = handler;
+	}
+
+	/**
+	 * Start receiving, the rx handler is invoked with null data when the period ends
+	 * @param mode		Device.ASAP to start now or Device.TIMED to start at the given time
+	 * @param start		start of the period, in ticks
+	 * @param end		end of the period, in ticks
+	 */
+	public void startRx(int mode, long start, long end) {
+		if (!open)
+			return;
+
+		stopRx();
+
+		if ((mode & TIMED) != 0 && start > node.currentTicks()) {
+			rxStart = node.schedule(start, new Runnable() {
+				public void run() {
+					rxStart = null;
+					Radio.this.beginRx();
+				}
+			});
+		} else {
+			beginRx();
+		}
+
+		rxEnd = node.schedule(end, new Runnable() {
+			public void run() {
+				rxEnd = null;
+				Radio.this.endRx();
+				if (rxHandler != null)
+					rxHandler.invoke(0, null, 0, 0, node.currentTicks());
+			}
+		});
+	}
+
+	/**
+	 * Stop receiving without notifying the rx handler
+	 */
+	public void stopRx() {
+		if (rxStart != null) {
+			rxStart.cancel();
+			rxStart = null;
+		}
+
+		if (rxEnd != null) {
+			rxEnd.cancel();
+			rxEnd = null;
+		}
+
+		endRx();
+	}
+
+	/**
+	 * Send a frame, the tx handler is invoked once the frame has left the radio
+	 * @param mode		Device.ASAP or Device.TIMED, combined with the TXMODE flags
+	 * @param data		frame data
+	 * @param offset	offset of the frame in the data
+	 * @param len		length of the frame
+	 * @param time		time to send at when the mode is Device.TIMED, in ticks
+	 */
+	public void transmit(int mode, byte[] data, int offset, int len, long time) {
+		if (!open)
+			return;
+
+		final byte[] frame = new byte[len];
+		System.arraycopy(data, offset, frame, 0, len);
+		final int length = len;
+		final int txMode = mode;
+		lastTxMode = mode;
+
+		long at = (mode & TIMED) != 0 ? time : node.currentTicks();
+		node.schedule(at, new Runnable() {
+			public void run() {
+				simulator.getMedium().transmit(Radio.this, txMode, frame, length);
+			}
+		});
+	}
+
+	/**
+	 * Host only, used by the simulator and the medium
+	 */
+
+	public Node getNode() {
+		return node;
+	}
+
+	public boolean isOpen() {
+		return open;
+	}
+
+	public boolean isListening() {
+		return listening;
+	}
+
+	public int getEpoch() {
+		return epoch;
+	}
+
+	/**
+	 * @return global time the radio has been listening on its channel since, without a break, valid while it is listening
+	 */
+	public long getListeningSince() {
+		return epochSince;
+	}
+
+	/**
+	 * @return mode flags of the last transmission, including the power level
+	 */
+	public int getLastTxMode() {
+		return lastTxMode;
+	}
+
+	/**
+	 * @return time spent with the receiver on, in ticks
+	 */
+	public long getRxTicks() {
+		return listening ? rxTicks + simulator.getTime() - rxSince : rxTicks;
+	}
+
+	/**
+	 * @return time spent transmitting, in ticks
+	 */
+	public long getTxTicks() {
+		return txTicks;
+	}
+
+	public int getRxFrames() {
+		return rxFrames;
+	}
+
+	public int getTxFrames() {
+		return txFrames;
+	}
+
+	/**
+	 * @return number of frames not sent as the clear channel assessment found the channel busy
+	 */
+	public int getCcaFailures() {
+		return ccaFailures;
+	}
+
+	/**
+	 * Address filtering, frames have to be addressed to our PAN (or broadcast) and to our address (or broadcast)
+	 * @param frame		frame on air
+	 * @param length	length of the frame
+	 * @return true if the radio would hand the frame to the rx handler
+	 */
+	public boolean accepts(byte[] frame, int length) {
+		if (length < 7 || (frame[1] & FCA_DST_SADDR) == 0)
+			return true;
+
+		int dstPan = Util.get16le(frame, 3);
+		int dstAddr = Util.get16le(frame, 5);
+		boolean panMatches = dstPan == PAN_BROADCAST || panId == PAN_BROADCAST || dstPan == panId;
+		boolean addrMatches = dstAddr == SADDR_BROADCAST || shortAddr == SADDR_BROADCAST || dstAddr == shortAddr;
+
+		return panMatches && addrMatches;
+	}
+
+	/**
+	 * Called by the medium when a frame has been received
+	 * @param frame		frame data, shared with other receivers
+	 * @param length	length of the frame
+	 * @param rssi		signal strength the frame was received with
+	 * @param end		global time the frame ended at
+	 */
+	public void received(byte[] frame, int length, int rssi, long end) {
+		rxFrames++;
+		if (rxHandler == null)
+			return;
+
+		byte[] data = new byte[length];
+		System.arraycopy(frame, 0, data, 0, length);
+		rxHandler.invoke(0, data, length, rssi & 0xFF, node.toLocal(end));
+	}
+
+	/**
+	 * Called by the medium when a frame has left the radio
+	 * @param frame		frame data
+	 * @param length	length of the frame
+	 * @param end		global time the frame ended at
+	 */
+	public void transmitted(byte[] frame, int length, long end) {
+		txFrames++;
+		txTicks += simulator.getMedium().airtime(length);
+		if (txHandler != null)
+			txHandler.invoke(0, frame, length, 0, node.toLocal(end));
+	}
+
+	/**
+	 * Called by the medium when a frame sent with TXMODE_CCA was dropped as the channel was busy
+	 * @param frame		frame data
+	 * @param length	length of the frame
+	 * @param time		global time of the assessment
+	 */
+	public void busy(byte[] frame, int length, long time) {
+		ccaFailures++;
+		if (txHandler != null)
+			txHandler.invoke(FLAG_CCA_BUSY, frame, length, 0, node.toLocal(time));
+	}
+
+	private void beginRx() {
+		if (listening)
+			return;
+
+		listening = true;
+		rxSince = simulator.getTime();
+		epochSince = rxSince;
+	}
+
+	private void endRx() {
+		if (!listening)
+			return;
+
+		listening = false;
+		epoch++;
+		rxTicks += simulator.getTime() - rxSince;
+	}
+}
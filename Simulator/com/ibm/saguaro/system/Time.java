@@ -0,0 +1,53 @@
+/**
+ * Host stand-in for the Mote Runner time API, backed by the
+ * virtual clock of the simulator, one tick is one microsecond
+ *
+ */
+
+package com.ibm.saguaro.system;
+
+import embs.sim.Simulator;
+
+public class Time {
+	public final static int MICROSECS = 0;
+	public final static int MILLISECS = 1;
+	public final static int SECONDS = 2;
+
+	/**
+	 * Ticks in one of each unit, indexed by the unit constants
+	 */
+	private final static long[] TICKS_PER_UNIT = new long[]{1L, 1000L, 1000000L};
+
+	/**
+	 * @return current time of the running node, in ticks
+	 */
+	public static long currentTicks() {
+		return Simulator.current().getCurrentNode().currentTicks();
+	}
+
+	/**
+	 * @param unit	unit to return the time in
+	 * @return current time of the running node, in the given unit
+	 */
+	public static long currentTime(int unit) {
+		return fromTickSpan(unit, currentTicks());
+	}
+
+	/**
+	 * @param unit	unit of the span
+	 * @param span	span in the given unit
+	 * @return span in ticks
+	 */
+	public static long toTickSpan(int unit, long span) {
+		return span * TICKS_PER_UNIT[unit];
+	}
+
+	/**
+	 * @param unit	unit to convert to
+	 * @param ticks	span in ticks
+	 * @return span in the given unit, rounded down
+	 */
+	public static long fromTickSpan(int unit, long ticks) {
+		return ticks / TICKS_PER_UNIT[unit];
+	}
+}
@@ -0,0 +1,102 @@
+/**
+ * Host stand-in for the Mote Runner timer, alarms are events
+ * in the queue of the simulator, setting a new alarm replaces
+ * the pending one
+ *
+ */
+
+package com.ibm.saguaro.system;
+
+import embs.sim.Event;
+import embs.sim.Node;
+import embs.sim.Simulator;
+
+public class Timer {
+	private final Node node;
+	private TimerEvent callback;
+	private byte param;
+	private Event alarm;
+	private long alarmTime;
+
+	public Timer() {
+		this.node = Simulator.current().getCurrentNode();
+		node.addTimer(this);
+	}
+
+	/**
+	 * @param callback	delegate invoked when the alarm goes off
+	 */
+	public void setCallback(TimerEvent callback) {
+		this.callback = callback;
+	}
+
+	/**
+	 * @param param		value handed to the delegate
+	 */
+	public void setParam(byte param) {
+		this.param = param;
+	}
+
+	public byte getParam() {
+		return param;
+	}
+
+	/**
+	 * @param time	time to fire at, in ticks, times in the past fire as soon as possible
+	 */
+	public void setAlarmTime(long time) {
+		cancelAlarm();
+
+		alarmTime = time;
+		alarm = node.schedule(time, new Runnable() {
+			public void run() {
+				Timer.this.fire();
+			}
+		});
+	}
+
+	/**
+	 * @param span	span from now to fire after, in ticks
+	 */
+	public void setAlarmBySpan(long span) {
+		setAlarmTime(node.currentTicks() + span);
+	}
+
+	public void cancelAlarm() {
+		if (alarm != null) {
+			alarm.cancel();
+			alarm = null;
+		}
+	}
+
+	/**
+	 * Host only
+	 */
+
+	/**
+	 * @return true if an alarm is pending
+	 */
+	public boolean isArmed() {
+		return alarm != null;
+	}
+
+	/**
+	 * @return time of the pending alarm, as it was requested
+	 */
+	public long getAlarmTime() {
+		return alarmTime;
+	}
+
+	/**
+	 * @return node the timer belongs to
+	 */
+	public Node getNode() {
+		return node;
+	}
+
+	private void fire() {
+		alarm = null;
+		if (callback != null)
+			callback.invoke(param, node.currentTicks());
+	}
+}
@@ -0,0 +1,20 @@
+/**
+ * Host stand-in for the Mote Runner timer delegate
+ *
+ */
+
+package com.ibm.saguaro.system;
+
+public abstract class TimerEvent {
+	/**
+	 * @param target	object the delegate is bound to, unused on the host
+	 */
+	public TimerEvent(Object target) {
+	}
+
+	/**
+	 * @param param		param of the timer that fired
+	 * @param time		time the timer fired at, in ticks
+	 */
+	public abstract void invoke(byte param, long time);
+}
@@ -0,0 +1,47 @@
+/**
+ * Host stand-in for the Mote Runner byte array helpers
+ *
+ */
+
+package com.ibm.saguaro.system;
+
+public class Util {
+	public static int get16le(byte[] data, int offset) {
+		return (data[offset] & 0xFF) | ((data[offset + 1] & 0xFF) << 8);
+	}
+
+	public static void set16le(byte[] data, int offset, int value) {
+		data[offset] = (byte)value;
+		data[offset + 1] = (byte)(value >> 8);
+	}
+
+	public static int get16be(byte[] data, int offset) {
+		return ((data[offset] & 0xFF) << 8) | (data[offset + 1] & 0xFF);
+	}
+
+	public static void set16be(byte[] data, int offset, int value) {
+		data[offset] = (byte)(value >> 8);
+		data[offset + 1] = (byte)value;
+	}
+
+	public static int get32le(byte[] data, int offset) {
+		return get16le(data, offset) | (get16le(data, offset + 2) << 16);
+	}
+
+	public static void set32le(byte[] data, int offset, int value) {
+		set16le(data, offset, value);
+		set16le(data, offset + 2, value >> 16);
+	}
+
+	/**
+	 * Copy bytes between arrays, overlapping ranges are handled
+	 * @param src		source array
+	 * @param srcOff	offset into the source
+	 * @param dst		destination array
+	 * @param dstOff	offset into the destination
+	 * @param len		number of bytes to copy
+	 */
+	public static void copyData(byte[] src, int srcOff, byte[] dst, int dstOff, int len) {
+		System.arraycopy(src, srcOff, dst, dstOff, len);
+	}
+}
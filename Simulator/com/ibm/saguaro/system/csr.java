@@ -0,0 +1,21 @@
+/**
+ * Host stand-in for the Mote Runner string constant helper
+ *
+ */
+
+package com.ibm.saguaro.system;
+
+public class csr {
+	/**
+	 * @param s		string constant
+	 * @return the string as a byte array
+	 */
+	public static byte[] s2b(String s) {
+		byte[] bytes = new byte[s.length()];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = (byte)s.charAt(i);
+		}
+
+		return bytes;
+	}
+}
@@ -0,0 +1,28 @@
+/**
+ * The platform of a RelayEngine on a simulated mote, a MotePlatform
+ * whose non-volatile memory is the memory of the node, which the
+ * simulator keeps over a restart of the program, in a file if the
+ * node was given one
+ *
+ * Host only, the memory of the node is a stand-in of the simulator
+ * and not part of the Mote Runner system API
+ *
+ */
+
+package embs;
+
+import embs.sim.Simulator;
+
+public class SimulatedPlatform extends MotePlatform {
+	public boolean hasMemory() {
+		return true;
+	}
+
+	public int readMemory(int address, byte[] data, int offset, int len) {
+		return Simulator.current().getCurrentNode().readMemory(address, data, offset, len);
+	}
+
+	public int writeMemory(int address, byte[] data, int offset, int len) {
+		return Simulator.current().getCurrentNode().writeMemory(address, data, offset, len);
+	}
+}
@@ -0,0 +1,15 @@
+/**
+ * The entry point of the relay on a simulated mote, the same as Relay
+ * but on a SimulatedPlatform, so a restart of the program finds the
+ * timing the relay saved before it
+ *
+ */
+
+package embs;
+
+import embs.RelayEngine;
+import embs.SimulatedPlatform;
+
+public class SimulatedRelay {
+	private static RelayEngine engine = new RelayEngine(new SimulatedPlatform());
+}
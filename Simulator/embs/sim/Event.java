@@ -0,0 +1,70 @@
+/**
+ * A single entry in the simulator's event queue, an action
+ * tied to a node that is due at a given (global) time
+ *
+ * Events are ordered by their time and, for events that are due
+ * at the same time, by the order they were scheduled in
+ *
+ */
+
+package embs.sim;
+
+public class Event implements Comparable<Event> {
+	private final long time;
+	private final long sequence;
+	private final Node node;
+	private final Runnable action;
+	private boolean cancelled;
+
+	/**
+	 * @param time		global time the event is due at, in ticks
+	 * @param sequence	tie breaker for events due at the same time
+	 * @param node		node the action runs on behalf of
+	 * @param action	action to run
+	 */
+	Event(long time, long sequence, Node node, Runnable action) {
+		this.time = time;
+		this.sequence = sequence;
+		this.node = node;
+		this.action = action;
+	}
+
+	/**
+	 * @return global time the event is due at
+	 */
+	public long getTime() {
+		return time;
+	}
+
+	/**
+	 * @return node the event belongs to
+	 */
+	public Node getNode() {
+		return node;
+	}
+
+	/**
+	 * Cancel the event, it is dropped when it reaches the head of the queue
+	 */
+	public void cancel() {
+		cancelled = true;
+	}
+
+	/**
+	 * @return true if the event has been cancelled
+	 */
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	void fire() {
+		action.run();
+	}
+
+	public int compareTo(Event other) {
+		if (time != other.time)
+			return time < other.time ? -1 : 1;
+
+		return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+	}
+}
@@ -0,0 +1,94 @@
+/**
+ * Imperfections of the motes and the medium injected into a simulator,
+ * drawn from a random generator of their own, so a simulator given the
+ * same seed runs the same way every time
+ *
+ * Every node gets a clock skew, drawn uniformly within the given number of
+ * parts per million either way when it is loaded. Every action a node
+ * schedules (alarms, starting and ending reception, sending) happens late
+ * by a span drawn uniformly up to the jitter. Every receiver loses a frame
+ * with the given probability, and the RSSI of the frames it receives
+ * carries normally distributed noise
+ *
+ */
+
+package embs.sim;
+
+import java.util.Random;
+
+public class Faults {
+	/**
+	 * No faults, the ideal motes and medium
+	 */
+	public final static Faults NONE = new Faults(0L, 0.0, 0L, 0.0, 0.0);
+
+	private final Random random;
+	private final double skew;
+	private final long jitter;
+	private final double loss;
+	private final double rssiNoise;
+
+	/**
+	 * @param seed		seed of the random generator
+	 * @param skew		largest clock skew of a node, in parts per million
+	 * @param jitter	largest delay of a scheduled action, in ticks
+	 * @param loss		probability of a receiver losing a frame, 0 to 1
+	 * @param rssiNoise	standard deviation of the RSSI noise, in dB
+	 */
+	public Faults(long seed, double skew, long jitter, double loss, double rssiNoise) {
+		this.random = new Random(seed);
+		this.skew = skew;
+		this.jitter = jitter;
+		this.loss = loss;
+		this.rssiNoise = rssiNoise;
+	}
+
+	public double getSkew() {
+		return skew;
+	}
+
+	public long getJitter() {
+		return jitter;
+	}
+
+	public double getLoss() {
+		return loss;
+	}
+
+	public double getRssiNoise() {
+		return rssiNoise;
+	}
+
+	/**
+	 * @return skew of the clock of a new node, in parts per million
+	 */
+	public double nextSkew() {
+		return skew > 0 ? (2.0 * random.nextDouble() - 1.0) * skew : 0.0;
+	}
+
+	/**
+	 * @return delay of a scheduled action, in ticks
+	 */
+	public long nextDelay() {
+		return jitter > 0 ? (long)(random.nextDouble() * (jitter + 1)) : 0L;
+	}
+
+	/**
+	 * @return true if a receiver loses the frame
+	 */
+	public boolean nextLost() {
+		return loss > 0 && random.nextDouble() < loss;
+	}
+
+	/**
+	 * @param rssi	RSSI the frame would be received with, a signed byte in dB
+	 * @return RSSI with noise added, within the range of a signed byte
+	 */
+	public int nextRssi(int rssi) {
+		if (rssiNoise <= 0)
+			return rssi;
+
+		long noisy = (byte)rssi + Math.round(random.nextGaussian() * rssiNoise);
+		return (int)Math.max(Byte.MIN_VALUE, Math.min(Byte.MAX_VALUE, noisy)) & 0xFF;
+	}
+}
@@ -0,0 +1,115 @@
+/**
+ * The radio medium shared by all nodes of a simulator
+ *
+ * An ideal medium, every frame reaches every radio that listens
+ * on the channel of the sender for the whole airtime of the frame,
+ * there is no interference, no loss and the RSSI is fixed, unless
+ * the faults of the simulator add loss and RSSI noise
+ *
+ * The medium is what the radios of a simulator talk to, it can be
+ * replaced by one that models the channels more closely, such as
+ * SharedMedium, by extending it and handing it to the simulator
+ *
+ */
+
+package embs.sim;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.ibm.saguaro.system.Radio;
+import com.ibm.saguaro.system.Time;
+
+public class Medium {
+	/**
+	 * Airtime of IEEE 802.15.4 at 2.4GHz, 250kbps, preamble, SFD and length byte precede
+	 * every frame and the radio appends a 2 byte checksum
+	 */
+	public final static long BYTE_TIME = Time.toTickSpan(Time.MICROSECS, 32L);
+	public final static int PHY_OVERHEAD = 6;
+	public final static int FCS_LENGTH = 2;
+
+	/**
+	 * RSSI reported with every received frame, in the low byte of the info value
+	 */
+	public final static int DEFAULT_RSSI = 0xC0;
+
+	private final Simulator simulator;
+	private final List<Radio> radios = new ArrayList<Radio>();
+
+	/**
+	 * @param simulator	simulator the medium belongs to
+	 */
+	Medium(Simulator simulator) {
+		this.simulator = simulator;
+	}
+
+	/**
+	 * @param radio	radio that starts using the medium
+	 */
+	public void attach(Radio radio) {
+		if (!radios.contains(radio))
+			radios.add(radio);
+	}
+
+	/**
+	 * @param radio	radio that stops using the medium
+	 */
+	public void detach(Radio radio) {
+		radios.remove(radio);
+	}
+
+	/**
+	 * @return radios using the medium, in order of opening
+	 */
+	protected List<Radio> getRadios() {
+		return radios;
+	}
+
+	/**
+	 * @param length	length of the frame as handed to the radio, without checksum
+	 * @return time it takes to send the frame, in ticks
+	 */
+	public long airtime(int length) {
+		return (PHY_OVERHEAD + length + FCS_LENGTH) * BYTE_TIME;
+	}
+
+	/**
+	 * Start sending a frame, called at the global time the first bit goes on air
+	 * @param sender	radio sending the frame
+	 * @param mode		mode the frame was sent with, the TXMODE flags and the power level
+	 * @param frame		frame contents, owned by the medium from now on
+	 * @param length	length of the frame
+	 */
+	public void transmit(final Radio sender, int mode, final byte[] frame, final int length) {
+		final long end = simulator.getTime() + airtime(length);
+		byte channel = sender.getChannel();
+		Faults faults = simulator.getFaults();
+
+		// Only radios that hear the start of the frame can receive it, they also
+		// have to stay on the channel until the end, which the epoch takes care of
+		for (int i = 0; i < radios.size(); i++) {
+			final Radio receiver = radios.get(i);
+			if (receiver == sender || !receiver.isListening() || receiver.getChannel() != channel)
+				continue;
+
+			if (faults.nextLost())
+				continue;
+
+			final int epoch = receiver.getEpoch();
+			final int rssi = faults.nextRssi(DEFAULT_RSSI);
+			simulator.schedule(receiver.getNode(), end, new Runnable() {
+				public void run() {
+					if (receiver.isListening() && receiver.getEpoch() == epoch && receiver.accepts(frame, length))
+						receiver.received(frame, length, rssi, end);
+				}
+			});
+		}
+
+		simulator.schedule(sender.getNode(), end, new Runnable() {
+			public void run() {
+				sender.transmitted(frame, length, end);
+			}
+		});
+	}
+}
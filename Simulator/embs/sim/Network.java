@@ -0,0 +1,754 @@
+/**
+ * A network of Assessment Rigs sharing the radio channels, every cell a
+ * sink, three sources and a relay, the cells laid out on a grid and their
+ * demos started at staggered times, simulated in parallel across the cores
+ *
+ * The cells are split into partitions, a simulator for every worker thread,
+ * which only meet in the medium. The workers advance in windows as long as
+ * the lookahead, the rx/tx turnaround of the radio, the 192 us between a node
+ * sending and its frame going on air, so nothing a node does within a window
+ * can reach a node of another partition before the next one. Frames are only
+ * received an airtime later still, but a frame collides with the others from
+ * the moment it is on air. Between the windows the frames that went on air
+ * are exchanged, every worker lays them out on the channels in the same order
+ * and delivers them to its nodes in range, and the next window starts at the
+ * earliest pending event of the whole network, so idle stretches are skipped
+ *
+ * Every partition is a SharedMedium, which the frames of all partitions are
+ * laid on, so a frame is received, collides, is captured or keeps a node from
+ * sending after a clear channel assessment just as on a single simulator, with
+ * the signal falling off with the distance between the nodes. Frames are only
+ * delivered to the nodes the strongest signal reaches, the others could never
+ * hear them, though they still interfere everywhere. The programs of the rig use
+ * the same PAN IDs and addresses in every cell and are not ours to change, so
+ * the cells are numbered apart instead, every cell gets the lowest number no
+ * cell in range of it has, and a frame reaching a node of another cell carries
+ * its PAN IDs and addresses moved by the difference of their numbers, in the
+ * high byte, as if every cell had IDs of its own. A radio then drops the frames
+ * of other cells as it drops those of any other network. Exceptions the sinks
+ * and sources throw are counted by program and type rather than ending the
+ * simulation, but an exception of a relay is a bug and fails the run. The windows, the order frames
+ * are delivered in and so all the results depend on the network alone, not on
+ * the number of threads, which the digest printed at the end shows:
+ *     java embs.sim.Network [seconds] [-cells count] [-spacing metres] [-exponent exponent] [-stagger seconds] [-seed seed] [-threads count] [-v]
+ *
+ */
+
+package embs.sim;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.Phaser;
+
+import com.ibm.saguaro.system.Radio;
+import com.ibm.saguaro.system.Time;
+
+public class Network {
+	/**
+	 * Time from a node sending to its frame going on air, 12 symbols on the CC2420, the lookahead of the workers
+	 */
+	public final static long TURNAROUND = Time.toTickSpan(Time.MICROSECS, 192L);
+
+	public final static int CELL_SIZE = Rig.SIZE;
+	private final static int WORST_COUNT = 10;
+
+	/**
+	 * Numbers the cells can get, the PAN IDs and addresses of the rig are below 0x100 and
+	 * moved by the number in the high byte, which leaves 0xFFFF to broadcasts
+	 */
+	private final static int NUMBER_COUNT = 0xFF;
+
+	/**
+	 * A frame on air, as exchanged between the partitions, with the index of its sender in the network
+	 */
+	private static class Airing extends Transmission {
+		final int sender;
+
+		Airing(int sender, Node node, byte channel, long start, long end, double power, byte[] frame, int length) {
+			super(node, channel, start, end, power, frame, length);
+			this.sender = sender;
+		}
+	}
+
+	/**
+	 * Frames in the order they went on air, frames of one sender going on air together keep the order they were sent in
+	 */
+	private final static Comparator<Airing> ON_AIR = new Comparator<Airing>() {
+		public int compare(Airing a, Airing b) {
+			if (a.getStart() != b.getStart())
+				return a.getStart() < b.getStart() ? -1 : 1;
+
+			return a.sender < b.sender ? -1 : (a.sender == b.sender ? 0 : 1);
+		}
+	};
+
+	private final int cellCount;
+	private final long seconds;
+	private final double exponent;
+	private final double range;
+	private final long[] starts;
+	private final double[] xs;
+	private final double[] ys;
+	private final int[][] neighbours;
+	private final int[] numbers;
+	private final Rig[] cells;
+	private final Node[] nodes;
+	private final Partition[] partitions;
+	private final long end;
+	private long windows = 0;
+	private volatile Throwable failure;
+
+	/**
+	 * @param cellCount		number of cells, laid out row by row on a square grid
+	 * @param seconds		length of the demo of every cell
+	 * @param spacing		distance between the centres of neighbouring cells, in metres
+	 * @param exponent		path loss exponent of the medium
+	 * @param stagger		the demos start at times drawn uniformly up to the stagger, in ticks
+	 * @param seed			seed the start times are drawn from
+	 * @param threads		number of worker threads, and partitions
+	 */
+	public Network(int cellCount, long seconds, double spacing, double exponent, long stagger, long seed, int threads) {
+		if (cellCount <= 0 || threads <= 0)
+			throw new IllegalArgumentException("Number of cells and threads must be positive");
+
+		this.cellCount = cellCount;
+		this.seconds = seconds;
+		this.exponent = exponent;
+		this.starts = new long[cellCount];
+		this.xs = new double[cellCount * CELL_SIZE];
+		this.ys = new double[cellCount * CELL_SIZE];
+		this.cells = new Rig[cellCount];
+		this.nodes = new Node[cellCount * CELL_SIZE];
+
+		Random random = new Random(seed);
+		int columns = (int)Math.ceil(Math.sqrt(cellCount));
+		long latest = 0;
+		for (int cell = 0; cell < cellCount; cell++) {
+			starts[cell] = stagger > 0 ? (long)(random.nextDouble() * stagger) : 0L;
+			latest = Math.max(latest, starts[cell]);
+
+			Rig.layout((cell % columns) * spacing, (cell / columns) * spacing, xs, ys, cell * CELL_SIZE);
+		}
+
+		this.end = latest + Time.toTickSpan(Time.SECONDS, seconds + 1);
+
+		this.partitions = new Partition[Math.min(threads, cellCount)];
+		for (int i = 0; i < partitions.length; i++) {
+			partitions[i] = new Partition(i, new Simulator(), exponent);
+		}
+
+		this.range = partitions[0].range(SharedMedium.MAX_POWER);
+		this.neighbours = neighbours();
+		this.numbers = numbers();
+
+		for (int cell = 0; cell < cellCount; cell++) {
+			partitions[partitionOf(cell)].load(cell);
+		}
+	}
+
+	/**
+	 * @return for every node, the nodes a frame sent at the highest power reaches, in order
+	 */
+	private int[][] neighbours() {
+		int[][] result = new int[xs.length][];
+		int[] found = new int[xs.length];
+		for (int i = 0; i < xs.length; i++) {
+			int count = 0;
+			for (int j = 0; j < xs.length; j++) {
+				if (j != i && inRange(i, j))
+					found[count++] = j;
+			}
+
+			result[i] = Arrays.copyOf(found, count);
+		}
+
+		return result;
+	}
+
+	/**
+	 * @return for every cell, the lowest number no cell before it in range of it has, so cells that hear each other never share one
+	 */
+	private int[] numbers() {
+		int[] result = new int[cellCount];
+		boolean[] taken = new boolean[NUMBER_COUNT];
+		for (int cell = 0; cell < cellCount; cell++) {
+			Arrays.fill(taken, false);
+			for (int node = cell * CELL_SIZE; node < (cell + 1) * CELL_SIZE; node++) {
+				for (int other : neighbours[node]) {
+					if (other / CELL_SIZE < cell)
+						taken[result[other / CELL_SIZE]] = true;
+				}
+			}
+
+			int number = 0;
+			while (number < NUMBER_COUNT && taken[number]) {
+				number++;
+			}
+
+			if (number == NUMBER_COUNT)
+				throw new IllegalArgumentException("Too many cells in range of each other to number them apart");
+
+			result[cell] = number;
+		}
+
+		return result;
+	}
+
+	/**
+	 * @return a copy of the frame with its PAN IDs and addresses moved by the shift, broadcast ones stay as they are
+	 */
+	private static byte[] renumber(byte[] frame, int length, int shift) {
+		byte[] result = Arrays.copyOf(frame, length);
+		if (length < 7 || (frame[1] & Radio.FCA_DST_SADDR) == 0)
+			return result;
+
+		move(result, 3, shift);
+		move(result, 5, shift);
+		if (length >= 11 && (frame[1] & Radio.FCA_SRC_SADDR) != 0) {
+			move(result, 7, shift);
+			move(result, 9, shift);
+		}
+
+		return result;
+	}
+
+	private static void move(byte[] frame, int offset, int shift) {
+		int value = (frame[offset] & 0xFF) | (frame[offset + 1] & 0xFF) << 8;
+		if (value == 0xFFFF)
+			return;
+
+		value = (value + shift) & 0xFFFF;
+		frame[offset] = (byte)value;
+		frame[offset + 1] = (byte)(value >> 8);
+	}
+
+	private boolean inRange(int a, int b) {
+		double dx = xs[a] - xs[b];
+		double dy = ys[a] - ys[b];
+		return dx * dx + dy * dy <= range * range;
+	}
+
+	/**
+	 * @return partition of a cell, the cells are split into runs of neighbouring cells
+	 */
+	private int partitionOf(int cell) {
+		return (int)((long)cell * partitions.length / cellCount);
+	}
+
+	/**
+	 * Simulate the demos of all cells, on a worker thread for every partition
+	 */
+	public void run() {
+		final Phaser phaser = new Phaser(partitions.length);
+		Thread[] workers = new Thread[partitions.length];
+		for (int i = 0; i < workers.length; i++) {
+			final Partition partition = partitions[i];
+			workers[i] = new Thread(new Runnable() {
+				public void run() {
+					try {
+						partition.work(phaser);
+					} catch (Throwable e) {
+						failure = e;
+						phaser.forceTermination();
+					}
+				}
+			}, "Network-" + i);
+			workers[i].start();
+		}
+
+		try {
+			for (Thread worker : workers) {
+				worker.join();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while simulating the network", e);
+		}
+
+		if (failure != null)
+			throw new IllegalStateException("A partition of the network failed", failure);
+	}
+
+	/**
+	 * Results
+	 */
+
+	/**
+	 * @return the cells, in order of their index
+	 */
+	public Rig[] getCells() {
+		return cells;
+	}
+
+	/**
+	 * @return global time the demo of a cell started at, in ticks
+	 */
+	public long getStart(int cell) {
+		return starts[cell];
+	}
+
+	/**
+	 * @return number of windows the workers ran
+	 */
+	public long getWindowCount() {
+		return windows;
+	}
+
+	public long getEventsFired() {
+		long count = 0;
+		for (Partition partition : partitions) {
+			count += partition.simulator.getEventsFired();
+		}
+
+		return count;
+	}
+
+	/**
+	 * @return number of frames that went on air
+	 */
+	public long getFramesSent() {
+		long count = 0;
+		for (Partition partition : partitions) {
+			count += partition.sent;
+		}
+
+		return count;
+	}
+
+	/**
+	 * @return number of frames handed to a radio
+	 */
+	public long getFramesReceived() {
+		long count = 0;
+		for (Partition partition : partitions) {
+			count += partition.getReceived();
+		}
+
+		return count;
+	}
+
+	/**
+	 * @return number of frames received in spite of overlapping others
+	 */
+	public long getCaptures() {
+		long count = 0;
+		for (Partition partition : partitions) {
+			count += partition.getCaptures();
+		}
+
+		return count;
+	}
+
+	/**
+	 * @return number of frames a radio would have been handed, but for a collision
+	 */
+	public long getCollisions() {
+		long count = 0;
+		for (Partition partition : partitions) {
+			count += partition.getCollisions();
+		}
+
+		return count;
+	}
+
+	/**
+	 * @return number of frames not sent as the channel was busy
+	 */
+	public long getCcaBusy() {
+		long count = 0;
+		for (Partition partition : partitions) {
+			count += partition.getCcaBusy();
+		}
+
+		return count;
+	}
+
+	/**
+	 * @return share of the time the channel was busy, until the end of the last demo
+	 */
+	public double getOccupancy(int channel) {
+		return partitions[0].getOccupancy(channel, end);
+	}
+
+	public double getExponent() {
+		return exponent;
+	}
+
+	public double getRange() {
+		return range;
+	}
+
+	/**
+	 * @return number of frames the program of the receiver threw an exception on
+	 */
+	public long getFailures() {
+		long count = 0;
+		for (long failures : getFailuresByType().values()) {
+			count += failures;
+		}
+
+		return count;
+	}
+
+	/**
+	 * @return number of frames the program of the receiver threw on, by program and exception type, in order
+	 */
+	public Map<String, Long> getFailuresByType() {
+		Map<String, Long> result = new TreeMap<String, Long>();
+		for (Partition partition : partitions) {
+			for (Map.Entry<String, Long> entry : partition.failures.entrySet()) {
+				Long count = result.get(entry.getKey());
+				result.put(entry.getKey(), Long.valueOf((count == null ? 0L : count.longValue()) + entry.getValue().longValue()));
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * @return hash of what the sinks counted and of the radio statistics of every node, equal for equal runs
+	 */
+	public long getDigest() {
+		long digest = 0xCBF29CE484222325L;
+		for (Rig cell : cells) {
+			digest = mix(mix(mix(digest, cell.getScore()), cell.getInPhasePackets()), cell.getOutPhasePackets());
+		}
+
+		for (Node node : nodes) {
+			for (Radio radio : node.getRadios()) {
+				digest = mix(mix(mix(mix(digest, radio.getRxFrames()), radio.getTxFrames()), radio.getRxTicks()), radio.getTxTicks());
+			}
+		}
+
+		return digest;
+	}
+
+	private static long mix(long digest, long value) {
+		return (digest ^ value) * 0x100000001B3L;
+	}
+
+	/**
+	 * A partition of the network, the cells one worker simulates, and the
+	 * medium of its simulator, which exchanges frames with the other partitions
+	 * and lays all of them on its channels, the channels of every partition
+	 * hold the same frames
+	 */
+	private class Partition extends SharedMedium {
+		private final int index;
+		private final Simulator simulator;
+		private final Map<Node, Integer> indices = new IdentityHashMap<Node, Integer>();
+
+		/**
+		 * The frames that went on air and the earliest pending event, after a window, written
+		 * by the partition in odd and even windows in turn, so the others read the last ones
+		 * while it runs the next window
+		 */
+		private final List<List<Airing>> outboxes = new ArrayList<List<Airing>>();
+		private final long[] nextTimes = new long[2];
+		private int round = 0;
+
+		private long sent = 0;
+		private final Map<String, Long> failures = new TreeMap<String, Long>();
+
+		Partition(int index, Simulator simulator, double exponent) {
+			super(simulator, exponent);
+			this.index = index;
+			this.simulator = simulator;
+			simulator.setMedium(this);
+
+			outboxes.add(new ArrayList<Airing>());
+			outboxes.add(new ArrayList<Airing>());
+		}
+
+		/**
+		 * Load a cell when its demo starts
+		 * @param cell	index of the cell
+		 */
+		void load(final int cell) {
+			simulator.schedule(null, starts[cell], new Runnable() {
+				public void run() {
+					Rig rig = new Rig(simulator, "C" + cell + ".");
+					rig.setDemoLength(seconds);
+
+					Node[] members = rig.getNodes();
+					for (int k = 0; k < CELL_SIZE; k++) {
+						int node = cell * CELL_SIZE + k;
+						members[k].setPosition(xs[node], ys[node]);
+						nodes[node] = members[k];
+						indices.put(members[k], Integer.valueOf(node));
+					}
+
+					cells[cell] = rig;
+				}
+			});
+
+			nextTimes[1] = simulator.getNextEventTime();
+		}
+
+		/**
+		 * Run windows until the end of the demos, meeting the other workers after every one
+		 * @param phaser	phaser all workers meet at
+		 */
+		void work(Phaser phaser) {
+			for (round = 0; ; round++) {
+				if (phaser.arriveAndAwaitAdvance() < 0)
+					return;
+
+				long next = deliver((round - 1) & 1);
+				if (next > end)
+					break;
+
+				outboxes.get(round & 1).clear();
+				prune(next);
+
+				simulator.runUntil(Math.min(next + TURNAROUND - 1, end));
+				nextTimes[round & 1] = simulator.getNextEventTime();
+				if (index == 0)
+					windows++;
+			}
+
+			simulator.runUntil(end);
+		}
+
+		/**
+		 * Take the frames every partition put on air in the last window, schedule the
+		 * arrivals at the nodes of this partition and find where the next window starts
+		 * @param last	parity of the last window
+		 * @return global time of the earliest pending event of the network
+		 */
+		private long deliver(int last) {
+			List<Airing> fresh = new ArrayList<Airing>();
+			long next = Long.MAX_VALUE;
+			for (Partition partition : partitions) {
+				fresh.addAll(partition.outboxes.get(last));
+				next = Math.min(next, partition.nextTimes[last]);
+			}
+
+			// Stable, frames of one sender stay in the order they were sent in
+			Collections.sort(fresh, ON_AIR);
+			for (Airing airing : fresh) {
+				put(airing);
+				next = Math.min(next, airing.getEnd());
+
+				for (int receiver : neighbours[airing.sender]) {
+					if (nodes[receiver] != null && partitionOf(receiver / CELL_SIZE) == index)
+						arrive(airing, receiver);
+				}
+			}
+
+			return next;
+		}
+
+		/**
+		 * Hand a frame to a node when it ends, if one of its radios heard all of it
+		 * @param airing	frame on air
+		 * @param receiver	index of the node in range
+		 */
+		private void arrive(final Airing airing, final int receiver) {
+			final Node node = nodes[receiver];
+			final boolean relay = receiver % CELL_SIZE == CELL_SIZE - 1;
+			simulator.schedule(node, airing.getEnd(), new Runnable() {
+				public void run() {
+					for (Radio radio : node.getRadios()) {
+						try {
+							receive(airing, radio);
+						} catch (RuntimeException e) {
+							if (relay)
+								throw new IllegalStateException(node + " threw on a frame of " + airing.getSender(), e);
+
+							failed(node.getProgram().getSimpleName() + " " + e.getClass().getSimpleName());
+						}
+					}
+				}
+			});
+		}
+
+		/**
+		 * Count a frame the program of a sink or source threw on
+		 * @param type	program and exception type
+		 */
+		private void failed(String type) {
+			Long count = failures.get(type);
+			failures.put(type, Long.valueOf(count == null ? 1L : count.longValue() + 1L));
+		}
+
+		/**
+		 * Medium
+		 */
+
+		/**
+		 * A frame of another cell reaches the node with its PAN IDs and addresses moved into the numbering of the cell of the node
+		 */
+		protected byte[] frameAt(Transmission transmission, Node receiver) {
+			int from = numbers[((Airing)transmission).sender / CELL_SIZE];
+			int to = numbers[indices.get(receiver).intValue() / CELL_SIZE];
+			if (from == to)
+				return transmission.getFrame();
+
+			return renumber(transmission.getFrame(), transmission.getLength(), (from - to) << 8);
+		}
+
+		/**
+		 * The frames on air now all went on air before the window, so the channel is assessed
+		 * exactly, as the radio does before the turnaround
+		 */
+		public void transmit(final Radio sender, int mode, final byte[] frame, final int length) {
+			long now = simulator.getTime();
+			byte channel = sender.getChannel();
+			if ((mode & Radio.TXMODE_CCA) != 0 && !isClear(sender.getNode(), channel, now)) {
+				dropped(channel);
+				sender.busy(frame, length, now);
+				return;
+			}
+
+			long start = now + TURNAROUND;
+			final long end = start + airtime(length);
+			int node = indices.get(sender.getNode()).intValue();
+			outboxes.get(round & 1).add(new Airing(node, sender.getNode(), channel, start, end, power(mode), frame, length));
+			sent++;
+
+			simulator.schedule(sender.getNode(), end, new Runnable() {
+				public void run() {
+					sender.transmitted(frame, length, end);
+				}
+			});
+		}
+	}
+
+	/**
+	 * Report
+	 */
+
+	private final static String HEADER = " cell      x      y  start s  score  sent    in   out    fwd   best";
+
+	private static String row(Network network, int index) {
+		Rig cell = network.getCells()[index];
+		return String.format("%5d %6.0f %6.0f %8.1f %6d %5d %5d %5d %6.1f%% %6.1f%%",
+				index, cell.getRelay().getX(), cell.getRelay().getY(), network.getStart(index) / 1e6,
+				cell.getScore(), sent(cell), cell.getInPhasePackets(), cell.getOutPhasePackets(), forwardShare(cell), share(cell));
+	}
+
+	private static int sent(Rig cell) {
+		int sent = 0;
+		for (int i = 0; i < Rig.SOURCES.length; i++) {
+			for (Radio radio : cell.getSource(i).getRadios()) {
+				sent += radio.getTxFrames();
+			}
+		}
+
+		return sent;
+	}
+
+	private static double forwardShare(Rig cell) {
+		int sent = sent(cell);
+		return sent > 0 ? 100.0 * cell.getInPhasePackets() / sent : 0.0;
+	}
+
+	private static double share(Rig cell) {
+		int best = cell.getMaxScore();
+		return best > 0 ? 100.0 * cell.getScore() / best : 0.0;
+	}
+
+	public static void main(String[] args) {
+		long seconds = 600;
+		int cellCount = 100;
+		double spacing = 100.0;
+		double exponent = SharedMedium.DEFAULT_EXPONENT;
+		long stagger = 10;
+		long seed = 1;
+		boolean verbose = false;
+		int threads = Runtime.getRuntime().availableProcessors();
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-cells") && i + 1 < args.length)
+				cellCount = Integer.parseInt(args[++i]);
+			else if (args[i].equals("-spacing") && i + 1 < args.length)
+				spacing = Double.parseDouble(args[++i]);
+			else if (args[i].equals("-exponent") && i + 1 < args.length)
+				exponent = Double.parseDouble(args[++i]);
+			else if (args[i].equals("-stagger") && i + 1 < args.length)
+				stagger = Long.parseLong(args[++i]);
+			else if (args[i].equals("-seed") && i + 1 < args.length)
+				seed = Long.parseLong(args[++i]);
+			else if (args[i].equals("-threads") && i + 1 < args.length)
+				threads = Integer.parseInt(args[++i]);
+			else if (args[i].equals("-v"))
+				verbose = true;
+			else
+				seconds = Long.parseLong(args[i]);
+		}
+
+		long started = System.nanoTime();
+		Network network = new Network(cellCount, seconds, spacing, exponent, Time.toTickSpan(Time.SECONDS, stagger), seed, threads);
+		network.run();
+		long elapsed = (System.nanoTime() - started) / 1000000L;
+
+		Rig[] cells = network.getCells();
+		if (verbose) {
+			System.out.println(HEADER);
+			for (int i = 0; i < cells.length; i++) {
+				System.out.println(row(network, i));
+			}
+
+			System.out.println();
+		}
+
+		final double[] forwardShares = new double[cells.length];
+		double[] shares = new double[cells.length];
+		for (int i = 0; i < cells.length; i++) {
+			forwardShares[i] = forwardShare(cells[i]);
+			shares[i] = share(cells[i]);
+		}
+
+		Integer[] worst = new Integer[cells.length];
+		for (int i = 0; i < worst.length; i++) {
+			worst[i] = Integer.valueOf(i);
+		}
+
+		Arrays.sort(worst, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				return Double.compare(forwardShares[a.intValue()], forwardShares[b.intValue()]);
+			}
+		});
+
+		System.out.println("Simulated " + cellCount + " cells (" + cellCount * CELL_SIZE + " nodes) of " + seconds + " s in " + elapsed + " ms on "
+				+ Math.min(threads, cellCount) + " threads, " + network.getEventsFired() + " events in " + network.getWindowCount() + " windows");
+		System.out.println("Medium: " + network.getFramesSent() + " frames on air, " + network.getFramesReceived() + " received, "
+				+ network.getCaptures() + " captured, " + network.getCollisions() + " lost to collisions, " + network.getCcaBusy() + " not sent as the channel was busy, "
+				+ network.getFailures() + " the receiver threw on");
+
+		if (network.getFailures() > 0) {
+			StringBuilder failures = new StringBuilder("Receivers threw:");
+			for (Map.Entry<String, Long> entry : network.getFailuresByType().entrySet()) {
+				failures.append(" ").append(entry.getKey()).append(" ").append(entry.getValue());
+			}
+
+			System.out.println(failures);
+		}
+		System.out.println(String.format("Cells %.0f m apart, path loss exponent %.1f, range %.0f m", spacing, network.getExponent(), network.getRange()));
+
+		StringBuilder occupancy = new StringBuilder("Channels busy:");
+		for (int channel = 0; channel < SharedMedium.CHANNEL_COUNT; channel++) {
+			if (network.getOccupancy(channel) > 0)
+				occupancy.append(String.format(" %d %.2f%%", channel, 100.0 * network.getOccupancy(channel)));
+		}
+
+		System.out.println(occupancy);
+		System.out.println(Stress.percentiles("Frames forwarded in phase", "%", forwardShares));
+		System.out.println(Stress.percentiles("Share of best score", "%", shares));
+		System.out.println(String.format("Digest: %016x", network.getDigest()));
+
+		System.out.println();
+		System.out.println("Worst cells:");
+		System.out.println(HEADER);
+		for (int i = 0; i < Math.min(WORST_COUNT, worst.length); i++) {
+			System.out.println(row(network, worst[i].intValue()));
+		}
+	}
+}
@@ -0,0 +1,286 @@
+/**
+ * A simulated mote, owns the radios, timers, LEDs and log buffer
+ * that the program running on it creates, along with its
+ * non-volatile memory, which outlives the program
+ *
+ * All time values handed to the program are local to the node,
+ * the node is responsible for translating them to and from
+ * the global time of the simulator, its clock may be skewed
+ *
+ */
+
+package embs.sim;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.ibm.saguaro.system.Radio;
+import com.ibm.saguaro.system.Timer;
+
+public class Node {
+	/**
+	 * Size of the non-volatile memory, in bytes
+	 */
+	public final static int MEMORY_SIZE = 256;
+
+	private final Simulator simulator;
+	private final String name;
+	private final List<Radio> radios = new ArrayList<Radio>();
+	private final List<Timer> timers = new ArrayList<Timer>();
+	private final StringBuilder logBuffer = new StringBuilder();
+	private final byte[] leds = new byte[8];
+	private final byte[] memory = new byte[MEMORY_SIZE];
+	private double skew = 0.0;
+	private double x = 0.0;
+	private double y = 0.0;
+	private File memoryFile;
+	private Class<?> program;
+
+	/**
+	 * @param simulator	simulator the node lives in
+	 * @param name		name used in logs and reports
+	 */
+	Node(Simulator simulator, String name) {
+		this.simulator = simulator;
+		this.name = name;
+	}
+
+	/**
+	 * @return simulator the node lives in
+	 */
+	public Simulator getSimulator() {
+		return simulator;
+	}
+
+	/**
+	 * @return name of the node
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return class of the program loaded onto the node, null if nothing is loaded
+	 */
+	public Class<?> getProgram() {
+		return program;
+	}
+
+	void setProgram(Class<?> program) {
+		this.program = program;
+	}
+
+	/**
+	 * Where the node stands, in metres, only a medium that models range looks at it
+	 * @param x		horizontal position
+	 * @param y		vertical position
+	 */
+	public void setPosition(double x, double y) {
+		this.x = x;
+		this.y = y;
+	}
+
+	public double getX() {
+		return x;
+	}
+
+	public double getY() {
+		return y;
+	}
+
+	/**
+	 * @param other		another node
+	 * @return distance to the other node, in metres
+	 */
+	public double distanceTo(Node other) {
+		return Math.hypot(x - other.x, y - other.y);
+	}
+
+	/**
+	 * Time
+	 */
+
+	/**
+	 * @return current time as seen by the node, in ticks
+	 */
+	public long currentTicks() {
+		return toLocal(simulator.getTime());
+	}
+
+	/**
+	 * The clock of the node runs fast by the skew, both clocks start at 0
+	 * @param skew	skew of the clock, in parts per million, negative if it runs slow
+	 */
+	public void setSkew(double skew) {
+		this.skew = skew;
+	}
+
+	public double getSkew() {
+		return skew;
+	}
+
+	/**
+	 * @param global	global time, in ticks
+	 * @return the same instant on the clock of the node
+	 */
+	public long toLocal(long global) {
+		if (skew == 0.0)
+			return global;
+
+		return global + (long)Math.floor(global * skew / 1e6);
+	}
+
+	/**
+	 * @param local		time on the clock of the node, in ticks
+	 * @return the earliest global time the clock of the node reads the local time at
+	 */
+	public long toGlobal(long local) {
+		if (skew == 0.0)
+			return local;
+
+		// Rounding can leave the estimate a tick either side
+		long global = (long)Math.ceil(local / (1.0 + skew / 1e6));
+		while (toLocal(global) < local)
+			global++;
+
+		while (toLocal(global - 1) >= local)
+			global--;
+
+		return global;
+	}
+
+	/**
+	 * Schedule an action on behalf of this node, late by the jitter of the faults of the simulator
+	 * @param local		local time the action is due at, times in the past run as soon as possible
+	 * @param action	action to run
+	 * @return the scheduled event, which can be cancelled
+	 */
+	public Event schedule(long local, Runnable action) {
+		return simulator.schedule(this, toGlobal(local) + simulator.getFaults().nextDelay(), action);
+	}
+
+	/**
+	 * Devices
+	 */
+
+	public void addRadio(Radio radio) {
+		radios.add(radio);
+	}
+
+	public void addTimer(Timer timer) {
+		timers.add(timer);
+	}
+
+	/**
+	 * @return radios created by the program, in order of creation
+	 */
+	public List<Radio> getRadios() {
+		return radios;
+	}
+
+	/**
+	 * @return timers created by the program, in order of creation
+	 */
+	public List<Timer> getTimers() {
+		return timers;
+	}
+
+	public void setLED(int index, byte state) {
+		leds[index] = state;
+	}
+
+	public byte getLED(int index) {
+		return leds[index];
+	}
+
+	/**
+	 * Non-volatile memory
+	 */
+
+	/**
+	 * Back the memory with a file, its contents are loaded if it exists and every write goes through to it
+	 * @param file	file holding the memory
+	 * @throws IOException if the file exists and cannot be read
+	 */
+	public void setMemoryFile(File file) throws IOException {
+		memoryFile = file;
+		if (!file.exists())
+			return;
+
+		InputStream in = new FileInputStream(file);
+		try {
+			for (int read = 0, count; read < memory.length && (count = in.read(memory, read, memory.length - read)) > 0;)
+				read += count;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Wipe the memory, as a fresh mote would have it
+	 */
+	public void clearMemory() {
+		Arrays.fill(memory, (byte)0);
+		saveMemory();
+	}
+
+	public int readMemory(int address, byte[] data, int offset, int len) {
+		int count = Math.max(0, Math.min(len, memory.length - address));
+		System.arraycopy(memory, address, data, offset, count);
+		return count;
+	}
+
+	public int writeMemory(int address, byte[] data, int offset, int len) {
+		int count = Math.max(0, Math.min(len, memory.length - address));
+		System.arraycopy(data, offset, memory, address, count);
+		saveMemory();
+		return count;
+	}
+
+	private void saveMemory() {
+		if (memoryFile == null)
+			return;
+
+		try {
+			OutputStream out = new FileOutputStream(memoryFile);
+			try {
+				out.write(memory);
+			} finally {
+				out.close();
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException("Could not write the memory of " + name + " to " + memoryFile, e);
+		}
+	}
+
+	/**
+	 * Logging
+	 */
+
+	/**
+	 * @return the buffer the Logger appends to, emptied on every flush
+	 */
+	public StringBuilder getLogBuffer() {
+		return logBuffer;
+	}
+
+	/**
+	 * Hand the buffered log line to the simulator
+	 * @param level		severity the line was flushed with
+	 */
+	public void flushLog(int level) {
+		simulator.log(this, level, logBuffer.toString());
+		logBuffer.setLength(0);
+	}
+
+	public String toString() {
+		return name;
+	}
+}
@@ -0,0 +1,187 @@
+/**
+ * Replays a recorded trace into a relay running on its own in a simulator
+ *
+ * The frames the relay received are handed to its radio at the time they
+ * were received, as long as the relay is listening on the same channel, so
+ * a relay that schedules differently misses the frames it would have missed.
+ * Everything else, the timers, channel switches and transmissions, comes
+ * from the relay itself and is compared with the trace, an unchanged relay
+ * reproduces the trace exactly, a changed one shows where it diverges
+ *
+ * The trace has to start with the start marker and be complete, as recorded
+ * by the Rig, or exported to the log by a relay with TRACE_ENABLED and read
+ * from a capture of that log with -log. The relay is loaded at the time of
+ * the start marker and traced from there:
+ *     java embs.sim.Replay file [-log] [-v]
+ *
+ */
+
+package embs.sim;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+import com.ibm.saguaro.system.Radio;
+import com.ibm.saguaro.system.Time;
+
+import embs.TraceRecorder;
+
+public class Replay {
+	private final Simulator simulator;
+	private final Node relay;
+	private final Trace.Recorder recorder;
+	private final List<Trace.Record> expected;
+	private int framesInjected = 0;
+	private int framesMissed = 0;
+
+	/**
+	 * Load the relay and schedule the frames of the trace
+	 * @param simulator		simulator to load the relay into, at the time of the start marker
+	 * @param trace			trace to replay, complete from the start marker
+	 */
+	public Replay(Simulator simulator, Trace trace) {
+		if (!trace.isComplete())
+			throw new IllegalArgumentException("The trace has to start with the start marker, with no records dropped");
+
+		this.simulator = simulator;
+		simulator.runUntil(trace.getRecords().get(0).getTime());
+		this.relay = simulator.load("Relay", Rig.RELAY);
+		this.recorder = new Trace.Recorder(relay);
+		this.expected = trace.getRecords();
+
+		final Radio radio = relay.getRadios().get(0);
+		for (final Trace.Record record : expected) {
+			if (record.getType() != TraceRecorder.TYPE_RX)
+				continue;
+
+			relay.schedule(record.getTime(), new Runnable() {
+				public void run() {
+					if (radio.isListening() && (radio.getChannel() & 0xFF) == record.getChannel() && radio.accepts(record.getData(), record.getLength())) {
+						framesInjected++;
+						radio.received(record.getData(), record.getLength(), record.getInfo(), relay.toGlobal(record.getTime()));
+					} else {
+						framesMissed++;
+					}
+				}
+			});
+		}
+	}
+
+	/**
+	 * Run until a second past the end of the trace
+	 */
+	public void run() {
+		long end = expected.isEmpty() ? 0L : expected.get(expected.size() - 1).getTime() + Time.toTickSpan(Time.SECONDS, 1L);
+		long slice = Time.toTickSpan(Time.SECONDS, 1L);
+		while (simulator.getTime() < end) {
+			simulator.runUntil(Math.min(simulator.getTime() + slice, end));
+			recorder.drain();
+		}
+	}
+
+	/**
+	 * @return index of the first record that differs from the trace, -1 if the replay matches it
+	 */
+	public int getDivergence() {
+		// The trace stops where the recording did, records the replay made after that are not compared,
+		// an exported trace can stop part way through the records of its last tick
+		List<Trace.Record> actual = getActual();
+		long last = expected.isEmpty() ? -1L : expected.get(expected.size() - 1).getTime();
+		int replayed = actual.size();
+		while (replayed > 0 && actual.get(replayed - 1).getTime() > last) {
+			replayed--;
+		}
+
+		actual = actual.subList(0, replayed);
+		int common = Math.min(expected.size(), actual.size());
+		for (int i = 0; i < common; i++) {
+			if (!expected.get(i).equals(actual.get(i)))
+				return i;
+		}
+
+		return actual.size() >= expected.size() ? -1 : common;
+	}
+
+	public List<Trace.Record> getExpected() {
+		return expected;
+	}
+
+	public List<Trace.Record> getActual() {
+		return recorder.getTrace().getRecords();
+	}
+
+	/**
+	 * @return number of frames of the trace the relay received again
+	 */
+	public int getFramesInjected() {
+		return framesInjected;
+	}
+
+	/**
+	 * @return number of frames of the trace the relay was not listening for
+	 */
+	public int getFramesMissed() {
+		return framesMissed;
+	}
+
+	public static void main(String[] args) throws IOException {
+		String file = null;
+		boolean verbose = false;
+		boolean log = false;
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-v"))
+				verbose = true;
+			else if (args[i].equals("-log"))
+				log = true;
+			else
+				file = args[i];
+		}
+
+		if (file == null) {
+			System.err.println("Usage: java embs.sim.Replay file [-log] [-v]");
+			System.exit(2);
+		}
+
+		InputStream in = new BufferedInputStream(new FileInputStream(file));
+		Trace trace;
+		try {
+			trace = log ? Trace.readLog(in) : Trace.read(in);
+		} finally {
+			in.close();
+		}
+
+		if (!trace.isComplete()) {
+			System.err.println(trace.getDroppedCount() > 0 ? "The mote dropped " + trace.getDroppedCount() + " records of the trace, it can not be replayed"
+					: "The trace does not start with the start marker, it can not be replayed");
+			System.exit(2);
+		}
+
+		long started = System.nanoTime();
+		Simulator simulator = new Simulator();
+		if (verbose)
+			simulator.setLog(System.out);
+
+		Replay replay = new Replay(simulator, trace);
+		replay.run();
+		long elapsed = (System.nanoTime() - started) / 1000000L;
+
+		System.out.println("Replayed " + trace.getRecords().size() + " records, " + Time.fromTickSpan(Time.SECONDS, simulator.getTime()) + " s in " + elapsed + " ms"
+				+ ", frames received " + replay.getFramesInjected() + ", not listening for " + replay.getFramesMissed());
+
+		int divergence = replay.getDivergence();
+		if (divergence < 0) {
+			System.out.println("Replay matches the trace");
+			return;
+		}
+
+		List<Trace.Record> expected = replay.getExpected();
+		List<Trace.Record> actual = replay.getActual();
+		System.out.println("Replay diverges at record " + divergence);
+		System.out.println("  expected " + (divergence < expected.size() ? expected.get(divergence) : "end of trace"));
+		System.out.println("  replayed " + (divergence < actual.size() ? actual.get(divergence) : "end of trace"));
+		System.exit(1);
+	}
+}
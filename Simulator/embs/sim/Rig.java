@@ -0,0 +1,486 @@
+/**
+ * The Assessment Rig and Relay loaded into a simulator,
+ * gives access to the state of the sink for scoring and
+ * to the radio statistics of every node for energy figures
+ *
+ * Running the class simulates a whole demo and prints a report,
+ * optionally recording the trace of the relay to a file, keeping the
+ * non-volatile memory of the relay in a file and restarting the relay
+ * part way, with or without wiping its memory, and optionally on a
+ * SharedMedium, with the nodes laid out as in the lab and the channels
+ * they use reported:
+ *     java embs.sim.Rig [seconds] [-v] [-trace file] [-memory file] [-restart seconds [-cold]] [-shared [-exponent exponent]]
+ *
+ */
+
+package embs.sim;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Field;
+
+import com.ibm.saguaro.system.Radio;
+import com.ibm.saguaro.system.Time;
+import com.ibm.saguaro.system.Timer;
+
+public class Rig {
+	public final static String SINK = "embs.SI";
+	public final static String[] SOURCES = new String[]{"embs.SO1", "embs.SO2", "embs.SO3"};
+
+	/**
+	 * The relay on a platform whose memory is the memory of the node, Relay itself has none on a mote
+	 */
+	public final static String RELAY = "embs.SimulatedRelay";
+
+	/**
+	 * Layout of a rig, the relay in the middle, the sink and the sources on a circle around it, in the order the rig loads them
+	 */
+	public final static double RADIUS = 5.0;
+	public final static int SIZE = 1 + SOURCES.length + 1;
+
+	private final Simulator simulator;
+	private final Node sink;
+	private final Node[] sources;
+	private final Node relay;
+	private final long loadTime;
+
+	/**
+	 * Load the sink, the sources and the relay, in that order, all at the current time
+	 * @param simulator		simulator to load the nodes into
+	 */
+	public Rig(Simulator simulator) {
+		this(simulator, (File)null);
+	}
+
+	/**
+	 * @param simulator		simulator to load the nodes into
+	 * @param relayMemory	file holding the non-volatile memory of the relay, null for none
+	 */
+	public Rig(Simulator simulator, File relayMemory) {
+		this.simulator = simulator;
+		this.loadTime = simulator.getTime();
+		this.sink = simulator.load("SI", SINK);
+		this.sources = new Node[SOURCES.length];
+		for (int i = 0; i < SOURCES.length; i++) {
+			sources[i] = simulator.load("SO" + (i + 1), SOURCES[i]);
+		}
+
+		try {
+			this.relay = simulator.load("Relay", RELAY, relayMemory);
+		} catch (IOException e) {
+			throw new IllegalArgumentException("Could not read the memory of the relay from " + relayMemory, e);
+		}
+	}
+
+	/**
+	 * Load a rig as one cell of a network, sharing the simulator with other cells, all at the current time.
+	 * The sink and the sources are loaded through class loaders of their own, so the cells do not share
+	 * static state, the relay is a RelayEngine on a MotePlatform, whose classes all relays of the simulator share
+	 * @param simulator		simulator to load the nodes into
+	 * @param prefix		prefix of the names of the nodes
+	 */
+	public Rig(Simulator simulator, String prefix) {
+		this.simulator = simulator;
+		this.loadTime = simulator.getTime();
+		this.sink = simulator.loadPrivate(prefix + "SI", SINK);
+		this.sources = new Node[SOURCES.length];
+		for (int i = 0; i < SOURCES.length; i++) {
+			sources[i] = simulator.loadPrivate(prefix + "SO" + (i + 1), SOURCES[i]);
+		}
+
+		this.relay = simulator.create(prefix + "Relay");
+		final Class<?> engine = simulator.loadClass("embs.RelayEngine");
+		final Class<?> platformType = simulator.loadClass("embs.RelayPlatform");
+		final Class<?> platform = simulator.loadClass("embs.MotePlatform");
+		simulator.invoke(relay, new Runnable() {
+			public void run() {
+				try {
+					engine.getConstructor(platformType).newInstance(platform.getConstructor().newInstance());
+				} catch (ReflectiveOperationException e) {
+					throw new IllegalStateException("Could not start a relay engine", e);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Positions of the nodes of a rig, in the order the rig loads them
+	 * @param x			horizontal position of the relay, in metres
+	 * @param y			vertical position of the relay, in metres
+	 * @param xs		horizontal positions, filled from the offset on
+	 * @param ys		vertical positions, filled from the offset on
+	 * @param offset	index of the sink in the positions
+	 */
+	public static void layout(double x, double y, double[] xs, double[] ys, int offset) {
+		for (int k = 0; k < SIZE - 1; k++) {
+			double angle = 2.0 * Math.PI * k / (SIZE - 1);
+			xs[offset + k] = x + RADIUS * Math.cos(angle);
+			ys[offset + k] = y + RADIUS * Math.sin(angle);
+		}
+
+		xs[offset + SIZE - 1] = x;
+		ys[offset + SIZE - 1] = y;
+	}
+
+	/**
+	 * Lay the nodes out around a point, only a medium that models range looks at it
+	 * @param x		horizontal position of the relay, in metres
+	 * @param y		vertical position of the relay, in metres
+	 */
+	public void place(double x, double y) {
+		double[] xs = new double[SIZE];
+		double[] ys = new double[SIZE];
+		layout(x, y, xs, ys, 0);
+
+		Node[] nodes = getNodes();
+		for (int k = 0; k < SIZE; k++) {
+			nodes[k].setPosition(xs[k], ys[k]);
+		}
+	}
+
+	/**
+	 * @return the sink, the sources and the relay, in the order the rig loads them
+	 */
+	public Node[] getNodes() {
+		Node[] nodes = new Node[SIZE];
+		nodes[0] = sink;
+		System.arraycopy(sources, 0, nodes, 1, sources.length);
+		nodes[SIZE - 1] = relay;
+		return nodes;
+	}
+
+	public Simulator getSimulator() {
+		return simulator;
+	}
+
+	public Node getSink() {
+		return sink;
+	}
+
+	public Node getSource(int index) {
+		return sources[index];
+	}
+
+	public Node getRelay() {
+		return relay;
+	}
+
+	/**
+	 * Move the end of the demo, the sink schedules it on load and stops beaconing after it
+	 * @param seconds	length of the demo from loading the rig
+	 */
+	public void setDemoLength(long seconds) {
+		// The kill timer is not kept by the sink, it is the one armed furthest into the future
+		Timer killTimer = null;
+		for (Timer timer : sink.getTimers()) {
+			if (timer.isArmed() && (killTimer == null || timer.getAlarmTime() > killTimer.getAlarmTime()))
+				killTimer = timer;
+		}
+
+		if (killTimer == null)
+			throw new IllegalStateException("Demo has already ended");
+
+		final Timer timer = killTimer;
+		final long end = loadTime + Time.toTickSpan(Time.SECONDS, seconds);
+		simulator.invoke(sink, new Runnable() {
+			public void run() {
+				timer.setAlarmTime(end);
+			}
+		});
+
+		setStatic(sink, "demoLength", Integer.valueOf((int)seconds));
+	}
+
+	/**
+	 * @return length of the demo, in seconds
+	 */
+	public int getDemoLength() {
+		return ((Integer)getStatic(sink, "demoLength")).intValue();
+	}
+
+	/**
+	 * Change the sync phase of the sink, it reads them when the protocol starts, 5 s after loading the rig
+	 * @param n		number of beacons in a sync phase
+	 * @param t		time between the beacons, in milliseconds
+	 */
+	public void setSinkTiming(int n, int t) {
+		setStatic(sink, "n", Integer.valueOf(n));
+		setStatic(sink, "t", Integer.valueOf(t));
+		setStatic(sink, "wait", Long.valueOf(Time.toTickSpan(Time.MILLISECS, t)));
+	}
+
+	/**
+	 * Change the period of a source, its first frame moves to one period after loading the rig
+	 * @param index		index of the source
+	 * @param millis	period, in milliseconds
+	 */
+	public void setSourcePeriod(int index, long millis) {
+		final Node source = sources[index];
+		final long delay = Time.toTickSpan(Time.MILLISECS, millis);
+		final Timer timer = (Timer)getStatic(source, "tsend");
+		setStatic(source, "interval", Long.valueOf(millis));
+		setStatic(source, "xmitDelay", Long.valueOf(delay));
+		simulator.invoke(source, new Runnable() {
+			public void run() {
+				timer.setAlarmTime(loadTime + delay);
+			}
+		});
+	}
+
+	/**
+	 * @return period of a source, in milliseconds
+	 */
+	public long getSourcePeriod(int index) {
+		return ((Long)getStatic(sources[index], "interval")).longValue();
+	}
+
+	/**
+	 * Run until the sink has ended the demo
+	 */
+	public void runDemo() {
+		simulator.runUntil(loadTime + Time.toTickSpan(Time.SECONDS, getDemoLength() + 1));
+	}
+
+	/**
+	 * Run until the sink has ended the demo, moving the trace of the relay out of its ring as it goes
+	 * @param recorder	recorder of the relay
+	 */
+	public void runDemo(Trace.Recorder recorder) {
+		long end = loadTime + Time.toTickSpan(Time.SECONDS, getDemoLength() + 1);
+		long slice = Time.toTickSpan(Time.SECONDS, 1L);
+		while (simulator.getTime() < end) {
+			simulator.runUntil(Math.min(simulator.getTime() + slice, end));
+			recorder.drain();
+		}
+	}
+
+	/**
+	 * Run until the given time of the demo and restart the relay, then until it sends a frame again
+	 * @param seconds	time into the demo to restart at
+	 * @param cold		wipe the non-volatile memory of the relay first, so it starts from discovery
+	 * @return time from the restart to the end of the first frame sent after it, in ticks, -1 if none was sent before the end of the demo
+	 */
+	public long restartRelay(long seconds, boolean cold) {
+		simulator.runUntil(loadTime + Time.toTickSpan(Time.SECONDS, seconds));
+		if (cold)
+			relay.clearMemory();
+
+		simulator.restart(relay);
+		long restarted = simulator.getTime();
+
+		// The restarted program opened a radio of its own, sending shows up in it at a resolution of the slice
+		Radio radio = relay.getRadios().get(relay.getRadios().size() - 1);
+		long end = loadTime + Time.toTickSpan(Time.SECONDS, getDemoLength() + 1);
+		long slice = Time.toTickSpan(Time.MILLISECS, 10L);
+		while (radio.getTxFrames() == 0 && simulator.getTime() < end) {
+			simulator.runUntil(Math.min(simulator.getTime() + slice, end));
+		}
+
+		return radio.getTxFrames() > 0 ? simulator.getTime() - restarted : -1L;
+	}
+
+	/**
+	 * Sink state
+	 */
+
+	public int getInPhasePackets() {
+		return ((Integer)getStatic(sink, "inPhasePackets")).intValue();
+	}
+
+	public int getOutPhasePackets() {
+		return ((Integer)getStatic(sink, "outPhasePackets")).intValue();
+	}
+
+	public int getReceptionPhaseCount() {
+		return ((Integer)getStatic(sink, "receptionPhaseCount")).intValue();
+	}
+
+	/**
+	 * @return score as the sink would compute it at the end of the demo
+	 */
+	public int getScore() {
+		int score = ((Integer)getStatic(sink, "marksForMessages")).intValue();
+		int[] sourcesSeen = (int[])getStatic(sink, "sourcesSeen");
+		for (int i = 0; i < sourcesSeen.length; i++) {
+			score += sourcesSeen[i];
+		}
+
+		return score;
+	}
+
+	/**
+	 * @return best score the sink could have given, a frame in every reception phase and every source seen
+	 */
+	public int getMaxScore() {
+		return getReceptionPhaseCount() * ((Integer)getStatic(sink, "MARKS_PER_CORRECT_PHASE")).intValue()
+				+ SOURCES.length * ((Integer)getStatic(sink, "MARKS_PER_SOURCE")).intValue();
+	}
+
+	/**
+	 * Relay state
+	 */
+
+	/**
+	 * @return number of frames the relay has created, constant once the relay is running
+	 */
+	public int getRelayFrameAllocations() {
+		return ((Integer)callStatic(relay, "embs.Frame", "getAllocationCount")).intValue();
+	}
+
+	/**
+	 * @return number of sessions the relay has created, constant once the relay is running
+	 */
+	public int getRelaySessionAllocations() {
+		return ((Integer)callStatic(relay, "embs.Session", "getAllocationCount")).intValue();
+	}
+
+	/**
+	 * Reflection helpers, the rig keeps its state in private static fields
+	 */
+
+	/**
+	 * Call a static method without arguments on a class loaded by the node
+	 * @param node			node that loaded the class
+	 * @param className		fully qualified name of the class
+	 * @param name			name of the method
+	 * @return value returned by the method
+	 */
+	public static Object callStatic(Node node, String className, String name) {
+		try {
+			java.lang.reflect.Method method = node.getProgram().getClassLoader().loadClass(className).getDeclaredMethod(name);
+			method.setAccessible(true);
+			return method.invoke(null);
+		} catch (Exception e) {
+			throw new IllegalStateException("Could not call " + className + "." + name, e);
+		}
+	}
+
+	public static Object getStatic(Node node, String name) {
+		try {
+			return field(node, name).get(null);
+		} catch (IllegalAccessException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	public static void setStatic(Node node, String name, Object value) {
+		try {
+			field(node, name).set(null, value);
+		} catch (IllegalAccessException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static Field field(Node node, String name) {
+		try {
+			Field field = node.getProgram().getDeclaredField(name);
+			field.setAccessible(true);
+			return field;
+		} catch (NoSuchFieldException e) {
+			throw new IllegalArgumentException(node.getProgram().getName() + " has no field " + name, e);
+		}
+	}
+
+	/**
+	 * Report
+	 */
+
+	public static void main(String[] args) throws IOException {
+		long seconds = 3600;
+		boolean verbose = false;
+		String traceFile = null;
+		String memoryFile = null;
+		long restartAt = -1;
+		boolean cold = false;
+		boolean shared = false;
+		double exponent = SharedMedium.DEFAULT_EXPONENT;
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-v"))
+				verbose = true;
+			else if (args[i].equals("-trace") && i + 1 < args.length)
+				traceFile = args[++i];
+			else if (args[i].equals("-memory") && i + 1 < args.length)
+				memoryFile = args[++i];
+			else if (args[i].equals("-restart") && i + 1 < args.length)
+				restartAt = Long.parseLong(args[++i]);
+			else if (args[i].equals("-cold"))
+				cold = true;
+			else if (args[i].equals("-shared"))
+				shared = true;
+			else if (args[i].equals("-exponent") && i + 1 < args.length)
+				exponent = Double.parseDouble(args[++i]);
+			else
+				seconds = Long.parseLong(args[i]);
+		}
+
+		long started = System.nanoTime();
+		Simulator simulator = new Simulator();
+		if (verbose)
+			simulator.setLog(System.out);
+
+		SharedMedium medium = shared ? new SharedMedium(simulator, exponent) : null;
+		if (medium != null)
+			simulator.setMedium(medium);
+
+		Rig rig = new Rig(simulator, memoryFile != null ? new File(memoryFile) : null);
+		rig.setDemoLength(seconds);
+		rig.place(0.0, 0.0);
+
+		long restartTime = restartAt >= 0 ? rig.restartRelay(restartAt, cold) : -1L;
+		Trace.Recorder recorder = traceFile != null ? new Trace.Recorder(rig.getRelay()) : null;
+		if (recorder != null)
+			rig.runDemo(recorder);
+		else
+			rig.runDemo();
+
+		long elapsed = (System.nanoTime() - started) / 1000000L;
+
+		System.out.println("Simulated " + seconds + " s in " + elapsed + " ms, " + simulator.getEventsFired() + " events");
+		System.out.println("Sink: score " + rig.getScore() + ", in phase " + rig.getInPhasePackets() + ", out of phase " + rig.getOutPhasePackets() + ", reception phases " + rig.getReceptionPhaseCount());
+
+		System.out.println("Relay: frames allocated " + rig.getRelayFrameAllocations() + ", sessions allocated " + rig.getRelaySessionAllocations());
+		if (restartAt >= 0)
+			System.out.println("Relay: restarted " + (cold ? "cold" : "warm") + " at " + restartAt + " s, "
+					+ (restartTime >= 0 ? "sending again after " + Time.fromTickSpan(Time.MILLISECS, restartTime) + " ms" : "sent nothing since"));
+
+		if (recorder != null) {
+			OutputStream out = new BufferedOutputStream(new FileOutputStream(traceFile));
+			try {
+				recorder.getTrace().write(out);
+			} finally {
+				out.close();
+			}
+
+			System.out.println("Relay: " + recorder.getTrace().getRecords().size() + " trace records written to " + traceFile
+					+ (recorder.getDroppedCount() > 0 ? ", " + recorder.getDroppedCount() + " dropped" : ""));
+		}
+
+		long total = simulator.getTime();
+		for (Node node : simulator.getNodes()) {
+			for (Radio radio : node.getRadios()) {
+				System.out.println(node.getName()
+						+ ": rx on " + Time.fromTickSpan(Time.MILLISECS, radio.getRxTicks()) + " ms (" + (100L * radio.getRxTicks() / total) + "%)"
+						+ ", tx " + Time.fromTickSpan(Time.MILLISECS, radio.getTxTicks()) + " ms"
+						+ ", frames received " + radio.getRxFrames()
+						+ ", frames sent " + radio.getTxFrames()
+						+ (radio.getCcaFailures() > 0 ? ", channel busy " + radio.getCcaFailures() : ""));
+			}
+		}
+
+		if (medium != null) {
+			System.out.println("Medium: path loss exponent " + medium.getExponent() + ", " + medium.getReceived() + " frames received, "
+					+ medium.getCaptures() + " captured, " + medium.getCollisions() + " lost to collisions, " + medium.getCcaBusy() + " not sent as the channel was busy");
+			for (int channel = 0; channel < SharedMedium.CHANNEL_COUNT; channel++) {
+				if (medium.getFrames(channel) == 0 && medium.getCcaBusy(channel) == 0)
+					continue;
+
+				System.out.println(String.format("Channel %2d: %6d frames, busy %5.2f%%, airtime %8d ms, channel busy %4d, collisions %4d",
+						channel, medium.getFrames(channel), 100.0 * medium.getOccupancy(channel, total), Time.fromTickSpan(Time.MILLISECS, medium.getAirtime(channel)),
+						medium.getCcaBusy(channel), medium.getCollisions(channel)));
+			}
+		}
+	}
+}
@@ -0,0 +1,427 @@
+/**
+ * A medium that models the channels the radios share, frames reach as far
+ * as their power carries, take up airtime on their channel and interfere
+ * with the frames they overlap
+ *
+ * The signal falls off with distance by a log-distance path loss, 40 dB at a
+ * metre and the exponent times 10 dB for every tenfold distance beyond, and a
+ * frame sent at a power level of the radio, 0 - 63 for -25 - 0 dBm, is heard
+ * where it arrives above the sensitivity of the CC2420. A radio receives it
+ * when it has been listening on the channel since the frame went on air and
+ * still is when it ends, unless
+ * - the node sent a frame of its own meanwhile, the radio is half duplex
+ * - the radio was already locked on to an earlier frame still on air
+ * - the frame does not stand out of the noise and the frames it overlaps by
+ *   the capture threshold, a frame strong enough is received in spite of weaker
+ *   ones, which is counted as a capture
+ * The RSSI it is received with is the signal at the receiver, in dBm, as a
+ * signed byte like the CC2420 reports it, after the faults of the simulator
+ *
+ * A frame sent with TXMODE_CCA is only sent when the energy on the channel at
+ * the sender is below the CCA threshold, otherwise it is dropped and the radio
+ * calls the tx handler with FLAG_CCA_BUSY. For every channel the medium keeps
+ * the frames, the airtime and the time the channel was busy, the time at least
+ * one frame was on air, from which the occupancy follows
+ *
+ * Frames go on air as the radio is told to send them, as on the ideal medium,
+ * the rx/tx turnaround is left to Network, where it is the lookahead
+ *
+ */
+
+package embs.sim;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.ibm.saguaro.system.Radio;
+
+public class SharedMedium extends Medium {
+	/**
+	 * Levels of the CC2420, in dBm
+	 */
+	public final static double SENSITIVITY = -95.0;
+	public final static double CCA_THRESHOLD = -77.0;
+	public final static double NOISE_FLOOR = -100.0;
+
+	/**
+	 * How much stronger a frame has to be than the noise and the frames it overlaps together, in dB
+	 */
+	public final static double CAPTURE_THRESHOLD = 3.0;
+
+	/**
+	 * Path loss at a metre, in dB, and the exponent it grows with beyond, 2 in free space, 3 - 4 indoors
+	 */
+	public final static double REFERENCE_LOSS = 40.0;
+	public final static double DEFAULT_EXPONENT = 3.0;
+
+	/**
+	 * Output power of the lowest and the highest power level of the radio, in dBm
+	 */
+	public final static double MIN_POWER = -25.0;
+	public final static double MAX_POWER = 0.0;
+	private final static int MAX_LEVEL = Radio.TXMODE_POWER_MASK >>> 10;
+
+	/**
+	 * Longest a frame can be on air, older frames can not overlap one still to be received
+	 */
+	public final static long MAX_AIRTIME = (PHY_OVERHEAD + 127 + FCS_LENGTH) * BYTE_TIME;
+	public final static int CHANNEL_COUNT = 16;
+
+	private final Simulator simulator;
+	private final double exponent;
+
+	/**
+	 * The frames that may still overlap one to be received, for every channel, in the order they went on air
+	 */
+	private final List<ArrayDeque<Transmission>> channels = new ArrayList<ArrayDeque<Transmission>>();
+
+	private final long[] frames = new long[CHANNEL_COUNT];
+	private final long[] airtimes = new long[CHANNEL_COUNT];
+	private final long[] busyTimes = new long[CHANNEL_COUNT];
+	private final long[] busyUntil = new long[CHANNEL_COUNT];
+	private final long[] ccaBusy = new long[CHANNEL_COUNT];
+	private final long[] collisions = new long[CHANNEL_COUNT];
+	private long received = 0;
+	private long captures = 0;
+
+	/**
+	 * @param simulator	simulator the medium belongs to
+	 */
+	public SharedMedium(Simulator simulator) {
+		this(simulator, DEFAULT_EXPONENT);
+	}
+
+	/**
+	 * @param simulator	simulator the medium belongs to
+	 * @param exponent	path loss exponent
+	 */
+	public SharedMedium(Simulator simulator, double exponent) {
+		super(simulator);
+		if (exponent <= 0)
+			throw new IllegalArgumentException("Path loss exponent must be positive");
+
+		this.simulator = simulator;
+		this.exponent = exponent;
+		for (int i = 0; i < CHANNEL_COUNT; i++) {
+			channels.add(new ArrayDeque<Transmission>());
+		}
+	}
+
+	public double getExponent() {
+		return exponent;
+	}
+
+	/**
+	 * Propagation
+	 */
+
+	/**
+	 * @param mode	mode a frame was sent with
+	 * @return output power of the power level of the mode, in dBm
+	 */
+	public static double power(int mode) {
+		int level = (mode & Radio.TXMODE_POWER_MASK) >>> 10;
+		return MIN_POWER + (MAX_POWER - MIN_POWER) * level / MAX_LEVEL;
+	}
+
+	/**
+	 * @param distance	distance from the sender, in metres, closer than a metre counts as a metre
+	 * @return path loss, in dB
+	 */
+	public double pathLoss(double distance) {
+		return REFERENCE_LOSS + 10.0 * exponent * Math.log10(Math.max(1.0, distance));
+	}
+
+	/**
+	 * @param power		output power, in dBm
+	 * @return furthest a frame sent with the power is heard, in metres
+	 */
+	public double range(double power) {
+		return Math.max(1.0, Math.pow(10.0, (power - SENSITIVITY - REFERENCE_LOSS) / (10.0 * exponent)));
+	}
+
+	/**
+	 * @return signal of a frame at a node, in dBm
+	 */
+	public double rssi(Transmission transmission, Node receiver) {
+		return transmission.getPower() - pathLoss(transmission.getSender().distanceTo(receiver));
+	}
+
+	private static double toMilliwatts(double dBm) {
+		return Math.pow(10.0, dBm / 10.0);
+	}
+
+	private static double toDBm(double milliwatts) {
+		return 10.0 * Math.log10(milliwatts);
+	}
+
+	/**
+	 * Channels
+	 */
+
+	/**
+	 * Lay a frame on its channel, from now on it takes up airtime and interferes with the others
+	 * @param transmission	frame on air, going on air no earlier than the frames before
+	 */
+	protected void put(Transmission transmission) {
+		int channel = transmission.getChannel();
+		channels.get(channel).add(transmission);
+
+		frames[channel]++;
+		airtimes[channel] += transmission.getEnd() - transmission.getStart();
+		long from = Math.max(transmission.getStart(), busyUntil[channel]);
+		if (transmission.getEnd() > from)
+			busyTimes[channel] += transmission.getEnd() - from;
+
+		busyUntil[channel] = Math.max(busyUntil[channel], transmission.getEnd());
+	}
+
+	/**
+	 * Forget the frames that can no longer overlap one still to be received
+	 * @param time	global time no frame to be received ends before
+	 */
+	protected void prune(long time) {
+		for (ArrayDeque<Transmission> transmissions : channels) {
+			while (!transmissions.isEmpty() && transmissions.peek().getEnd() <= time - MAX_AIRTIME)
+				transmissions.poll();
+		}
+	}
+
+	/**
+	 * Clear channel assessment
+	 * @param node		node assessing the channel
+	 * @param channel	radio channel
+	 * @param time		global time of the assessment
+	 * @return true if the energy of the frames of other nodes on air is below the CCA threshold
+	 */
+	protected boolean isClear(Node node, byte channel, long time) {
+		double energy = 0.0;
+		for (Transmission other : channels.get(channel)) {
+			if (other.getStart() > time)
+				break;
+
+			if (other.isOnAir(time) && other.getSender() != node)
+				energy += toMilliwatts(rssi(other, node));
+		}
+
+		return energy == 0.0 || toDBm(energy) < CCA_THRESHOLD;
+	}
+
+	/**
+	 * Count a frame sent with TXMODE_CCA but dropped as the channel was busy
+	 */
+	protected void dropped(byte channel) {
+		ccaBusy[channel]++;
+	}
+
+	/**
+	 * Hand a frame to a radio as it ends, if the radio heard all of it and it did not collide there
+	 * @param transmission	frame on air, laid on its channel
+	 * @param radio			radio of another node
+	 * @return true if the radio received the frame
+	 */
+	protected boolean receive(Transmission transmission, Radio radio) {
+		Node receiver = radio.getNode();
+		byte channel = transmission.getChannel();
+		if (receiver == transmission.getSender() || !radio.isListening() || radio.getChannel() != channel
+				|| radio.getListeningSince() > transmission.getStart())
+			return false;
+
+		double signal = rssi(transmission, receiver);
+		if (signal < SENSITIVITY)
+			return false;
+
+		byte[] frame = frameAt(transmission, receiver);
+		if (!radio.accepts(frame, transmission.getLength()))
+			return false;
+
+		if (isSending(receiver, transmission) || isLocked(radio, transmission)) {
+			collisions[channel]++;
+			return false;
+		}
+
+		double interference = 0.0;
+		for (Transmission other : channels.get(channel)) {
+			if (other.getStart() >= transmission.getEnd())
+				break;
+
+			if (other != transmission && other.overlaps(transmission))
+				interference += toMilliwatts(rssi(other, receiver));
+		}
+
+		if (signal - toDBm(toMilliwatts(NOISE_FLOOR) + interference) < CAPTURE_THRESHOLD) {
+			collisions[channel]++;
+			return false;
+		}
+
+		Faults faults = simulator.getFaults();
+		if (faults.nextLost())
+			return false;
+
+		if (interference > 0.0)
+			captures++;
+
+		received++;
+		int rssi = faults.nextRssi((int)Math.max(Byte.MIN_VALUE, Math.min(Byte.MAX_VALUE, Math.round(signal))) & 0xFF);
+		radio.received(frame, transmission.getLength(), rssi, transmission.getEnd());
+		return true;
+	}
+
+	/**
+	 * @return the frame as it reaches the receiver, the frame that went on air on this medium
+	 */
+	protected byte[] frameAt(Transmission transmission, Node receiver) {
+		return transmission.getFrame();
+	}
+
+	/**
+	 * @return true if the node had a frame of its own on air on any channel while the frame was
+	 */
+	private boolean isSending(Node node, Transmission transmission) {
+		for (ArrayDeque<Transmission> transmissions : channels) {
+			for (Transmission other : transmissions) {
+				if (other.getStart() >= transmission.getEnd())
+					break;
+
+				if (other.getSender() == node && other.overlaps(transmission))
+					return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * @return true if the radio heard the start of an earlier frame that was still on air when the frame started
+	 */
+	private boolean isLocked(Radio radio, Transmission transmission) {
+		for (Transmission other : channels.get(transmission.getChannel())) {
+			if (other.getStart() >= transmission.getStart())
+				break;
+
+			if (other.getEnd() > transmission.getStart() && radio.getListeningSince() <= other.getStart()
+					&& rssi(other, radio.getNode()) >= SENSITIVITY)
+				return true;
+		}
+
+		return false;
+	}
+
+	/**
+	 * Statistics
+	 */
+
+	/**
+	 * @return number of frames that went on air on the channel
+	 */
+	public long getFrames(int channel) {
+		return frames[channel];
+	}
+
+	/**
+	 * @return airtime of the frames on the channel, overlapping frames counted in full, in ticks
+	 */
+	public long getAirtime(int channel) {
+		return airtimes[channel];
+	}
+
+	/**
+	 * @return time at least one frame was on air on the channel, in ticks
+	 */
+	public long getBusyTime(int channel) {
+		return busyTimes[channel];
+	}
+
+	/**
+	 * @param span	time the channel was watched for, in ticks
+	 * @return share of the time the channel was busy
+	 */
+	public double getOccupancy(int channel, long span) {
+		return span > 0 ? (double)busyTimes[channel] / span : 0.0;
+	}
+
+	/**
+	 * @return number of frames not sent on the channel as it was busy
+	 */
+	public long getCcaBusy(int channel) {
+		return ccaBusy[channel];
+	}
+
+	/**
+	 * @return number of frames on the channel a radio would have received, but for a collision
+	 */
+	public long getCollisions(int channel) {
+		return collisions[channel];
+	}
+
+	public long getCcaBusy() {
+		return sum(ccaBusy);
+	}
+
+	public long getCollisions() {
+		return sum(collisions);
+	}
+
+	/**
+	 * @return number of frames handed to a radio
+	 */
+	public long getReceived() {
+		return received;
+	}
+
+	/**
+	 * @return number of frames received in spite of overlapping others
+	 */
+	public long getCaptures() {
+		return captures;
+	}
+
+	private static long sum(long[] values) {
+		long sum = 0;
+		for (long value : values) {
+			sum += value;
+		}
+
+		return sum;
+	}
+
+	/**
+	 * Medium
+	 */
+
+	public void transmit(final Radio sender, int mode, final byte[] frame, final int length) {
+		long now = simulator.getTime();
+		byte channel = sender.getChannel();
+		if ((mode & Radio.TXMODE_CCA) != 0 && !isClear(sender.getNode(), channel, now)) {
+			dropped(channel);
+			sender.busy(frame, length, now);
+			return;
+		}
+
+		prune(now);
+		final long end = now + airtime(length);
+		final Transmission transmission = new Transmission(sender.getNode(), channel, now, end, power(mode), frame, length);
+		put(transmission);
+
+		// Only radios listening on the channel as the frame starts can receive it
+		List<Radio> radios = getRadios();
+		for (int i = 0; i < radios.size(); i++) {
+			final Radio receiver = radios.get(i);
+			if (receiver.getNode() == sender.getNode() || !receiver.isListening() || receiver.getChannel() != channel)
+				continue;
+
+			simulator.schedule(receiver.getNode(), end, new Runnable() {
+				public void run() {
+					receive(transmission, receiver);
+				}
+			});
+		}
+
+		simulator.schedule(sender.getNode(), end, new Runnable() {
+			public void run() {
+				sender.transmitted(frame, length, end);
+			}
+		});
+	}
+}
@@ -0,0 +1,389 @@
+/**
+ * A discrete-event simulator for the parts of the Mote Runner
+ * system API used by Relay and the Assessment Rig
+ *
+ * Time is virtual, the simulator keeps a priority queue of events
+ * and jumps from one to the next, so simulated time runs as fast as
+ * the host can process the callbacks. Programs are loaded as
+ * unchanged classes, each into its own node, through a class loader
+ * that is private to the simulator. This gives every simulator a fresh
+ * copy of the static state of the programs, allowing several simulators
+ * to run in one JVM (one per thread at a time)
+ *
+ */
+
+package embs.sim;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import com.ibm.saguaro.system.Radio;
+import com.ibm.saguaro.system.Time;
+
+public class Simulator {
+	/**
+	 * Simulator the stand-in classes on this thread talk to
+	 */
+	private final static ThreadLocal<Simulator> current = new ThreadLocal<Simulator>();
+
+	private final PriorityQueue<Event> queue = new PriorityQueue<Event>();
+	private final List<Node> nodes = new ArrayList<Node>();
+	private final ClassLoader loader = new NodeClassLoader(Simulator.class.getClassLoader());
+	private Medium medium = new Medium(this);
+	private Faults faults = Faults.NONE;
+	private long time = 0;
+	private long sequence = 0;
+	private long eventsFired = 0;
+	private Node currentNode = null;
+	private PrintStream log = null;
+
+	/**
+	 * @return the simulator that is active on the calling thread
+	 */
+	public static Simulator current() {
+		Simulator simulator = current.get();
+		if (simulator == null)
+			throw new IllegalStateException("No simulator is active on this thread");
+
+		return simulator;
+	}
+
+	/**
+	 * @param log	stream to print flushed log lines to, null to drop them
+	 */
+	public void setLog(PrintStream log) {
+		this.log = log;
+	}
+
+	/**
+	 * Replace the ideal medium, before any node opens a radio
+	 * @param medium	medium the radios of the nodes use
+	 */
+	public void setMedium(Medium medium) {
+		this.medium = medium;
+	}
+
+	/**
+	 * @param faults	faults to inject, the skew of a node is drawn when it is loaded
+	 */
+	public void setFaults(Faults faults) {
+		this.faults = faults;
+	}
+
+	/**
+	 * @return faults injected, Faults.NONE by default
+	 */
+	public Faults getFaults() {
+		return faults;
+	}
+
+	/**
+	 * @return global time, in ticks
+	 */
+	public long getTime() {
+		return time;
+	}
+
+	/**
+	 * @return number of events processed so far
+	 */
+	public long getEventsFired() {
+		return eventsFired;
+	}
+
+	/**
+	 * @return node whose code is currently running
+	 */
+	public Node getCurrentNode() {
+		if (currentNode == null)
+			throw new IllegalStateException("No node is active, mote code must run through the simulator");
+
+		return currentNode;
+	}
+
+	/**
+	 * @return the radio medium shared by all nodes
+	 */
+	public Medium getMedium() {
+		return medium;
+	}
+
+	/**
+	 * @return all nodes, in order of loading
+	 */
+	public List<Node> getNodes() {
+		return nodes;
+	}
+
+	/**
+	 * Create a node and load a program onto it, this runs the static initialiser of the program
+	 * @param name		name of the node
+	 * @param className	fully qualified name of the program class, for example embs.Relay
+	 * @return the new node
+	 */
+	public Node load(String name, final String className) {
+		try {
+			return load(name, className, null);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Create a node backed by a file for its non-volatile memory and load a program onto it
+	 * @param name		name of the node
+	 * @param className	fully qualified name of the program class
+	 * @param memory	file holding the memory of the node, read before the program is loaded, null for none
+	 * @return the new node
+	 * @throws IOException if the memory file exists and cannot be read
+	 */
+	public Node load(String name, final String className, File memory) throws IOException {
+		final Node node = create(name);
+		if (memory != null)
+			node.setMemoryFile(memory);
+
+		start(node, className, loader);
+		return node;
+	}
+
+	/**
+	 * Create a node and load a program onto it through a class loader of its own, so any number of
+	 * nodes of the simulator can run the same program, each with static state of its own
+	 * @param name		name of the node
+	 * @param className	fully qualified name of the program class
+	 * @return the new node
+	 */
+	public Node loadPrivate(String name, String className) {
+		Node node = create(name);
+		start(node, className, new NodeClassLoader(Simulator.class.getClassLoader()));
+		return node;
+	}
+
+	/**
+	 * Load a class of mote code through the class loader of the simulator, for the host to instantiate
+	 * on a node it created, the class and its static state are shared by every node of the simulator
+	 * @param className	fully qualified name of the class
+	 * @return the class
+	 */
+	public Class<?> loadClass(String className) {
+		try {
+			return Class.forName(className, true, loader);
+		} catch (ClassNotFoundException e) {
+			throw new IllegalArgumentException("Unknown class " + className, e);
+		}
+	}
+
+	/**
+	 * Create a node without loading a program, for mote code the host instantiates itself through invoke,
+	 * such as a RelayEngine on a MotePlatform. Those classes are shared with the host, so any number of
+	 * instances can run in one simulator, as long as they keep no static state
+	 * @param name		name of the node
+	 * @return the new node
+	 */
+	public Node create(String name) {
+		Node node = new Node(this, name);
+		node.setSkew(faults.nextSkew());
+		nodes.add(node);
+		return node;
+	}
+
+	/**
+	 * Restart the program of a node, as reloading its assembly would, the pending events of the node are
+	 * dropped, its radios are closed and the program is loaded again with fresh static state, through a class
+	 * loader of its own. The clock and the non-volatile memory of the node are kept
+	 * @param node	node to restart
+	 */
+	public void restart(final Node node) {
+		if (node.getProgram() == null)
+			throw new IllegalArgumentException(node.getName() + " has no program to restart");
+
+		for (Event event : queue) {
+			if (event.getNode() == node)
+				event.cancel();
+		}
+
+		for (Radio radio : node.getRadios()) {
+			if (radio.isOpen())
+				radio.close();
+		}
+
+		start(node, node.getProgram().getName(), new NodeClassLoader(Simulator.class.getClassLoader()));
+	}
+
+	/**
+	 * Load a program onto a node, running its static initialiser as mote code of the node
+	 * @param node		node to load the program onto
+	 * @param className	fully qualified name of the program class
+	 * @param loader	class loader to load the program through
+	 */
+	private void start(final Node node, final String className, final ClassLoader loader) {
+		invoke(node, new Runnable() {
+			public void run() {
+				try {
+					node.setProgram(Class.forName(className, true, loader));
+				} catch (ClassNotFoundException e) {
+					throw new IllegalArgumentException("Unknown program " + className, e);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Run an action as if it was mote code running on the given node,
+	 * used by the host side to poke at the programs
+	 * @param node		node to run the action on behalf of
+	 * @param action	action to run
+	 */
+	public void invoke(Node node, Runnable action) {
+		Simulator previousSimulator = current.get();
+		Node previousNode = currentNode;
+		current.set(this);
+		currentNode = node;
+
+		try {
+			action.run();
+		} finally {
+			currentNode = previousNode;
+			current.set(previousSimulator);
+		}
+	}
+
+	/**
+	 * Schedule an action
+	 * @param node		node the action belongs to, null for an action of the host
+	 * @param at		global time, in ticks, the action is due at, past times run as soon as possible
+	 * @param action	action to run
+	 * @return the scheduled event
+	 */
+	public Event schedule(Node node, long at, Runnable action) {
+		Event event = new Event(at < time ? time : at, sequence++, node, action);
+		queue.add(event);
+		return event;
+	}
+
+	/**
+	 * @return global time of the earliest pending event, Long.MAX_VALUE if there is none
+	 */
+	public long getNextEventTime() {
+		while (!queue.isEmpty() && queue.peek().isCancelled())
+			queue.poll();
+
+		return queue.isEmpty() ? Long.MAX_VALUE : queue.peek().getTime();
+	}
+
+	/**
+	 * Run the simulation for the given span
+	 * @param span	span to run for, in ticks
+	 */
+	public void run(long span) {
+		runUntil(time + span);
+	}
+
+	/**
+	 * Run the simulation until the given global time, the clock ends up at that time
+	 * @param until		global time, in ticks
+	 */
+	public void runUntil(long until) {
+		Simulator previous = current.get();
+		current.set(this);
+
+		try {
+			while (!queue.isEmpty() && queue.peek().getTime() <= until) {
+				Event event = queue.poll();
+				if (event.isCancelled())
+					continue;
+
+				time = event.getTime();
+				currentNode = event.getNode();
+				eventsFired++;
+				event.fire();
+			}
+
+			if (until > time)
+				time = until;
+		} finally {
+			currentNode = null;
+			current.set(previous);
+		}
+	}
+
+	/**
+	 * Print a flushed log line
+	 * @param node		node that flushed the line
+	 * @param level		severity of the line
+	 * @param line		the line itself
+	 */
+	void log(Node node, int level, String line) {
+		if (log == null)
+			return;
+
+		log.println("[" + Time.fromTickSpan(Time.MILLISECS, time) + " ms] " + node.getName() + ": " + line);
+	}
+
+	/**
+	 * Loads the classes of the mote programs privately, parent first for everything
+	 * but the embs package, which would otherwise share static state between simulators.
+	 * The class files are read once and shared by all loaders, a network loads a program
+	 * for every node
+	 */
+	private static class NodeClassLoader extends ClassLoader {
+		private final static java.util.concurrent.ConcurrentHashMap<String, byte[]> codes = new java.util.concurrent.ConcurrentHashMap<String, byte[]>();
+
+		NodeClassLoader(ClassLoader parent) {
+			super(parent);
+		}
+
+		protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+			if (!name.startsWith("embs.") || name.startsWith("embs.sim."))
+				return super.loadClass(name, resolve);
+
+			synchronized (getClassLoadingLock(name)) {
+				Class<?> loaded = findLoadedClass(name);
+				if (loaded == null)
+					loaded = findClass(name);
+
+				if (resolve)
+					resolveClass(loaded);
+
+				return loaded;
+			}
+		}
+
+		protected Class<?> findClass(String name) throws ClassNotFoundException {
+			byte[] code = codes.get(name);
+			if (code == null) {
+				code = read(name);
+				codes.putIfAbsent(name, code);
+			}
+
+			return defineClass(name, code, 0, code.length);
+		}
+
+		private byte[] read(String name) throws ClassNotFoundException {
+			java.io.InputStream in = getParent().getResourceAsStream(name.replace('.', '/') + ".class");
+			if (in == null)
+				throw new ClassNotFoundException(name);
+
+			try {
+				java.io.ByteArrayOutputStream bytes = new java.io.ByteArrayOutputStream();
+				byte[] chunk = new byte[4096];
+				for (int read; (read = in.read(chunk)) > 0;)
+					bytes.write(chunk, 0, read);
+
+				return bytes.toByteArray();
+			} catch (java.io.IOException e) {
+				throw new ClassNotFoundException(name, e);
+			} finally {
+				try {
+					in.close();
+				} catch (java.io.IOException e) {
+					// Nothing left to do with the stream
+				}
+			}
+		}
+	}
+}
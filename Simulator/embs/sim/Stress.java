@@ -0,0 +1,288 @@
+/**
+ * Monte-Carlo stress runs of the relay against the Assessment Rig with
+ * faults injected, clock skew, timing jitter, frame loss and RSSI noise,
+ * every trial seeded on its own and simulated in a simulator of its own,
+ * spread over the cores with a fork-join pool
+ *
+ * Trial i is seeded with the seed plus i, the seed draws the faults and,
+ * with -vary, the n and t of the sink, so a trial is rerun on its own by
+ * starting from its seed with one trial. The percentiles of the share of
+ * the frames sent by the sources forwarded in phase, of the share of the
+ * best score and of the radio energy of the relay are printed, followed
+ * by the worst trials:
+ *     java embs.sim.Stress [seconds] [-trials count] [-seed seed] [-skew ppm] [-jitter us] [-loss probability] [-rssi dB] [-vary] [-threads count] [-v]
+ *
+ */
+
+package embs.sim;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import com.ibm.saguaro.system.Radio;
+import com.ibm.saguaro.system.Time;
+
+public class Stress {
+	/**
+	 * Power drawn by the radio, CC2420 at 3 V, receiving (18.8 mA) and sending at full power (17.4 mA)
+	 */
+	public final static double RX_POWER = 56.4;
+	public final static double TX_POWER = 52.2;
+
+	private final static int WORST_COUNT = 10;
+	private final static double[] PERCENTILES = new double[]{1, 5, 25, 50, 75, 95, 99};
+
+	/**
+	 * One trial and what the demo gave for it
+	 */
+	public static class Trial {
+		public final long seed;
+		public int n = 3;
+		public int t = 750;
+		public double relaySkew;
+
+		public int score;
+		public int maxScore;
+		public int sent;
+		public int inPhase;
+		public int outPhase;
+		public long relayRxTicks;
+		public long relayTxTicks;
+		public long time;
+
+		public Trial(long seed) {
+			this.seed = seed;
+		}
+
+		/**
+		 * @return frames the sink got in phase as a share of the frames the sources sent, in percent
+		 */
+		public double getForwardShare() {
+			return sent > 0 ? 100.0 * inPhase / sent : 0.0;
+		}
+
+		/**
+		 * @return score as a share of the best score, in percent
+		 */
+		public double getShare() {
+			return maxScore > 0 ? 100.0 * score / maxScore : 0.0;
+		}
+
+		/**
+		 * @return energy spent by the radio of the relay, in millijoules
+		 */
+		public double getEnergy() {
+			return (relayRxTicks * RX_POWER + relayTxTicks * TX_POWER) / Time.toTickSpan(Time.SECONDS, 1L);
+		}
+
+		public String toString() {
+			return String.format("%10d %2d %5d %7.1f %6d %5d %5d %5d %6.1f%% %6.1f%% %9.1f",
+					seed, n, t, relaySkew, score, sent, inPhase, outPhase, getForwardShare(), getShare(), getEnergy());
+		}
+	}
+
+	private final long seconds;
+	private final double skew;
+	private final long jitter;
+	private final double loss;
+	private final double rssiNoise;
+	private final boolean vary;
+
+	/**
+	 * @param seconds	length of every demo
+	 * @param skew		largest clock skew of a node, in parts per million
+	 * @param jitter	largest delay of a scheduled action, in ticks
+	 * @param loss		probability of a receiver losing a frame
+	 * @param rssiNoise	standard deviation of the RSSI noise, in dB
+	 * @param vary		draw the n and t of the sink for every trial
+	 */
+	public Stress(long seconds, double skew, long jitter, double loss, double rssiNoise, boolean vary) {
+		this.seconds = seconds;
+		this.skew = skew;
+		this.jitter = jitter;
+		this.loss = loss;
+		this.rssiNoise = rssiNoise;
+		this.vary = vary;
+	}
+
+	/**
+	 * Simulate one demo with the faults drawn from the seed of the trial, filling in the result
+	 * @param trial		trial to run
+	 */
+	public void run(Trial trial) {
+		Random random = new Random(trial.seed);
+		if (vary) {
+			trial.n = Sweep.N_MIN + random.nextInt(Sweep.N_MAX - Sweep.N_MIN + 1);
+			trial.t = Sweep.T_MIN + random.nextInt(Sweep.T_MAX - Sweep.T_MIN + 1);
+		}
+
+		Simulator simulator = new Simulator();
+		simulator.setFaults(new Faults(random.nextLong(), skew, jitter, loss, rssiNoise));
+
+		Rig rig = new Rig(simulator);
+		rig.setDemoLength(seconds);
+		rig.setSinkTiming(trial.n, trial.t);
+		trial.relaySkew = rig.getRelay().getSkew();
+
+		long start = simulator.getTime();
+		rig.runDemo();
+
+		trial.score = rig.getScore();
+		trial.maxScore = rig.getMaxScore();
+		trial.inPhase = rig.getInPhasePackets();
+		trial.outPhase = rig.getOutPhasePackets();
+		trial.time = simulator.getTime() - start;
+		for (int i = 0; i < Rig.SOURCES.length; i++) {
+			for (Radio radio : rig.getSource(i).getRadios()) {
+				trial.sent += radio.getTxFrames();
+			}
+		}
+
+		for (Radio radio : rig.getRelay().getRadios()) {
+			trial.relayRxTicks += radio.getRxTicks();
+			trial.relayTxTicks += radio.getTxTicks();
+		}
+	}
+
+	/**
+	 * Run every trial, splitting the array in halves until one is left
+	 * @param trials	trials to run
+	 * @param threads	number of threads to use
+	 */
+	public void run(Trial[] trials, int threads) {
+		new ForkJoinPool(threads).invoke(new Task(trials, 0, trials.length));
+	}
+
+	private class Task extends RecursiveAction {
+		private final static long serialVersionUID = 1L;
+
+		private final Trial[] trials;
+		private final int from;
+		private final int to;
+
+		Task(Trial[] trials, int from, int to) {
+			this.trials = trials;
+			this.from = from;
+			this.to = to;
+		}
+
+		protected void compute() {
+			if (to - from == 1) {
+				Stress.this.run(trials[from]);
+				return;
+			}
+
+			int middle = (from + to) >>> 1;
+			invokeAll(new Task(trials, from, middle), new Task(trials, middle, to));
+		}
+	}
+
+	/**
+	 * Report
+	 */
+
+	private final static String HEADER = "      seed  n     t    skew  score  sent    in   out    fwd   best  energy mJ";
+
+	/**
+	 * @param values	values to summarise, sorted in place
+	 * @return the name followed by the percentiles of the values
+	 */
+	static String percentiles(String name, String unit, double[] values) {
+		Arrays.sort(values);
+		StringBuilder line = new StringBuilder(name).append(":");
+		for (int i = 0; i < PERCENTILES.length; i++) {
+			line.append(i > 0 ? "," : "").append(String.format(" p%.0f %.1f%s", PERCENTILES[i], Sweep.percentile(values, PERCENTILES[i]), unit));
+		}
+
+		return line.toString();
+	}
+
+	public static void main(String[] args) {
+		long seconds = 600;
+		int count = 1000;
+		long seed = 1;
+		double skew = 40.0;
+		long jitter = 100;
+		double loss = 0.01;
+		double rssiNoise = 3.0;
+		boolean vary = false;
+		boolean verbose = false;
+		int threads = Runtime.getRuntime().availableProcessors();
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-trials") && i + 1 < args.length)
+				count = Integer.parseInt(args[++i]);
+			else if (args[i].equals("-seed") && i + 1 < args.length)
+				seed = Long.parseLong(args[++i]);
+			else if (args[i].equals("-skew") && i + 1 < args.length)
+				skew = Double.parseDouble(args[++i]);
+			else if (args[i].equals("-jitter") && i + 1 < args.length)
+				jitter = Long.parseLong(args[++i]);
+			else if (args[i].equals("-loss") && i + 1 < args.length)
+				loss = Double.parseDouble(args[++i]);
+			else if (args[i].equals("-rssi") && i + 1 < args.length)
+				rssiNoise = Double.parseDouble(args[++i]);
+			else if (args[i].equals("-vary"))
+				vary = true;
+			else if (args[i].equals("-threads") && i + 1 < args.length)
+				threads = Integer.parseInt(args[++i]);
+			else if (args[i].equals("-v"))
+				verbose = true;
+			else
+				seconds = Long.parseLong(args[i]);
+		}
+
+		if (count <= 0)
+			throw new IllegalArgumentException("Number of trials must be positive");
+
+		Trial[] trials = new Trial[count];
+		for (int i = 0; i < count; i++) {
+			trials[i] = new Trial(seed + i);
+		}
+
+		long started = System.nanoTime();
+		new Stress(seconds, skew, Time.toTickSpan(Time.MICROSECS, jitter), loss, rssiNoise, vary).run(trials, threads);
+		long elapsed = (System.nanoTime() - started) / 1000000L;
+
+		if (verbose) {
+			System.out.println(HEADER);
+			for (Trial trial : trials) {
+				System.out.println(trial);
+			}
+
+			System.out.println();
+		}
+
+		double[] forwardShares = new double[count];
+		double[] shares = new double[count];
+		double[] energies = new double[count];
+		for (int i = 0; i < count; i++) {
+			forwardShares[i] = trials[i].getForwardShare();
+			shares[i] = trials[i].getShare();
+			energies[i] = trials[i].getEnergy();
+		}
+
+		System.out.println("Simulated " + count + " trials of " + seconds + " s in " + elapsed + " ms on " + threads + " threads");
+		System.out.println("Faults: skew up to " + skew + " ppm, jitter up to " + jitter + " us, loss " + loss + ", RSSI noise " + rssiNoise + " dB"
+				+ (vary ? ", n and t drawn" : ""));
+		System.out.println(percentiles("Frames forwarded in phase", "%", forwardShares));
+		System.out.println(percentiles("Share of best score", "%", shares));
+		System.out.println(percentiles("Relay radio energy", " mJ", energies));
+
+		Trial[] worst = trials.clone();
+		Arrays.sort(worst, new Comparator<Trial>() {
+			public int compare(Trial a, Trial b) {
+				return Double.compare(a.getForwardShare(), b.getForwardShare());
+			}
+		});
+
+		System.out.println();
+		System.out.println("Worst trials:");
+		System.out.println(HEADER);
+		for (int i = 0; i < Math.min(WORST_COUNT, worst.length); i++) {
+			System.out.println(worst[i]);
+		}
+	}
+}
@@ -0,0 +1,280 @@
+/**
+ * Runs the relay against the Assessment Rig for every sync phase the sink
+ * may use (2 <= n <= 10, 500 ms <= t <= 1500 ms) and every set of source
+ * periods given, each configuration in a simulator of its own, spread over
+ * the cores with a fork-join pool
+ *
+ * A row is printed for every configuration, in the order of the grid, with
+ * the score, the share of the best score the sink could have given, the frames
+ * sent by the sources, the frames in and out of phase, the share of the sent
+ * frames that made it in phase and the time the radio of the relay was on,
+ * followed by the distribution of the shares and the configurations furthest
+ * from the best score. Sources slower than the reception phases of the sink can
+ * not fill every phase, so the forwarded share tells the relay failing apart
+ * from the sink asking for more than there is:
+ *     java embs.sim.Sweep [seconds] [-t step] [-scale factor,...] [-threads count]
+ *
+ * The periods of the sources are those of the rig scaled by every factor
+ *
+ */
+
+package embs.sim;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import com.ibm.saguaro.system.Radio;
+import com.ibm.saguaro.system.Time;
+
+public class Sweep {
+	public final static int N_MIN = 2;
+	public final static int N_MAX = 10;
+	public final static int T_MIN = 500;
+	public final static int T_MAX = 1500;
+	public final static long[] SOURCE_PERIODS = new long[]{5500, 6900, 8100};
+
+	private final static int WORST_COUNT = 10;
+
+	/**
+	 * One point of the grid and what the demo gave for it
+	 */
+	public static class Result {
+		public final int n;
+		public final int t;
+		public final long[] periods;
+
+		public int score;
+		public int maxScore;
+		public int inPhase;
+		public int outPhase;
+		public int receptionPhases;
+		public int sent;
+		public long relayRxTicks;
+		public long relayTxTicks;
+		public long time;
+
+		public Result(int n, int t, long[] periods) {
+			this.n = n;
+			this.t = t;
+			this.periods = periods;
+		}
+
+		/**
+		 * @return score as a share of the best score, in percent
+		 */
+		public double getShare() {
+			return maxScore > 0 ? 100.0 * score / maxScore : 0.0;
+		}
+
+		/**
+		 * @return frames the sink got in phase as a share of the frames the sources sent, in percent
+		 */
+		public double getForwardShare() {
+			return sent > 0 ? 100.0 * inPhase / sent : 0.0;
+		}
+
+		/**
+		 * @return time the radio of the relay was receiving, as a share of the demo, in percent
+		 */
+		public double getRxShare() {
+			return time > 0 ? 100.0 * relayRxTicks / time : 0.0;
+		}
+
+		public String toString() {
+			StringBuilder periodList = new StringBuilder();
+			for (int i = 0; i < periods.length; i++) {
+				periodList.append(i > 0 ? "/" : "").append(periods[i]);
+			}
+
+			return String.format("%2d %5d %16s %6d %6.1f%% %5d %5d %5d %6.1f%% %6d %8d %5.1f%% %6d",
+					n, t, periodList, score, getShare(), sent, inPhase, outPhase, getForwardShare(), receptionPhases,
+					Time.fromTickSpan(Time.MILLISECS, relayRxTicks), getRxShare(), Time.fromTickSpan(Time.MILLISECS, relayTxTicks));
+		}
+	}
+
+	private final long seconds;
+
+	public Sweep(long seconds) {
+		this.seconds = seconds;
+	}
+
+	/**
+	 * Simulate one demo, in a simulator of its own, filling in the result
+	 * @param result	configuration to run
+	 */
+	public void run(Result result) {
+		Simulator simulator = new Simulator();
+		Rig rig = new Rig(simulator);
+		rig.setDemoLength(seconds);
+		rig.setSinkTiming(result.n, result.t);
+		for (int i = 0; i < result.periods.length; i++) {
+			rig.setSourcePeriod(i, result.periods[i]);
+		}
+
+		long start = simulator.getTime();
+		rig.runDemo();
+
+		result.score = rig.getScore();
+		result.maxScore = rig.getMaxScore();
+		result.inPhase = rig.getInPhasePackets();
+		result.outPhase = rig.getOutPhasePackets();
+		result.receptionPhases = rig.getReceptionPhaseCount();
+		result.time = simulator.getTime() - start;
+		for (int i = 0; i < result.periods.length; i++) {
+			for (Radio radio : rig.getSource(i).getRadios()) {
+				result.sent += radio.getTxFrames();
+			}
+		}
+
+		for (Radio radio : rig.getRelay().getRadios()) {
+			result.relayRxTicks += radio.getRxTicks();
+			result.relayTxTicks += radio.getTxTicks();
+		}
+	}
+
+	/**
+	 * Run every configuration, splitting the array in halves until one is left
+	 * @param results	configurations to run
+	 * @param threads	number of threads to use
+	 */
+	public void run(final Result[] results, int threads) {
+		new ForkJoinPool(threads).invoke(new Task(results, 0, results.length));
+	}
+
+	private class Task extends RecursiveAction {
+		private final static long serialVersionUID = 1L;
+
+		private final Result[] results;
+		private final int from;
+		private final int to;
+
+		Task(Result[] results, int from, int to) {
+			this.results = results;
+			this.from = from;
+			this.to = to;
+		}
+
+		protected void compute() {
+			if (to - from == 1) {
+				Sweep.this.run(results[from]);
+				return;
+			}
+
+			int middle = (from + to) >>> 1;
+			invokeAll(new Task(results, from, middle), new Task(results, middle, to));
+		}
+	}
+
+	/**
+	 * @param tStep		step of t, in milliseconds
+	 * @param scales	factors to scale the periods of the sources by
+	 * @return every configuration of the grid, by period set, then n, then t
+	 */
+	public static Result[] grid(int tStep, double[] scales) {
+		List<Result> results = new ArrayList<Result>();
+		for (double scale : scales) {
+			long[] periods = new long[SOURCE_PERIODS.length];
+			for (int i = 0; i < periods.length; i++) {
+				periods[i] = Math.round(SOURCE_PERIODS[i] * scale);
+			}
+
+			for (int n = N_MIN; n <= N_MAX; n++) {
+				for (int t = T_MIN; t <= T_MAX; t += tStep) {
+					results.add(new Result(n, t, periods));
+				}
+			}
+		}
+
+		return results.toArray(new Result[results.size()]);
+	}
+
+	/**
+	 * @param sorted	values in ascending order
+	 * @param p			percentile, 0 to 100
+	 * @return nearest-rank percentile of the values
+	 */
+	static double percentile(double[] sorted, double p) {
+		int rank = (int)Math.ceil(p / 100.0 * sorted.length);
+		return sorted[Math.max(0, Math.min(sorted.length - 1, rank - 1))];
+	}
+
+	/**
+	 * Report
+	 */
+
+	private final static String HEADER = " n     t          periods  score   best  sent    in   out    fwd phases  rx (ms)    rx%  tx ms";
+
+	public static void main(String[] args) {
+		long seconds = 3600;
+		int tStep = 125;
+		double[] scales = new double[]{1.0};
+		int threads = Runtime.getRuntime().availableProcessors();
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-t") && i + 1 < args.length)
+				tStep = Integer.parseInt(args[++i]);
+			else if (args[i].equals("-scale") && i + 1 < args.length) {
+				String[] factors = args[++i].split(",");
+				scales = new double[factors.length];
+				for (int j = 0; j < factors.length; j++) {
+					scales[j] = Double.parseDouble(factors[j]);
+				}
+			} else if (args[i].equals("-threads") && i + 1 < args.length)
+				threads = Integer.parseInt(args[++i]);
+			else
+				seconds = Long.parseLong(args[i]);
+		}
+
+		if (tStep <= 0)
+			throw new IllegalArgumentException("Step of t must be positive");
+
+		Result[] results = grid(tStep, scales);
+		long started = System.nanoTime();
+		new Sweep(seconds).run(results, threads);
+		long elapsed = (System.nanoTime() - started) / 1000000L;
+
+		System.out.println(HEADER);
+		for (Result result : results) {
+			System.out.println(result);
+		}
+
+		double[] shares = new double[results.length];
+		double[] forwardShares = new double[results.length];
+		double[] rxShares = new double[results.length];
+		for (int i = 0; i < results.length; i++) {
+			shares[i] = results[i].getShare();
+			forwardShares[i] = results[i].getForwardShare();
+			rxShares[i] = results[i].getRxShare();
+		}
+
+		Arrays.sort(shares);
+		Arrays.sort(forwardShares);
+		Arrays.sort(rxShares);
+
+		System.out.println();
+		System.out.println("Simulated " + results.length + " demos of " + seconds + " s in " + elapsed + " ms on " + threads + " threads");
+		System.out.println(String.format("Share of best score: min %.1f%%, p5 %.1f%%, p25 %.1f%%, median %.1f%%, p75 %.1f%%, max %.1f%%",
+				shares[0], percentile(shares, 5), percentile(shares, 25), percentile(shares, 50), percentile(shares, 75), shares[shares.length - 1]));
+		System.out.println(String.format("Frames forwarded in phase: min %.1f%%, p5 %.1f%%, p25 %.1f%%, median %.1f%%, p75 %.1f%%, max %.1f%%",
+				forwardShares[0], percentile(forwardShares, 5), percentile(forwardShares, 25), percentile(forwardShares, 50), percentile(forwardShares, 75), forwardShares[forwardShares.length - 1]));
+		System.out.println(String.format("Relay rx on: min %.1f%%, median %.1f%%, p95 %.1f%%, max %.1f%%",
+				rxShares[0], percentile(rxShares, 50), percentile(rxShares, 95), rxShares[rxShares.length - 1]));
+
+		Result[] worst = results.clone();
+		Arrays.sort(worst, new Comparator<Result>() {
+			public int compare(Result a, Result b) {
+				return Double.compare(a.getShare(), b.getShare());
+			}
+		});
+
+		System.out.println();
+		System.out.println("Worst configurations:");
+		System.out.println(HEADER);
+		for (int i = 0; i < Math.min(WORST_COUNT, worst.length); i++) {
+			System.out.println(worst[i]);
+		}
+	}
+}
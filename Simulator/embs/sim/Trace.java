@@ -0,0 +1,317 @@
+/**
+ * A trace of the relay, the records written by embs.TraceRecorder,
+ * read from and written to files in the same binary format
+ *
+ * The recorder keeps its records in a small ring on the mote, a Recorder
+ * starts the trace of a simulated relay and moves the records out of the
+ * ring as the simulation runs, so the trace covers the whole run. A mote
+ * with tracing enabled exports its records to the log instead, which
+ * readLog reads back from a capture of the log
+ *
+ */
+
+package embs.sim;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import embs.TraceRecorder;
+
+public class Trace {
+	/**
+	 * Lines of the log the recorder exports to, with a record in hex or the number of records dropped
+	 */
+	private final static String LOG_MARKER = "Trace: ";
+	private final static String LOG_DROPPED = "dropped";
+
+	private final List<Record> records = new ArrayList<Record>();
+	private int droppedCount = 0;
+
+	public List<Record> getRecords() {
+		return records;
+	}
+
+	/**
+	 * @return number of records the mote dropped before they were exported, as read from its log
+	 */
+	public int getDroppedCount() {
+		return droppedCount;
+	}
+
+	/**
+	 * @return true if the trace starts with the start marker and no records were dropped, so it can be replayed
+	 */
+	public boolean isComplete() {
+		return !records.isEmpty() && records.get(0).getType() == TraceRecorder.TYPE_START && droppedCount == 0;
+	}
+
+	/**
+	 * Add the records in an array, in the format of the recorder
+	 * @param data		array holding whole records
+	 * @param offset	offset of the first record
+	 * @param length	length of the records
+	 */
+	public void add(byte[] data, int offset, int length) {
+		int i = offset;
+		while (i + TraceRecorder.HEADER_LENGTH <= offset + length) {
+			Record record = Record.parse(data, i);
+			records.add(record);
+			i += TraceRecorder.HEADER_LENGTH + record.getLength();
+		}
+	}
+
+	public void write(OutputStream out) throws IOException {
+		for (Record record : records) {
+			out.write(record.toBytes());
+		}
+
+		out.flush();
+	}
+
+	public static Trace read(InputStream in) throws IOException {
+		DataInputStream data = new DataInputStream(in);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		byte[] header = new byte[TraceRecorder.HEADER_LENGTH];
+		while (true) {
+			try {
+				data.readFully(header);
+			} catch (EOFException e) {
+				break;
+			}
+
+			byte[] body = new byte[header[1] & 0xFF];
+			data.readFully(body);
+			bytes.write(header);
+			bytes.write(body);
+		}
+
+		Trace trace = new Trace();
+		byte[] all = bytes.toByteArray();
+		trace.add(all, 0, all.length);
+		return trace;
+	}
+
+	/**
+	 * Read the records a mote exported to its log, other lines are skipped
+	 * @param in	capture of the log, with or without the time the simulator prefixes the lines with
+	 */
+	public static Trace readLog(InputStream in) throws IOException {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(in, "US-ASCII"));
+		Trace trace = new Trace();
+		String line;
+		while ((line = reader.readLine()) != null) {
+			int marker = line.indexOf(LOG_MARKER);
+			if (marker < 0)
+				continue;
+
+			String rest = line.substring(marker + LOG_MARKER.length()).trim();
+			if (rest.startsWith(LOG_DROPPED)) {
+				trace.droppedCount += Integer.parseInt(rest.substring(LOG_DROPPED.length()).trim());
+				continue;
+			}
+
+			byte[] bytes = new byte[rest.length() / 2];
+			for (int i = 0; i < bytes.length; i++) {
+				bytes[i] = (byte)Integer.parseInt(rest.substring(2 * i, 2 * i + 2), 16);
+			}
+
+			trace.add(bytes, 0, bytes.length);
+		}
+
+		return trace;
+	}
+
+	/**
+	 * One record of the trace
+	 */
+	public static class Record {
+		private final int type;
+		private final long time;
+		private final int channel;
+		private final int info;
+		private final byte[] data;
+
+		public Record(int type, long time, int channel, int info, byte[] data) {
+			this.type = type;
+			this.time = time;
+			this.channel = channel;
+			this.info = info;
+			this.data = data;
+		}
+
+		static Record parse(byte[] bytes, int offset) {
+			int length = bytes[offset + 1] & 0xFF;
+			long time = 0;
+			for (int i = 7; i >= 0; i--) {
+				time = (time << 8) | (bytes[offset + 2 + i] & 0xFFL);
+			}
+
+			int channel = bytes[offset + 10] & 0xFF;
+			int info = (bytes[offset + 11] & 0xFF) | ((bytes[offset + 12] & 0xFF) << 8);
+			byte[] data = Arrays.copyOfRange(bytes, offset + TraceRecorder.HEADER_LENGTH, offset + TraceRecorder.HEADER_LENGTH + length);
+			return new Record(bytes[offset], time, channel, info, data);
+		}
+
+		byte[] toBytes() {
+			byte[] bytes = new byte[TraceRecorder.HEADER_LENGTH + data.length];
+			bytes[0] = (byte)type;
+			bytes[1] = (byte)data.length;
+			for (int i = 0; i < 8; i++) {
+				bytes[2 + i] = (byte)(time >> (8 * i));
+			}
+
+			bytes[10] = (byte)channel;
+			bytes[11] = (byte)info;
+			bytes[12] = (byte)(info >> 8);
+			System.arraycopy(data, 0, bytes, TraceRecorder.HEADER_LENGTH, data.length);
+			return bytes;
+		}
+
+		public int getType() {
+			return type;
+		}
+
+		public long getTime() {
+			return time;
+		}
+
+		public int getChannel() {
+			return channel;
+		}
+
+		public int getInfo() {
+			return info;
+		}
+
+		public int getLength() {
+			return data.length;
+		}
+
+		public byte[] getData() {
+			return data;
+		}
+
+		public boolean equals(Object other) {
+			if (!(other instanceof Record))
+				return false;
+
+			Record record = (Record)other;
+			return type == record.type && time == record.time && channel == record.channel
+					&& info == record.info && Arrays.equals(data, record.data);
+		}
+
+		public int hashCode() {
+			return Arrays.hashCode(toBytes());
+		}
+
+		public String toString() {
+			StringBuilder builder = new StringBuilder();
+			builder.append('[').append(time / 1000L).append(" ms] ").append(typeName(type));
+			builder.append(" channel ").append(channel).append(" info ").append(info);
+			for (int i = 0; i < data.length; i++) {
+				builder.append(i == 0 ? " data " : " ").append(String.format("%02X", data[i] & 0xFF));
+			}
+
+			return builder.toString();
+		}
+
+		private static String typeName(int type) {
+			switch (type) {
+				case TraceRecorder.TYPE_RX:
+					return "rx";
+				case TraceRecorder.TYPE_RX_END:
+					return "rx-end";
+				case TraceRecorder.TYPE_TX:
+					return "tx";
+				case TraceRecorder.TYPE_TIMER:
+					return "timer";
+				case TraceRecorder.TYPE_CHANNEL:
+					return "channel";
+				case TraceRecorder.TYPE_START:
+					return "start";
+				default:
+					return "type " + type;
+			}
+		}
+	}
+
+	/**
+	 * Moves the records out of the recorder of a simulated relay into a trace
+	 */
+	public static class Recorder {
+		private final Object recorder;
+		private final Method drain;
+		private final Method droppedCount;
+		private final byte[] chunk = new byte[4096];
+		private final Trace trace = new Trace();
+
+		/**
+		 * Start the trace of the relay, right after it has been loaded for the trace to be replayed
+		 * @param relay		node running the relay
+		 */
+		public Recorder(final Node relay) {
+			final Object engine = Rig.getStatic(relay, "engine");
+			relay.getSimulator().invoke(relay, new Runnable() {
+				public void run() {
+					try {
+						engine.getClass().getMethod("startTrace", boolean.class).invoke(engine, Boolean.FALSE);
+					} catch (Exception e) {
+						throw new IllegalStateException("Could not start the trace of " + relay.getProgram().getName(), e);
+					}
+				}
+			});
+
+			try {
+				this.recorder = engine.getClass().getMethod("getTraceRecorder").invoke(engine);
+			} catch (Exception e) {
+				throw new IllegalStateException("Could not get the trace recorder of " + relay.getProgram().getName(), e);
+			}
+
+			try {
+				this.drain = recorder.getClass().getMethod("drain", byte[].class, int.class, int.class);
+				this.droppedCount = recorder.getClass().getMethod("getDroppedCount");
+			} catch (NoSuchMethodException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+
+		/**
+		 * Move every record in the ring to the trace, has to be done before the ring fills up
+		 */
+		public void drain() {
+			try {
+				int copied;
+				while ((copied = ((Integer)drain.invoke(recorder, chunk, 0, chunk.length)).intValue()) > 0) {
+					trace.add(chunk, 0, copied);
+				}
+			} catch (Exception e) {
+				throw new IllegalStateException(e);
+			}
+		}
+
+		/**
+		 * @return number of records the ring dropped, non-zero if the trace is incomplete
+		 */
+		public int getDroppedCount() {
+			try {
+				return ((Integer)droppedCount.invoke(recorder)).intValue();
+			} catch (Exception e) {
+				throw new IllegalStateException(e);
+			}
+		}
+
+		public Trace getTrace() {
+			return trace;
+		}
+	}
+}
@@ -0,0 +1,79 @@
+/**
+ * A frame on air in a shared medium, who sent it, on which channel,
+ * when and with what power
+ *
+ */
+
+package embs.sim;
+
+public class Transmission {
+	private final Node sender;
+	private final byte channel;
+	private final long start;
+	private final long end;
+	private final double power;
+	private final byte[] frame;
+	private final int length;
+
+	/**
+	 * @param sender	node that sent the frame
+	 * @param channel	radio channel
+	 * @param start		global time the frame went on air, in ticks
+	 * @param end		global time the frame ended, in ticks
+	 * @param power		tx power, in dBm
+	 * @param frame		frame contents, shared by all receivers
+	 * @param length	length of the frame
+	 */
+	public Transmission(Node sender, byte channel, long start, long end, double power, byte[] frame, int length) {
+		this.sender = sender;
+		this.channel = channel;
+		this.start = start;
+		this.end = end;
+		this.power = power;
+		this.frame = frame;
+		this.length = length;
+	}
+
+	public Node getSender() {
+		return sender;
+	}
+
+	public byte getChannel() {
+		return channel;
+	}
+
+	public long getStart() {
+		return start;
+	}
+
+	public long getEnd() {
+		return end;
+	}
+
+	public double getPower() {
+		return power;
+	}
+
+	public byte[] getFrame() {
+		return frame;
+	}
+
+	public int getLength() {
+		return length;
+	}
+
+	/**
+	 * @param time	global time, in ticks
+	 * @return true if the frame is on air at the time
+	 */
+	public boolean isOnAir(long time) {
+		return start <= time && time < end;
+	}
+
+	/**
+	 * @return true if the frames are on air at the same time for any part of them
+	 */
+	public boolean overlaps(Transmission other) {
+		return other.start < end && start < other.end;
+	}
+}
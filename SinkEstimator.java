@@ -0,0 +1,327 @@
+/**
+ * Estimates the timing of the sink from the beacons it sends during
+ * its sync phases
+ *
+ * Beacon n of a phase is sent n beacon intervals (t) before the reception
+ * phase starts and phases repeat every (N + 6) * t, where N is the number
+ * of beacons per phase. Every beacon therefore lies on one line through
+ * time, with t as its slope. The estimator keeps the latest beacons, across
+ * phases, and fits that line with least squares, so that a single late or
+ * early beacon does not throw off the estimate. As the fit is done with the
+ * clock of the relay, the estimate also absorbs the skew between the two clocks
+ *
+ * N is taken to be the highest n seen, which is only known to be right
+ * once the beacon before the first one heard would have been heard as
+ * well, that is when the relay had been listening for longer than an
+ * interval before it, or once a second phase has been heard. A relay that
+ * starts part way through a sync phase sees a countdown that starts low
+ *
+ * The interval and beacon count of an earlier run can be restored, the
+ * first beacon then gives the phase and the estimate is trusted until
+ * there are beacons enough to fit a new one
+ *
+ */
+
+package embs;
+
+public class SinkEstimator {
+	/**
+	 * Number of beacons the fit is done over, older beacons are forgotten
+	 */
+	private final static int SAMPLE_COUNT = 16;
+
+	/**
+	 * Intervals in a period besides the beacons, 1 reception + 5 sleep
+	 */
+	private final static int IDLE_INTERVALS = 6;
+
+	/**
+	 * Bounds for the beacon interval, estimates outside of these are not trusted
+	 * and the tolerance the residuals of the fit are compared to for the confidence
+	 */
+	private long minInterval;
+	private long maxInterval;
+	private long tolerance;
+
+	/**
+	 * The beacons, phase index relative to the first phase seen, value of n and time received
+	 */
+	private int[] phases = new int[SAMPLE_COUNT];
+	private int[] beacons = new int[SAMPLE_COUNT];
+	private long[] times = new long[SAMPLE_COUNT];
+	private int samples = 0;
+	private int nextSample = 0;
+
+	private int latestPhase = 0;
+	private int latestN = 0;
+	private int phasesSeen = 0;
+	private int beaconCount = 0;
+
+	/**
+	 * Time the relay started listening before the first beacon, and the time of that beacon
+	 */
+	private boolean listening = false;
+	private long listenStart = 0;
+	private long firstTime = 0;
+
+	/**
+	 * Result of the latest fit
+	 */
+	private boolean trusted = false;
+	private long interval = 0;
+	private long receptionStart = 0;
+	private long residual = 0;
+	private boolean restored = false;
+
+	/**
+	 * @param minInterval	shortest beacon interval the sink uses, in ticks
+	 * @param maxInterval	longest beacon interval the sink uses, in ticks
+	 * @param tolerance		largest timing error that can be tolerated, in ticks
+	 */
+	public SinkEstimator(long minInterval, long maxInterval, long tolerance) {
+		this.minInterval = minInterval;
+		this.maxInterval = maxInterval;
+		this.tolerance = tolerance;
+	}
+
+	/**
+	 * Add a beacon and update the estimate
+	 * @param n		countdown value carried by the beacon
+	 * @param time	time the beacon was received at, in ticks
+	 */
+	public void add(int n, long time) {
+		// Work out which phase the beacon belongs to, once we can predict the phases
+		// this also copes with phases we have not heard at all
+		int phase;
+		if (trusted) {
+			phase = (int)divideRounded(time + n * interval - receptionStart, getPeriod());
+		} else if (samples > 0 && n < latestN) {
+			phase = latestPhase;
+		} else {
+			phase = samples > 0 ? latestPhase + 1 : 0;
+		}
+
+		if (samples == 0 || phase != latestPhase)
+			phasesSeen++;
+
+		if (samples == 0)
+			firstTime = time;
+
+		phases[nextSample] = phase;
+		beacons[nextSample] = n;
+		times[nextSample] = time;
+		nextSample = (nextSample + 1) % SAMPLE_COUNT;
+		if (samples < SAMPLE_COUNT)
+			samples++;
+
+		latestPhase = phase;
+		latestN = n;
+		if (n > beaconCount)
+			beaconCount = n;
+
+		fit();
+	}
+
+	/**
+	 * The relay started listening for beacons, only the latest start before the first beacon counts
+	 * @param time	time the radio is listening from, in ticks
+	 */
+	public void listen(long time) {
+		if (samples > 0)
+			return;
+
+		listening = true;
+		listenStart = time;
+	}
+
+	/**
+	 * Start over from an estimate of an earlier run, trusted once a beacon has given its phase
+	 * @param interval			beacon interval (t), in ticks
+	 * @param beaconCount		beacons per sync phase (N)
+	 */
+	public void restore(long interval, int beaconCount) {
+		reset();
+		this.interval = interval;
+		this.beaconCount = beaconCount;
+		this.restored = interval >= minInterval && interval <= maxInterval;
+	}
+
+	/**
+	 * Forget every beacon, the estimate is made from scratch
+	 */
+	public void reset() {
+		samples = 0;
+		nextSample = 0;
+		latestPhase = 0;
+		latestN = 0;
+		phasesSeen = 0;
+		beaconCount = 0;
+		listening = false;
+		listenStart = 0;
+		firstTime = 0;
+		trusted = false;
+		interval = 0;
+		receptionStart = 0;
+		residual = 0;
+		restored = false;
+	}
+
+	/**
+	 * @param n		countdown value carried by a beacon
+	 * @param time	time the beacon was received at, in ticks
+	 * @return distance of the reception phase the beacon announces from the closest predicted one, in ticks, 0 if not trusted
+	 */
+	public long getError(int n, long time) {
+		if (!trusted)
+			return 0;
+
+		long offset = time + n * interval - receptionStart;
+		long error = offset - divideRounded(offset, getPeriod()) * getPeriod();
+		return error < 0 ? -error : error;
+	}
+
+	/**
+	 * @return true if an estimate of an earlier run within the bounds of the spec was restored
+	 */
+	public boolean isRestored() {
+		return restored;
+	}
+
+	/**
+	 * @return true if the estimate is within the bounds of the spec
+	 */
+	public boolean isTrusted() {
+		return trusted;
+	}
+
+	/**
+	 * @return the estimated beacon interval (t), in ticks
+	 */
+	public long getInterval() {
+		return interval;
+	}
+
+	/**
+	 * @return the number of beacons per sync phase (N), the highest n seen
+	 */
+	public int getBeaconCount() {
+		return beaconCount;
+	}
+
+	/**
+	 * @return true if the beacon count is the one of the sink, as it was restored, a second phase was heard,
+	 * or the relay was listening for longer than an interval before the first beacon of the first phase
+	 */
+	public boolean isBeaconCountKnown() {
+		if (restored || phasesSeen > 1)
+			return true;
+
+		return trusted && listening && firstTime - listenStart > interval + tolerance;
+	}
+
+	/**
+	 * @return the estimated period of the sink, from one sync phase to the next, in ticks
+	 */
+	public long getPeriod() {
+		return interval * (beaconCount + IDLE_INTERVALS);
+	}
+
+	/**
+	 * @return the estimated start of the reception phase that follows the latest beacon, in ticks
+	 */
+	public long getReceptionStart() {
+		return receptionStart + latestPhase * getPeriod();
+	}
+
+	/**
+	 * @return number of sync phases beacons have been received from
+	 */
+	public int getPhasesSeen() {
+		return phasesSeen;
+	}
+
+	/**
+	 * @return largest difference between a beacon and the fitted line, in ticks
+	 */
+	public long getUncertainty() {
+		return residual;
+	}
+
+	/**
+	 * Confidence in the estimate, 0 if the estimate is not trusted or there are not enough
+	 * beacons to judge the fit (any two beacons fit perfectly), otherwise the portion of the
+	 * tolerance that is not used up by the uncertainty
+	 * @return confidence, from 0 to 100
+	 */
+	public int getConfidence() {
+		if (!trusted || samples < 3 || residual >= tolerance)
+			return 0;
+
+		return (int)(100 - (100 * residual) / tolerance);
+	}
+
+	/**
+	 * Least squares fit of time = receptionStart + t * x, where x is the position of
+	 * the beacon in beacon intervals, relative to the reception phase of the first phase
+	 */
+	private void fit() {
+		long base = times[(nextSample + SAMPLE_COUNT - 1) % SAMPLE_COUNT];
+		long sumX = 0;
+		long sumY = 0;
+		long sumXX = 0;
+		long sumXY = 0;
+
+		for (int i = 0; i < samples; i++) {
+			long x = phases[i] * (beaconCount + IDLE_INTERVALS) - beacons[i];
+			long y = times[i] - base;
+			sumX += x;
+			sumY += y;
+			sumXX += x * x;
+			sumXY += x * y;
+		}
+
+		// A restored estimate holds until the beacons can replace it, they only place its reception phase
+		long denominator = samples * sumXX - sumX * sumX;
+		if (denominator == 0) {
+			trusted = restored;
+			if (restored)
+				receptionStart = base + divideRounded(sumY - interval * sumX, samples);
+
+			return;
+		}
+
+		long slope = divideRounded(samples * sumXY - sumX * sumY, denominator);
+		if (slope < minInterval || slope > maxInterval) {
+			trusted = false;
+			return;
+		}
+
+		long intercept = divideRounded(sumY - slope * sumX, samples);
+
+		long worst = 0;
+		for (int i = 0; i < samples; i++) {
+			long x = phases[i] * (beaconCount + IDLE_INTERVALS) - beacons[i];
+			long error = times[i] - base - intercept - slope * x;
+			if (error < 0)
+				error = -error;
+
+			if (error > worst)
+				worst = error;
+		}
+
+		trusted = true;
+		interval = slope;
+		receptionStart = base + intercept;
+		residual = worst;
+	}
+
+	/**
+	 * @return numerator / denominator, rounded to the closest integer, denominator has to be positive
+	 */
+	private static long divideRounded(long numerator, long denominator) {
+		if (numerator >= 0)
+			return (numerator + denominator / 2) / denominator;
+
+		return -((-numerator + denominator / 2) / denominator);
+	}
+}
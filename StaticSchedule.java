@@ -0,0 +1,394 @@
+/**
+ * A schedule compiled ahead of time from the periodic windows of every
+ * channel, as a table of (offset, channel, duration, action) entries
+ *
+ * Where windows collide, the table listens to the highest priority channel
+ * open at the time, or with deadlines first, to the window whose frame is
+ * due first, falling back to priority only for windows whose frames are
+ * too close together to catch both. Either way the collisions are resolved
+ * once when compiling, so walking the table only takes switching to the
+ * channel of each entry. Each entry also holds the channel that comes next
+ * at the time, to fall back to if the window of the entry ends early, so a
+ * new entry starts whenever either of the two changes
+ *
+ * The table covers the hyperperiod of the channels (their periods rounded
+ * to the quantum) if it fits the horizon and the capacity of the table,
+ * otherwise as much of it as fits, the walker compiles the next part from
+ * the latest estimates when it reaches the end
+ *
+ * Compiling also works out, for each channel, how many of the predicted
+ * arrivals in the table are listened for, the capture rate of the schedule,
+ * which does not count the windows that get time back from one ending early
+ *
+ */
+
+package embs;
+import com.ibm.saguaro.system.*;
+import com.ibm.saguaro.logger.*;
+
+public class StaticSchedule {
+	public final static byte ACTION_LISTEN = 0;
+	public final static byte ACTION_TRANSMIT = 1;
+
+	public final static byte CHANNEL_OFF = (byte)-1;
+	private final static int NONE = -1;
+
+	/**
+	 * The table
+	 */
+	private long[] offsets;
+	private long[] durations;
+	private byte[] channels;
+	private byte[] resumes;
+	private byte[] actions;
+	private int count = 0;
+
+	private long start = 0;
+	private long length = 0;
+	private boolean hyperperiod = false;
+
+	/**
+	 * Windows of the channels, sorted by the time they open, used while compiling
+	 */
+	private long[] windowOpens;
+	private long[] windowCloses;
+	private long[] windowDues;
+	private byte[] windowChannels;
+	private int windowCount = 0;
+	private long[] nextOpens;
+
+	/**
+	 * Predicted arrivals in the table and how many of them are listened for, per channel
+	 */
+	private int[] arrivals;
+	private int[] captures;
+
+	private boolean deadlineFirst;
+
+	/**
+	 * @param capacity		number of entries the table holds
+	 * @param channelCount	number of channels
+	 * @param deadlineFirst	true to listen to the window whose frame is due first, false to go by priority
+	 */
+	public StaticSchedule(int capacity, int channelCount, boolean deadlineFirst) {
+		this.deadlineFirst = deadlineFirst;
+		this.offsets = new long[capacity];
+		this.durations = new long[capacity];
+		this.channels = new byte[capacity];
+		this.resumes = new byte[capacity];
+		this.actions = new byte[capacity];
+
+		this.windowOpens = new long[capacity];
+		this.windowCloses = new long[capacity];
+		this.windowDues = new long[capacity];
+		this.windowChannels = new byte[capacity];
+		this.nextOpens = new long[channelCount];
+
+		this.arrivals = new int[channelCount];
+		this.captures = new int[channelCount];
+	}
+
+	/**
+	 * Compile the table
+	 * @param start				time the table starts at
+	 * @param opens				next time the window of each channel opens, at or after start
+	 * @param periods			period of each channel, channels with a period of 0 are left out
+	 * @param windowDurations	how long the window of each channel stays open
+	 * @param arrivalOffsets	when the frame is expected, from the window opening, negative for channels without frames
+	 * @param ranks				priority of each channel, 0 == highest priority
+	 * @param transmitChannel	channel whose windows start a transmission
+	 * @param transmitOffset	when the transmission starts, from the window opening
+	 * @param switchTime		time the radio takes to start listening after a switch
+	 * @param quantum			periods are rounded to this for the hyperperiod
+	 * @param horizon			longest time the table can cover
+	 */
+	public void compile(long start, long[] opens, long[] periods, long[] windowDurations, long[] arrivalOffsets, byte[] ranks,
+			int transmitChannel, long transmitOffset, long switchTime, long quantum, long horizon) {
+		int channelCount = opens.length;
+		this.start = start;
+		this.count = 0;
+
+		// The hyperperiod of the channels, if it is within the horizon
+		long hyper = 1;
+		for (int c = 0; c < channelCount && hyper > 0; c++) {
+			if (periods[c] > 0)
+				hyper = StaticSchedule.lcm(hyper, (periods[c] + quantum / 2) / quantum, horizon / quantum);
+		}
+
+		this.hyperperiod = hyper > 0;
+		long end = start + (hyperperiod ? hyper * quantum : horizon);
+
+		// Generate the windows in the order they open, including those that opened
+		// before the start and are still open, until the end or until they do not fit
+		windowCount = 0;
+		for (int c = 0; c < channelCount; c++) {
+			arrivals[c] = 0;
+			captures[c] = 0;
+
+			long open = opens[c];
+			while (periods[c] > 0 && open - periods[c] + windowDurations[c] > start) {
+				open -= periods[c];
+			}
+
+			nextOpens[c] = open;
+		}
+
+		int channel;
+		while ((channel = StaticSchedule.earliest(nextOpens, periods, channelCount)) != NONE && nextOpens[channel] < end) {
+			if (windowCount == windowOpens.length) {
+				end = nextOpens[channel];
+				break;
+			}
+
+			windowOpens[windowCount] = nextOpens[channel];
+			windowCloses[windowCount] = nextOpens[channel] + windowDurations[channel];
+			if (arrivalOffsets[channel] >= 0)
+				windowDues[windowCount] = nextOpens[channel] + arrivalOffsets[channel];
+			else
+				windowDues[windowCount] = channel == transmitChannel ? nextOpens[channel] + transmitOffset : windowCloses[windowCount];
+
+			windowChannels[windowCount] = (byte)channel;
+			windowCount++;
+
+			nextOpens[channel] += periods[channel];
+		}
+
+		this.length = end - start;
+
+		// Sweep the time line, listening to the open window that comes first
+		int lastListen = NONE;
+		int nextTransmit = 0;
+		long time = start;
+		while (time < end && count < offsets.length) {
+			int best = NONE;
+			int second = NONE;
+			long boundary = end;
+			for (int w = 0; w < windowCount; w++) {
+				if (windowOpens[w] > time) {
+					if (windowOpens[w] < boundary)
+						boundary = windowOpens[w];
+
+					break;
+				}
+
+				if (windowCloses[w] > time) {
+					if (windowCloses[w] < boundary)
+						boundary = windowCloses[w];
+
+					// The order changes once the frame of a window is over
+					if (deadlineFirst && windowDues[w] + switchTime > time && windowDues[w] + switchTime < boundary)
+						boundary = windowDues[w] + switchTime;
+
+					if (best == NONE || precedes(w, best, time, ranks, transmitChannel, switchTime)) {
+						second = best;
+						best = w;
+					} else if (second == NONE || precedes(w, second, time, ranks, transmitChannel, switchTime)) {
+						second = w;
+					}
+				}
+			}
+
+			// Transmissions are entries of their own, they do not change the channel
+			while (nextTransmit < windowCount && (windowChannels[nextTransmit] != transmitChannel || windowOpens[nextTransmit] + transmitOffset < time)) {
+				nextTransmit++;
+			}
+
+			long transmitTime = nextTransmit < windowCount ? windowOpens[nextTransmit] + transmitOffset : end;
+			if (transmitTime < boundary && transmitTime > time)
+				boundary = transmitTime;
+
+			byte listen = best == NONE ? CHANNEL_OFF : windowChannels[best];
+			byte resume = second == NONE ? CHANNEL_OFF : windowChannels[second];
+			if (lastListen == NONE || channels[lastListen] != listen || resumes[lastListen] != resume) {
+				if (lastListen != NONE)
+					durations[lastListen] = time - this.start - offsets[lastListen];
+
+				lastListen = count;
+				add(time, listen, resume, ACTION_LISTEN);
+			}
+
+			if (transmitTime == time && count < offsets.length) {
+				add(time, listen, resume, ACTION_TRANSMIT);
+				nextTransmit++;
+			}
+
+			time = boundary;
+		}
+
+		if (lastListen != NONE)
+			durations[lastListen] = time - this.start - offsets[lastListen];
+
+		if (time < end) {
+			// Ran out of entries, the table ends where it stopped
+			this.length = time - start;
+			this.hyperperiod = false;
+		}
+
+		// Count the arrivals that fall in an entry listening to their channel, with the radio already on
+		for (int w = 0; w < windowCount; w++) {
+			channel = windowChannels[w];
+			long arrival = windowOpens[w] + arrivalOffsets[channel];
+			if (arrivalOffsets[channel] < 0 || arrival < start || arrival >= start + length)
+				continue;
+
+			arrivals[channel]++;
+			for (int i = 0; i < count; i++) {
+				long entryStart = this.start + offsets[i];
+				if (actions[i] == ACTION_LISTEN && channels[i] == channel && entryStart + switchTime <= arrival && entryStart + durations[i] > arrival) {
+					captures[channel]++;
+					break;
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return number of entries in the table
+	 */
+	public int getCount() {
+		return count;
+	}
+
+	/**
+	 * @return time the table starts at
+	 */
+	public long getStart() {
+		return start;
+	}
+
+	/**
+	 * @return time the table covers, from its start
+	 */
+	public long getLength() {
+		return length;
+	}
+
+	/**
+	 * @return true if the table covers a whole hyperperiod
+	 */
+	public boolean isHyperperiod() {
+		return hyperperiod;
+	}
+
+	public long getOffset(int entry) {
+		return offsets[entry];
+	}
+
+	public long getDuration(int entry) {
+		return durations[entry];
+	}
+
+	public byte getChannel(int entry) {
+		return channels[entry];
+	}
+
+	/**
+	 * @return channel to fall back to if the window of the entry ends early, CHANNEL_OFF if there is none
+	 */
+	public byte getResume(int entry) {
+		return resumes[entry];
+	}
+
+	public byte getAction(int entry) {
+		return actions[entry];
+	}
+
+	/**
+	 * @param channel	channel to look at
+	 * @return percentage of the predicted arrivals of the channel the table listens for, 100 if none are predicted
+	 */
+	public int getCaptureRate(int channel) {
+		if (arrivals[channel] == 0)
+			return 100;
+
+		return (100 * captures[channel]) / arrivals[channel];
+	}
+
+	/**
+	 * Write the size of the table and the capture rate of every channel to the log
+	 */
+	public void dump() {
+		Logger.appendString(csr.s2b("Schedule: entries "));
+		Logger.appendInt(count);
+		Logger.appendString(csr.s2b(" ms "));
+		Logger.appendLong(Time.fromTickSpan(Time.MILLISECS, length));
+		Logger.appendString(csr.s2b(hyperperiod ? " hyperperiod" : " horizon"));
+		Logger.appendString(csr.s2b(", capture %"));
+		for (int c = 0; c < arrivals.length; c++) {
+			Logger.appendString(csr.s2b(" "));
+			Logger.appendInt(getCaptureRate(c));
+		}
+
+		Logger.flush(Mote.INFO);
+	}
+
+	private void add(long time, byte channel, byte resume, byte action) {
+		offsets[count] = time - start;
+		durations[count] = 0;
+		channels[count] = channel;
+		resumes[count] = resume;
+		actions[count] = action;
+		count++;
+	}
+
+	/**
+	 * @return true if window a should be listened to rather than window b, both being open at the time
+	 */
+	private boolean precedes(int a, int b, long time, byte[] ranks, int transmitChannel, long switchTime) {
+		if (deadlineFirst) {
+			// A transmission that has started is never interrupted
+			boolean aTransmitting = windowChannels[a] == transmitChannel && windowDues[a] <= time;
+			boolean bTransmitting = windowChannels[b] == transmitChannel && windowDues[b] <= time;
+			if (aTransmitting != bTransmitting)
+				return aTransmitting;
+
+			// Windows still waiting for their frame come before those that are over
+			boolean aPending = windowDues[a] + switchTime > time;
+			boolean bPending = windowDues[b] + switchTime > time;
+			if (aPending != bPending)
+				return aPending;
+
+			// The frame due first, if there is time to switch to the other one after it
+			if (aPending) {
+				long first = windowDues[a] < windowDues[b] ? windowDues[a] : windowDues[b];
+				long last = windowDues[a] < windowDues[b] ? windowDues[b] : windowDues[a];
+				if (first + 2 * switchTime <= last)
+					return windowDues[a] < windowDues[b];
+			}
+		}
+
+		return ranks[windowChannels[a]] < ranks[windowChannels[b]];
+	}
+
+	/**
+	 * @return channel whose next window opens first, NONE if no channel has a period
+	 */
+	private static int earliest(long[] opens, long[] periods, int channelCount) {
+		int earliest = NONE;
+		for (int c = 0; c < channelCount; c++) {
+			if (periods[c] > 0 && (earliest == NONE || opens[c] < opens[earliest]))
+				earliest = c;
+		}
+
+		return earliest;
+	}
+
+	/**
+	 * @return least common multiple of a and b, -1 if it is larger than the limit
+	 */
+	private static long lcm(long a, long b, long limit) {
+		if (b <= 0)
+			return a;
+
+		long x = a;
+		long y = b;
+		while (y != 0) {
+			long r = x % y;
+			x = y;
+			y = r;
+		}
+
+		long result = (a / x) * b;
+		return result > limit || result <= 0 ? -1 : result;
+	}
+}
@@ -0,0 +1,286 @@
+/**
+ * Multiplexes a fixed set of events onto the one timer of a platform, a hashed timer
+ * wheel (calendar queue) of buckets, each holding the events whose alarm
+ * falls into it, in any round of the wheel
+ *
+ * Events are numbered from 0, each event has at most one alarm pending and
+ * setting a new one replaces it. Setting and cancelling an alarm unlinks and
+ * links the event in the doubly linked list of its bucket, so both take
+ * constant time. The timer is armed for the earliest alarm, found by walking
+ * the buckets from the earliest possible one, for as long as one round of
+ * the wheel, alarms further away are found by looking at every event
+ *
+ * When the timer goes off, every event due by then, or within the coalescing
+ * span after it, goes off in the same wake-up, in the order of their alarms.
+ * Events that must not go off early can be made exact, they are never
+ * coalesced and the wake-ups stop short of them.
+ * The callback gets the event as its param and the alarm time of the event,
+ * or the current time if that is later
+ *
+ * Alarms set from within the callback are handled by the same wake-up if
+ * they are due, so an alarm set for now goes off as soon as the callback
+ * returns, as it would with a system timer of its own
+ *
+ */
+
+package embs;
+import com.ibm.saguaro.system.*;
+import com.ibm.saguaro.logger.*;
+
+import embs.RelayPlatform;
+
+public class TimerWheel {
+	private final static int NONE = -1;
+
+	private RelayPlatform platform;
+	private TimerEvent callback;
+	private long coalesce;
+
+	/**
+	 * Alarm of every event and the links of the bucket list it is in
+	 */
+	private long[] alarms;
+	private boolean[] armed;
+	private boolean[] exact;
+	private int[] next;
+	private int[] previous;
+
+	/**
+	 * Buckets, span of a bucket is 2^shift ticks
+	 */
+	private int[] heads;
+	private int[] tails;
+	private int shift;
+	private int mask;
+
+	/**
+	 * No alarm is earlier than the cursor, the search for the earliest starts from it
+	 */
+	private long cursor = 0;
+	private long timerAlarm = 0;
+	private boolean timerArmed = false;
+	private boolean dispatching = false;
+
+	private int wakeupCount = 0;
+	private int firedCount = 0;
+
+	/**
+	 * @param eventCount	number of events
+	 * @param bucketCount	number of buckets, rounded up to a power of two
+	 * @param bucketSpan	time a bucket spans, rounded down to a power of two ticks
+	 * @param coalesce		events due within this span after a wake-up go off with it, in ticks
+	 * @param platform		platform whose timer and clock the wheel runs on, onTimer has to be called when the timer goes off
+	 * @param callback		invoked for every event that goes off, with the event as the param
+	 */
+	public TimerWheel(int eventCount, int bucketCount, long bucketSpan, long coalesce, RelayPlatform platform, TimerEvent callback) {
+		this.platform = platform;
+		this.callback = callback;
+		this.coalesce = coalesce;
+
+		this.alarms = new long[eventCount];
+		this.armed = new boolean[eventCount];
+		this.exact = new boolean[eventCount];
+		this.next = new int[eventCount];
+		this.previous = new int[eventCount];
+
+		int buckets = 1;
+		while (buckets < bucketCount) {
+			buckets <<= 1;
+		}
+
+		this.heads = new int[buckets];
+		this.tails = new int[buckets];
+		this.mask = buckets - 1;
+		for (int i = 0; i < buckets; i++) {
+			heads[i] = NONE;
+			tails[i] = NONE;
+		}
+
+		this.shift = 0;
+		while ((2L << shift) <= bucketSpan) {
+			shift++;
+		}
+	}
+
+	/**
+	 * Set the alarm of an event, replacing a pending one
+	 * @param event		event to set
+	 * @param time		time to go off at, in ticks, times in the past go off as soon as possible
+	 */
+	public void setAlarmTime(int event, long time) {
+		if (armed[event])
+			unlink(event);
+
+		alarms[event] = time;
+		armed[event] = true;
+		if (time < cursor)
+			cursor = time;
+
+		// Append, so alarms at the same time go off in the order they were set
+		int bucket = (int)(time >> shift) & mask;
+		next[event] = NONE;
+		previous[event] = tails[bucket];
+		if (tails[bucket] == NONE)
+			heads[bucket] = event;
+		else
+			next[tails[bucket]] = event;
+
+		tails[bucket] = event;
+
+		if (!dispatching && (!timerArmed || time < timerAlarm))
+			arm(time);
+	}
+
+	/**
+	 * @param event		event to set
+	 * @param span		span from now to go off after, in ticks
+	 */
+	public void setAlarmBySpan(int event, long span) {
+		setAlarmTime(event, platform.currentTicks() + span);
+	}
+
+	/**
+	 * Cancel the pending alarm of an event, if there is one, the timer stays
+	 * armed and finds nothing due if this was the earliest alarm
+	 * @param event		event to cancel
+	 */
+	public void cancelAlarm(int event) {
+		if (armed[event])
+			unlink(event);
+	}
+
+	/**
+	 * @param event		event to set
+	 * @param exact		true if the event must not go off before its alarm
+	 */
+	public void setExact(int event, boolean exact) {
+		this.exact[event] = exact;
+	}
+
+	/**
+	 * @return true if the event has an alarm pending
+	 */
+	public boolean isArmed(int event) {
+		return armed[event];
+	}
+
+	/**
+	 * @return time of the pending alarm of the event
+	 */
+	public long getAlarmTime(int event) {
+		return alarms[event];
+	}
+
+	/**
+	 * @return number of times the timer went off
+	 */
+	public int getWakeupCount() {
+		return wakeupCount;
+	}
+
+	/**
+	 * @return number of alarms that went off
+	 */
+	public int getFiredCount() {
+		return firedCount;
+	}
+
+	/**
+	 * Write the wake-ups and the alarms that went off to the log
+	 */
+	public void dump() {
+		Logger.appendString(csr.s2b("Timers: wake-ups "));
+		Logger.appendInt(wakeupCount);
+		Logger.appendString(csr.s2b(" alarms "));
+		Logger.appendInt(firedCount);
+		Logger.flush(Mote.INFO);
+	}
+
+	/**
+	 * The timer went off, fire every event that is due and arm the timer for the next one
+	 * @param time	time the timer went off at
+	 */
+	public void onTimer(long time) {
+		timerArmed = false;
+		wakeupCount++;
+		dispatching = true;
+
+		int event;
+		while ((event = earliest()) != NONE) {
+			long alarm = alarms[event];
+			long now = platform.currentTicks();
+			if (alarm > (exact[event] ? now : now + coalesce))
+				break;
+
+			unlink(event);
+			cursor = alarm;
+			firedCount++;
+			callback.invoke((byte)event, alarm > now ? alarm : now);
+		}
+
+		dispatching = false;
+		if (event != NONE)
+			arm(alarms[event]);
+	}
+
+	private void arm(long time) {
+		timerAlarm = time;
+		timerArmed = true;
+		platform.setAlarmTime(time);
+	}
+
+	private void unlink(int event) {
+		int bucket = (int)(alarms[event] >> shift) & mask;
+		if (previous[event] == NONE)
+			heads[bucket] = next[event];
+		else
+			next[previous[event]] = next[event];
+
+		if (next[event] == NONE)
+			tails[bucket] = previous[event];
+		else
+			previous[next[event]] = previous[event];
+
+		armed[event] = false;
+	}
+
+	/**
+	 * @return event with the earliest alarm, the first one set among equal alarms, NONE if none is pending
+	 */
+	private int earliest() {
+		// Walk one round of the wheel from the cursor, only alarms in the current round of a bucket count
+		long round = cursor >> shift;
+		for (int i = 0; i <= mask; i++) {
+			long end = (round + i + 1) << shift;
+			int best = NONE;
+			for (int event = heads[(int)(round + i) & mask]; event != NONE; event = next[event]) {
+				if (alarms[event] < end && (best == NONE || alarms[event] < alarms[best]))
+					best = event;
+			}
+
+			if (best != NONE) {
+				cursor = alarms[best];
+				return best;
+			}
+		}
+
+		// Nothing within a round, look at every event
+		int best = NONE;
+		for (int event = 0; event < alarms.length; event++) {
+			if (armed[event] && (best == NONE || alarms[event] < alarms[best]))
+				best = event;
+		}
+
+		if (best == NONE)
+			return NONE;
+
+		// Among equal alarms the first one set comes first in their bucket
+		cursor = alarms[best];
+		int event = heads[(int)(cursor >> shift) & mask];
+		while (alarms[event] != cursor) {
+			event = next[event];
+		}
+
+		return event;
+	}
+}
@@ -0,0 +1,190 @@
+/**
+ * The learnt timing of the relay in non-volatile memory, for a warm
+ * restart, the timing that does not depend on the clock: the period and
+ * jitter of every source, the beacon interval (t) and count (N) of the
+ * sink and the tx power
+ *
+ * A copy is kept in RAM as well, so a save is skipped while the timing
+ * stays within the tolerance of the saved copy, to spare the flash. The
+ * clock of the mote starts over on a power cycle, so no times are saved
+ * and a valid copy is restored whatever the clock
+ *
+ * The copy starts at address 0, all values little endian, times in ticks
+ *     0	magic, 2 bytes
+ *     2	version
+ *     3	number of channels
+ *     4	beacon interval of the sink, 8 bytes
+ *     12	beacon count of the sink
+ *     13	1 if the tx power is known
+ *     14	tx power level
+ *     15	tx power adjustment
+ *     16	every channel, its period and its jitter, -1 if unknown, 8 bytes each, 0 for the sink
+ *     ...	Fletcher-16 checksum of everything before it, 2 bytes
+ *
+ */
+
+package embs;
+import com.ibm.saguaro.system.*;
+
+import embs.PeriodEstimator;
+import embs.PowerController;
+import embs.RelayPlatform;
+import embs.SinkEstimator;
+
+public class TimingStore {
+	private final static int MAGIC = 0x5254;
+	private final static int VERSION = 2;
+	private final static int HEADER_LENGTH = 16;
+	private final static int CHANNEL_LENGTH = 16;
+
+	private RelayPlatform platform;
+	private byte[] data;
+	private int length;
+	private int channelCount;
+	private int sinkChannel;
+	private long minPeriod;
+	private long tolerance;
+
+	/**
+	 * Copy in RAM holds the copy in non-volatile memory
+	 */
+	private boolean saved = false;
+
+	/**
+	 * @param platform		platform whose non-volatile memory holds the copy
+	 * @param channelCount	number of channels
+	 * @param sinkChannel	channel of the sink, the others are sources
+	 * @param minPeriod		shortest period of a source, a copy with a shorter one is not restored
+	 * @param tolerance		how far the times can move from the saved copy before it is saved again, in ticks
+	 */
+	public TimingStore(RelayPlatform platform, int channelCount, int sinkChannel, long minPeriod, long tolerance) {
+		this.platform = platform;
+		this.channelCount = channelCount;
+		this.sinkChannel = sinkChannel;
+		this.minPeriod = minPeriod;
+		this.tolerance = tolerance;
+		this.length = HEADER_LENGTH + channelCount * CHANNEL_LENGTH + 2;
+		this.data = new byte[length];
+	}
+
+	/**
+	 * Write the timing of every channel and the tx power to non-volatile memory
+	 * @param sink		estimator of the sink
+	 * @param power		tx power of the transmissions to the sink
+	 * @param sources	estimators of every channel, the one of the sink is not saved
+	 */
+	public void save(SinkEstimator sink, PowerController power, PeriodEstimator[] sources) {
+		Util.set16le(data, 0, MAGIC);
+		data[2] = (byte)VERSION;
+		data[3] = (byte)channelCount;
+		setLong(4, sink.getInterval());
+		data[12] = (byte)sink.getBeaconCount();
+		data[13] = (byte)(power.isKnown() ? 1 : 0);
+		data[14] = (byte)power.getLevel();
+		data[15] = (byte)power.getAdjustment();
+
+		for (int i = 0; i < channelCount; i++) {
+			int offset = HEADER_LENGTH + i * CHANNEL_LENGTH;
+			setLong(offset, i == sinkChannel ? 0L : sources[i].getPeriod());
+			setLong(offset + 8, i != sinkChannel && sources[i].hasJitter() ? sources[i].getJitter() : -1L);
+		}
+
+		Util.set16le(data, length - 2, getChecksum(length - 2));
+		platform.writeMemory(0, data, 0, length);
+		saved = true;
+	}
+
+	/**
+	 * @return true if nothing has been saved yet or the timing or tx power moved away from the saved copy
+	 */
+	public boolean isChanged(SinkEstimator sink, PowerController power, PeriodEstimator[] sources) {
+		if (!saved)
+			return true;
+
+		if (isDifferent(getLong(4), sink.getInterval()) || data[12] != (byte)sink.getBeaconCount()
+				|| data[13] != (byte)(power.isKnown() ? 1 : 0) || data[14] != (byte)power.getLevel()
+				|| data[15] != (byte)power.getAdjustment())
+			return true;
+
+		for (int i = 0; i < channelCount; i++) {
+			if (i == sinkChannel)
+				continue;
+
+			int offset = HEADER_LENGTH + i * CHANNEL_LENGTH;
+			if (isDifferent(getLong(offset), sources[i].getPeriod())
+					|| isDifferent(getLong(offset + 8), sources[i].hasJitter() ? sources[i].getJitter() : -1L))
+				return true;
+		}
+
+		return false;
+	}
+
+	/**
+	 * Read the copy of an earlier run back into the estimators and the tx power, nothing is restored
+	 * unless the copy is valid, for this number of channels, and the sink takes its t
+	 * @return true if the timing was restored
+	 */
+	public boolean restore(SinkEstimator sink, PowerController power, PeriodEstimator[] sources) {
+		if (platform.readMemory(0, data, 0, length) < length)
+			return false;
+
+		if (Util.get16le(data, 0) != MAGIC || data[2] != VERSION || data[3] != channelCount
+				|| Util.get16le(data, length - 2) != getChecksum(length - 2))
+			return false;
+
+		for (int i = 0; i < channelCount; i++) {
+			if (i != sinkChannel && getLong(HEADER_LENGTH + i * CHANNEL_LENGTH) < minPeriod)
+				return false;
+		}
+
+		sink.restore(getLong(4), data[12]);
+		if (!sink.isRestored())
+			return false;
+
+		saved = true;
+		if (data[13] != 0)
+			power.restore(data[14] & 0xFF, data[15]);
+
+		for (int i = 0; i < channelCount; i++) {
+			if (i == sinkChannel)
+				continue;
+
+			int offset = HEADER_LENGTH + i * CHANNEL_LENGTH;
+			sources[i].restore(getLong(offset), getLong(offset + 8));
+		}
+
+		return true;
+	}
+
+	/**
+	 * @return true if the saved and the current time are further apart than the tolerance,
+	 * or only one of them is known (not negative)
+	 */
+	private boolean isDifferent(long saved, long current) {
+		return (saved < 0) != (current < 0) || saved - current > tolerance || current - saved > tolerance;
+	}
+
+	/**
+	 * Fletcher-16 over the start of the copy
+	 * @return checksum
+	 */
+	private int getChecksum(int length) {
+		int sum1 = 0;
+		int sum2 = 0;
+		for (int i = 0; i < length; i++) {
+			sum1 = (sum1 + (data[i] & 0xFF)) % 255;
+			sum2 = (sum2 + sum1) % 255;
+		}
+
+		return (sum2 << 8) | sum1;
+	}
+
+	private void setLong(int offset, long value) {
+		Util.set32le(data, offset, (int)value);
+		Util.set32le(data, offset + 4, (int)(value >>> 32));
+	}
+
+	private long getLong(int offset) {
+		return (Util.get32le(data, offset) & 0xFFFFFFFFL) | ((long)Util.get32le(data, offset + 4) << 32);
+	}
+}
@@ -0,0 +1,168 @@
+/**
+ * Records what happens to the relay, frames received and sent, timers
+ * firing and channel switches, as compact binary records in a ring buffer
+ * that is allocated up front
+ *
+ * Every record has a 13 byte header, all values little endian
+ *     0	type
+ *     1	length of the data that follows the header
+ *     2	time, 8 bytes, in ticks
+ *     10	radio channel, or the param for timers, 0xFF if there is none
+ *     11	info, 2 bytes, the info of the radio callback (RSSI) or the id of the timer
+ *     13	data
+ *
+ * A trace starts with a start marker, written as tracing starts once the
+ * relay has been loaded, a replay starts the relay from there. When the ring
+ * is full the oldest records are dropped, so the ring always holds the latest
+ * records, which can be read out with drain, or written to the log with
+ * export, one record per line in hex, after a line with the number of
+ * records dropped since the previous export if there were any
+ *
+ */
+
+package embs;
+import com.ibm.saguaro.system.*;
+import com.ibm.saguaro.logger.*;
+
+public class TraceRecorder {
+	/**
+	 * Record types
+	 */
+	public final static byte TYPE_RX = 1;			// Frame received
+	public final static byte TYPE_RX_END = 2;		// Reception period ended, no data
+	public final static byte TYPE_TX = 3;			// Frame sent
+	public final static byte TYPE_TIMER = 4;		// Timer fired
+	public final static byte TYPE_CHANNEL = 5;		// Radio switched channel, or off
+	public final static byte TYPE_START = 6;		// Tracing started, the radio channel at the time
+
+	public final static int HEADER_LENGTH = 13;
+	public final static int NO_CHANNEL = 0xFF;
+
+	private byte[] buffer;
+	private int mask;
+
+	/**
+	 * Free running cursors, records are read from start and written at end
+	 */
+	private int start = 0;
+	private int end = 0;
+	private int droppedCount = 0;
+	private int exportedDroppedCount = 0;
+
+	/**
+	 * @param size	size of the ring, in bytes, rounded up to a power of two
+	 */
+	public TraceRecorder(int size) {
+		int capacity = 1;
+		while (capacity < size) {
+			capacity <<= 1;
+		}
+
+		this.buffer = new byte[capacity];
+		this.mask = capacity - 1;
+	}
+
+	/**
+	 * Add a record, dropping the oldest records to make room
+	 * @param type		record type
+	 * @param time		time of the event, in ticks
+	 * @param channel	radio channel or timer param, NO_CHANNEL if there is none
+	 * @param info		info of the radio callback or the id of the timer
+	 * @param data		data of the record, can be null if length is 0
+	 * @param offset	offset of the data
+	 * @param length	length of the data, truncated to 255 bytes
+	 */
+	public void record(byte type, long time, int channel, int info, byte[] data, int offset, int length) {
+		if (length > 0xFF)
+			length = 0xFF;
+
+		int size = HEADER_LENGTH + length;
+		if (size > buffer.length)
+			return;
+
+		while (buffer.length - (end - start) < size) {
+			start += HEADER_LENGTH + (buffer[(start + 1) & mask] & 0xFF);
+			droppedCount++;
+		}
+
+		put(type);
+		put((byte)length);
+		for (int i = 0; i < 8; i++) {
+			put((byte)(time >> (8 * i)));
+		}
+
+		put((byte)channel);
+		put((byte)info);
+		put((byte)(info >> 8));
+		for (int i = 0; i < length; i++) {
+			put(data[offset + i]);
+		}
+	}
+
+	/**
+	 * Move whole records out of the ring, oldest first
+	 * @param out		array to copy the records to
+	 * @param offset	offset in out
+	 * @param max		most bytes to copy
+	 * @return number of bytes copied
+	 */
+	public int drain(byte[] out, int offset, int max) {
+		int copied = 0;
+		while (start != end) {
+			int size = HEADER_LENGTH + (buffer[(start + 1) & mask] & 0xFF);
+			if (copied + size > max)
+				break;
+
+			for (int i = 0; i < size; i++) {
+				out[offset + copied + i] = buffer[(start + i) & mask];
+			}
+
+			start += size;
+			copied += size;
+		}
+
+		return copied;
+	}
+
+	/**
+	 * Move every record out of the ring to the log, oldest first
+	 */
+	public void export() {
+		if (droppedCount != exportedDroppedCount) {
+			Logger.appendString(csr.s2b("Trace: dropped "));
+			Logger.appendInt(droppedCount - exportedDroppedCount);
+			Logger.flush(Mote.WARN);
+			exportedDroppedCount = droppedCount;
+		}
+
+		while (start != end) {
+			int size = HEADER_LENGTH + (buffer[(start + 1) & mask] & 0xFF);
+			Logger.appendString(csr.s2b("Trace: "));
+			for (int i = 0; i < size; i++) {
+				Logger.appendHexByte(buffer[(start + i) & mask]);
+			}
+
+			Logger.flush(Mote.INFO);
+			start += size;
+		}
+	}
+
+	/**
+	 * @return number of bytes of records in the ring
+	 */
+	public int count() {
+		return end - start;
+	}
+
+	/**
+	 * @return number of records dropped as the ring was full
+	 */
+	public int getDroppedCount() {
+		return droppedCount;
+	}
+
+	private void put(byte value) {
+		buffer[end & mask] = value;
+		end++;
+	}
+}
@@ -0,0 +1,100 @@
+/**
+ * The trace hooks of the relay, every radio callback, timer and channel
+ * switch is recorded in a TraceRecorder once tracing has started, until
+ * then a hook costs a single check and the ring is not even allocated
+ *
+ * An exported trace is written to the log whenever the ring is more than
+ * the export level full, so few records are dropped, and with the
+ * metrics. Otherwise the ring is left for the host to drain
+ *
+ * Timers are told apart by their id in the info of their records
+ *
+ */
+
+package embs;
+
+import embs.TraceRecorder;
+
+public class Tracer {
+	/**
+	 * Timer ids
+	 */
+	public final static int TIMER_POP = 0;
+	public final static int TIMER_TRANSMISSION = 1;
+	public final static int TIMER_CHANNEL = 2;
+	public final static int TIMER_METRICS = 3;
+	public final static int TIMER_SCHEDULE = 4;
+	public final static int TIMER_STORE = 5;
+
+	private int size;
+	private int exportLevel;
+	private TraceRecorder recorder = null;
+	private boolean exported = false;
+
+	/**
+	 * @param size			size of the ring, in bytes
+	 * @param exportLevel	bytes in the ring above which an exported trace is written to the log
+	 */
+	public Tracer(int size, int exportLevel) {
+		this.size = size;
+		this.exportLevel = exportLevel;
+	}
+
+	/**
+	 * Start the trace, with a start marker, unless it has been started already
+	 * @param time		time tracing starts at
+	 * @param channel	radio channel at the time, TraceRecorder.NO_CHANNEL if the radio is off
+	 * @param export	true to write the records to the log, false if they are drained from the recorder
+	 */
+	public void start(long time, int channel, boolean export) {
+		if (recorder == null) {
+			recorder = new TraceRecorder(size);
+			recorder.record(TraceRecorder.TYPE_START, time, channel, 0, null, 0, 0);
+		}
+
+		exported = export;
+	}
+
+	/**
+	 * @return recorder of the trace, null if tracing has not been started
+	 */
+	public TraceRecorder getRecorder() {
+		return recorder;
+	}
+
+	/**
+	 * Add a record to the trace, if tracing has been started, exporting the ring before it fills up
+	 * @param type		record type, one of the TraceRecorder types
+	 * @param time		time of the event
+	 * @param channel	radio channel or timer param
+	 * @param info		info of the radio callback or id of the timer
+	 * @param data		data of the record, null if there is none
+	 * @param length	length of the data
+	 */
+	public void record(byte type, long time, int channel, int info, byte[] data, int length) {
+		if (recorder == null)
+			return;
+
+		recorder.record(type, time, channel, info, data, 0, length);
+		if (exported && recorder.count() > exportLevel)
+			recorder.export();
+	}
+
+	/**
+	 * Add the record of a timer that went off
+	 * @param time		time the timer went off at
+	 * @param param		param of the timer
+	 * @param timer		id of the timer
+	 */
+	public void timer(long time, byte param, int timer) {
+		record(TraceRecorder.TYPE_TIMER, time, param, timer, null, 0);
+	}
+
+	/**
+	 * Write the ring to the log, if the trace is exported
+	 */
+	public void export() {
+		if (exported)
+			recorder.export();
+	}
+}
@@ -0,0 +1,39 @@
+/**
+ * Gives the benchmarks, outside the package of the relay, the hooks of
+ * RelayEngine and MotePlatform, which are package-private so they are
+ * not part of what the relay offers on a mote
+ *
+ */
+
+package embs;
+
+import com.ibm.saguaro.system.Radio;
+
+public final class RelayHooks {
+	private RelayHooks() {
+	}
+
+	public static Radio getRadio(MotePlatform platform) {
+		return platform.getRadio();
+	}
+
+	public static SequenceTracker getSequenceTracker(RelayEngine engine) {
+		return engine.getSequenceTracker();
+	}
+
+	public static void overrideChannel(RelayEngine engine, byte channel) {
+		engine.overrideChannel(channel);
+	}
+
+	public static void overrideSinkInterval(RelayEngine engine, long interval) {
+		engine.overrideSinkInterval(interval);
+	}
+
+	public static void cancelAlarms(RelayEngine engine) {
+		engine.cancelAlarms();
+	}
+
+	public static void fireTransmission(RelayEngine engine, long time) {
+		engine.fireTransmission(time);
+	}
+}
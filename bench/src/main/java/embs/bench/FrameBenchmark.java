@@ -0,0 +1,54 @@
+/**
+ * Benchmarks for copying a payload, into a recycled frame
+ * and into a newly created one
+ *
+ */
+
+package embs.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ibm.saguaro.system.Util;
+
+import embs.Frame;
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FrameBenchmark {
+	private Frame frame;
+	private byte[] data;
+
+	@Setup
+	public void setup() {
+		frame = new Frame(Frames.PAYLOAD_LENGTH);
+		data = Frames.source(0x12, 0x12);
+	}
+
+	@Benchmark
+	public Frame copyPayload() {
+		frame.copyPayload(data, Frames.HEADER_LENGTH, Frames.PAYLOAD_LENGTH);
+		return frame;
+	}
+
+	@Benchmark
+	public Frame newFrame() {
+		byte[] payload = new byte[Frames.PAYLOAD_LENGTH];
+		Util.copyData(data, Frames.HEADER_LENGTH, payload, 0, Frames.PAYLOAD_LENGTH);
+		return new Frame(0x12, 0x12, payload, Frames.PAYLOAD_LENGTH, 0L);
+	}
+}
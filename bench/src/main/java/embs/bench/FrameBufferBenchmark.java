@@ -0,0 +1,128 @@
+/**
+ * Benchmarks for the frame buffers, pushing a received frame and
+ * pulling it again, as the relay does for every frame it forwards,
+ * and pushing into a full buffer, which drops or evicts,
+ * and the ring shared by a producer and a consumer thread
+ *
+ */
+
+package embs.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import embs.Frame;
+import embs.FrameBuffer;
+import embs.PriorityFrameBuffer;
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FrameBufferBenchmark {
+	private final static int BUFFER_SIZE = 4;
+	private final static int QUEUE_COUNT = 4;
+
+	/**
+	 * Buffers that start out empty, each benchmark leaves them empty again
+	 */
+	@State(Scope.Thread)
+	public static class Empty {
+		FrameBuffer frameBuffer;
+		PriorityFrameBuffer priorityFrameBuffer;
+		byte[] data;
+
+		@Setup
+		public void setup() {
+			frameBuffer = new FrameBuffer(BUFFER_SIZE, Frames.PAYLOAD_LENGTH);
+			priorityFrameBuffer = new PriorityFrameBuffer(BUFFER_SIZE, Frames.PAYLOAD_LENGTH, QUEUE_COUNT);
+			data = Frames.source(0x12, 0x12);
+		}
+	}
+
+	/**
+	 * Buffers that are full, every push drops or evicts a frame
+	 */
+	@State(Scope.Thread)
+	public static class Full {
+		FrameBuffer frameBuffer;
+		PriorityFrameBuffer priorityFrameBuffer;
+		byte[] data;
+
+		@Setup
+		public void setup() {
+			frameBuffer = new FrameBuffer(BUFFER_SIZE, Frames.PAYLOAD_LENGTH);
+			priorityFrameBuffer = new PriorityFrameBuffer(BUFFER_SIZE, Frames.PAYLOAD_LENGTH, QUEUE_COUNT);
+			data = Frames.source(0x12, 0x12);
+
+			for (int i = 0; i < BUFFER_SIZE; i++) {
+				frameBuffer.push(0x12, 0x12, data, Frames.HEADER_LENGTH, Frames.PAYLOAD_LENGTH, i);
+				priorityFrameBuffer.push(QUEUE_COUNT - 1, 0x12, 0x12, data, Frames.HEADER_LENGTH, Frames.PAYLOAD_LENGTH, i);
+			}
+		}
+	}
+
+	@Benchmark
+	public Frame frameBufferPushPull(Empty state) {
+		state.frameBuffer.push(0x12, 0x12, state.data, Frames.HEADER_LENGTH, Frames.PAYLOAD_LENGTH, 0L);
+		return state.frameBuffer.pull();
+	}
+
+	@Benchmark
+	public int frameBufferOverflow(Full state) {
+		return state.frameBuffer.push(0x12, 0x12, state.data, Frames.HEADER_LENGTH, Frames.PAYLOAD_LENGTH, 0L);
+	}
+
+	@Benchmark
+	public Frame priorityFrameBufferPushPull(Empty state) {
+		state.priorityFrameBuffer.push(1, 0x12, 0x12, state.data, Frames.HEADER_LENGTH, Frames.PAYLOAD_LENGTH, 0L);
+		return state.priorityFrameBuffer.pull();
+	}
+
+	@Benchmark
+	public int priorityFrameBufferEvict(Full state) {
+		return state.priorityFrameBuffer.push(QUEUE_COUNT - 1, 0x12, 0x12, state.data, Frames.HEADER_LENGTH, Frames.PAYLOAD_LENGTH, 0L);
+	}
+
+	/**
+	 * A ring shared by a producer and a consumer thread, FrameBufferTest checks what they see
+	 */
+	@State(Scope.Group)
+	public static class Shared {
+		FrameBuffer frameBuffer;
+		byte[] data;
+
+		@Setup
+		public void setup() {
+			frameBuffer = new FrameBuffer(BUFFER_SIZE, Frames.PAYLOAD_LENGTH);
+			data = Frames.source(0x12, 0x12);
+		}
+	}
+
+	@Benchmark
+	@Group("frameBufferThreads")
+	@GroupThreads(1)
+	public int frameBufferProducer(Shared state) {
+		return state.frameBuffer.push(0x12, 0x12, state.data, Frames.HEADER_LENGTH, Frames.PAYLOAD_LENGTH, 0L);
+	}
+
+	@Benchmark
+	@Group("frameBufferThreads")
+	@GroupThreads(1)
+	public Frame frameBufferConsumer(Shared state) {
+		return state.frameBuffer.pull();
+	}
+}
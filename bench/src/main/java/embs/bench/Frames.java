@@ -0,0 +1,50 @@
+/**
+ * Frames as the sources of the Assessment Rig send them, for the benchmarks
+ *
+ */
+
+package embs.bench;
+
+import com.ibm.saguaro.system.Radio;
+import com.ibm.saguaro.system.Util;
+
+final class Frames {
+	/**
+	 * Frame control, sequence number and short addressing, followed by the payload
+	 */
+	final static int HEADER_LENGTH = 11;
+	final static int PAYLOAD_LENGTH = 4;
+	final static int LENGTH = HEADER_LENGTH + PAYLOAD_LENGTH;
+
+	private Frames() {
+	}
+
+	/**
+	 * @param panID		PAN ID of the source
+	 * @param address	short address of the source
+	 * @return a source frame, addressed to the broadcast address of its PAN
+	 */
+	static byte[] source(int panID, int address) {
+		byte[] frame = new byte[LENGTH];
+		frame[0] = Radio.FCF_BEACON;
+		frame[1] = Radio.FCA_SRC_SADDR|Radio.FCA_DST_SADDR;
+		Util.set16le(frame, 3, panID);
+		Util.set16le(frame, 5, Radio.SADDR_BROADCAST);
+		Util.set16le(frame, 7, panID);
+		Util.set16le(frame, 9, address);
+		for (int i = 0; i < PAYLOAD_LENGTH; i++) {
+			frame[HEADER_LENGTH + i] = (byte)(address + i);
+		}
+
+		return frame;
+	}
+
+	/**
+	 * Move a source frame on to its next sequence number, the last byte of the payload,
+	 * as the sources do with every frame, so the relay does not drop it as a duplicate
+	 * @param frame		source frame
+	 */
+	static void next(byte[] frame) {
+		frame[LENGTH - 1]++;
+	}
+}
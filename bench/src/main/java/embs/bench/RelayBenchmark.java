@@ -0,0 +1,119 @@
+/**
+ * Benchmarks for the per-frame work of the relay, a source frame handed
+ * to the rx handler (onSourceReceive) and forwarded to the sink by the
+ * transmission alarm of the timer wheel and the tx handler (transmitFromBuffer)
+ *
+ * A fresh RelayEngine runs on a MotePlatform over the stubbed radio, timer
+ * and clock, the clock moves one source period per frame and the frame moves
+ * on to the next sequence number, so the relay sees a punctual source. To
+ * forward, the relay is moved to the sink channel for the transmission alarm,
+ * as the sink window would, and back to the source after. The relay is
+ * driven through the hooks of RelayHooks, so a rename breaks the build
+ *
+ */
+
+package embs.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ibm.saguaro.system.Radio;
+import com.ibm.saguaro.system.Time;
+
+import embs.MotePlatform;
+import embs.RelayEngine;
+import embs.RelayHooks;
+import embs.SequenceTracker;
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RelayBenchmark {
+	private final static long SOURCE_PERIOD = Time.toTickSpan(Time.MILLISECS, 1000L);
+	private final static long SINK_INTERVAL = Time.toTickSpan(Time.MILLISECS, 750L);
+	private final static int RSSI = 0xC0;
+
+	/**
+	 * Row of the channel table the frames arrive on, the first source
+	 */
+	private final static byte SOURCE_CHANNEL = 1;
+	private final static byte SINK_CHANNEL = 0;
+
+	private RelayEngine engine;
+	private SequenceTracker sequenceTracker;
+	private Radio radio;
+	private byte[] frame;
+	private long time;
+
+	@Setup
+	public void setup() {
+		Time.setTicks(0L);
+
+		// The engine sets up the radio and the timers of its platform
+		MotePlatform platform = new MotePlatform();
+		engine = new RelayEngine(platform);
+		radio = RelayHooks.getRadio(platform);
+		sequenceTracker = RelayHooks.getSequenceTracker(engine);
+
+		// Skip discovery and listen to the source, the reception phase of the sink lasts a beacon interval
+		RelayHooks.overrideChannel(engine, SOURCE_CHANNEL);
+		RelayHooks.overrideSinkInterval(engine, SINK_INTERVAL);
+
+		frame = Frames.source(0x12, 0x12);
+		time = 0L;
+	}
+
+	/**
+	 * Every frame has to make it into the buffer, a duplicate only measures dropping it
+	 */
+	@TearDown(Level.Iteration)
+	public void check() {
+		if (sequenceTracker.getDuplicates(0x12) > 0)
+			throw new IllegalStateException("The relay dropped frames as duplicates");
+	}
+
+	@Benchmark
+	public void receive() {
+		time += SOURCE_PERIOD;
+		Time.setTicks(time);
+		Frames.next(frame);
+		radio.receive(frame, Frames.LENGTH, RSSI);
+	}
+
+	@Benchmark
+	public int receiveAndForward() {
+		time += SOURCE_PERIOD;
+		Time.setTicks(time);
+		Frames.next(frame);
+		radio.receive(frame, Frames.LENGTH, RSSI);
+
+		// Only the transmission goes off, the alarms the relay set are dropped as the stubbed timers used to drop them
+		RelayHooks.cancelAlarms(engine);
+
+		// The transmission alarm only sends on the sink channel
+		RelayHooks.overrideChannel(engine, SINK_CHANNEL);
+		int txFrames = radio.getTxFrames();
+		RelayHooks.fireTransmission(engine, time);
+		if (radio.getTxFrames() == txFrames)
+			throw new IllegalStateException("The relay did not forward the frame");
+
+		radio.transmitted();
+		RelayHooks.overrideChannel(engine, SOURCE_CHANNEL);
+		return radio.getTxLength();
+	}
+}
@@ -0,0 +1,54 @@
+/**
+ * Benchmarks for the session stack, a pre-empting session pushed on
+ * top of the stack, peeked at and popped again, the stack reuses its
+ * sessions as the relay pushes them
+ *
+ */
+
+package embs.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import embs.Session;
+import embs.SessionStack;
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SessionStackBenchmark {
+	/**
+	 * Depth of the stack once the relay has discovered everything, the CHANNEL_OFF session and the sink
+	 */
+	private final static int DEPTH = 2;
+
+	private SessionStack sessionStack;
+
+	@Setup
+	public void setup() {
+		sessionStack = new SessionStack(DEPTH + 5);
+		for (int i = 0; i < DEPTH; i++) {
+			sessionStack.push((byte)(i - 1), -1L, 0L);
+		}
+	}
+
+	@Benchmark
+	public Session pushPeekPop() {
+		sessionStack.push((byte)1, 1000L, 0L);
+		sessionStack.peek();
+		return sessionStack.pop();
+	}
+}
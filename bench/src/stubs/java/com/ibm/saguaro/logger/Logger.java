@@ -0,0 +1,29 @@
+/**
+ * Benchmark stub for the Mote Runner logger, discards everything
+ *
+ */
+
+package com.ibm.saguaro.logger;
+
+public class Logger {
+	public static void appendString(byte[] s) {
+	}
+
+	public static void appendByte(byte b) {
+	}
+
+	public static void appendInt(int i) {
+	}
+
+	public static void appendLong(long l) {
+	}
+
+	public static void appendHexByte(byte b) {
+	}
+
+	public static void appendHexInt(int i) {
+	}
+
+	public static void flush(int level) {
+	}
+}
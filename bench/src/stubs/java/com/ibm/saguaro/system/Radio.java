@@ -0,0 +1,100 @@
+/**
+ * Benchmark stub for the Mote Runner IEEE 802.15.4 radio, nothing
+ * goes on air, the benchmark hands frames to the handlers directly
+ *
+ */
+
+package com.ibm.saguaro.system;
+
+public class Radio extends Device {
+	public final static int DID = 0x01;
+
+	public final static byte FCF_BEACON = 0x00;
+	public final static byte FCF_DATA = 0x01;
+	public final static byte FCA_DST_SADDR = 0x08;
+	public final static byte FCA_SRC_SADDR = (byte)0x80;
+
+	public final static int SADDR_BROADCAST = 0xFFFF;
+	public final static int PAN_BROADCAST = 0xFFFF;
+
+	public final static int TXMODE_CCA = 0x0010;
+	public final static int TXMODE_POWER_MASK = 0xFC00;
+	public final static int TXMODE_POWER_MAX = 0xFC00;
+
+	private byte channel = 0;
+	private DevCallback rxHandler;
+	private DevCallback txHandler;
+
+	/**
+	 * The latest transmission, the data is not copied
+	 */
+	private byte[] txData;
+	private int txLength;
+	private int txFrames;
+
+	public void open(int did, Object owner, int mode, int flags) {
+	}
+
+	public void close() {
+	}
+
+	public void setChannel(byte channel) {
+		this.channel = channel;
+	}
+
+	public byte getChannel() {
+		return channel;
+	}
+
+	public void setPanId(int panId, boolean coordinator) {
+	}
+
+	public void setShortAddr(int addr) {
+	}
+
+	public void setRxHandler(DevCallback handler) {
+		this.rxHandler = handler;
+	}
+
+	public void setTxHandler(DevCallback handler) {
+		this.txHandler = handler;
+	}
+
+	public void startRx(int mode, long start, long end) {
+	}
+
+	public void stopRx() {
+	}
+
+	public void transmit(int mode, byte[] data, int offset, int length, long time) {
+		txData = data;
+		txLength = length;
+		txFrames++;
+	}
+
+	/**
+	 * Benchmark only
+	 */
+
+	/**
+	 * Hand a frame to the rx handler, as if it was received at the current time
+	 */
+	public void receive(byte[] data, int length, int rssi) {
+		rxHandler.invoke(0, data, length, rssi, Time.currentTicks());
+	}
+
+	/**
+	 * Tell the tx handler the latest transmission has completed, at the current time
+	 */
+	public void transmitted() {
+		txHandler.invoke(0, txData, txLength, 0, Time.currentTicks());
+	}
+
+	public int getTxLength() {
+		return txLength;
+	}
+
+	public int getTxFrames() {
+		return txFrames;
+	}
+}
@@ -0,0 +1,44 @@
+/**
+ * Benchmark stub for the Mote Runner time API, the clock
+ * only moves when the benchmark sets it, one tick is one microsecond
+ *
+ */
+
+package com.ibm.saguaro.system;
+
+public class Time {
+	public final static int MICROSECS = 0;
+	public final static int MILLISECS = 1;
+	public final static int SECONDS = 2;
+
+	private final static long[] TICKS_PER_UNIT = new long[]{1L, 1000L, 1000000L};
+
+	private static long ticks = 0;
+
+	public static long currentTicks() {
+		return ticks;
+	}
+
+	public static long currentTime(int unit) {
+		return fromTickSpan(unit, ticks);
+	}
+
+	public static long toTickSpan(int unit, long span) {
+		return span * TICKS_PER_UNIT[unit];
+	}
+
+	public static long fromTickSpan(int unit, long ticks) {
+		return ticks / TICKS_PER_UNIT[unit];
+	}
+
+	/**
+	 * Benchmark only
+	 */
+
+	/**
+	 * @param time	new value of the clock, in ticks
+	 */
+	public static void setTicks(long time) {
+		ticks = time;
+	}
+}
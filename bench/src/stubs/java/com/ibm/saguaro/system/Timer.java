@@ -0,0 +1,59 @@
+/**
+ * Benchmark stub for the Mote Runner timer, alarms are only
+ * recorded, they go off when the benchmark fires the timer
+ *
+ */
+
+package com.ibm.saguaro.system;
+
+public class Timer {
+	private TimerEvent callback;
+	private byte param;
+	private boolean armed;
+	private long alarmTime;
+
+	public void setCallback(TimerEvent callback) {
+		this.callback = callback;
+	}
+
+	public void setParam(byte param) {
+		this.param = param;
+	}
+
+	public byte getParam() {
+		return param;
+	}
+
+	public void setAlarmTime(long time) {
+		alarmTime = time;
+		armed = true;
+	}
+
+	public void setAlarmBySpan(long span) {
+		setAlarmTime(Time.currentTicks() + span);
+	}
+
+	public void cancelAlarm() {
+		armed = false;
+	}
+
+	/**
+	 * Benchmark only
+	 */
+
+	public boolean isArmed() {
+		return armed;
+	}
+
+	public long getAlarmTime() {
+		return alarmTime;
+	}
+
+	/**
+	 * Invoke the callback as if the alarm went off, at the current time
+	 */
+	public void fire() {
+		armed = false;
+		callback.invoke(param, Time.currentTicks());
+	}
+}
@@ -0,0 +1,141 @@
+/**
+ * Tests of the frame ring buffer, the occupancy and order on one thread
+ * and a producer and a consumer thread sharing the ring, where every
+ * frame has to arrive whole, in order, or be counted as dropped
+ *
+ */
+
+package embs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class FrameBufferTest {
+	private final static int PAYLOAD = 8;
+
+	/**
+	 * Frames pushed by the producer thread in the stress test
+	 */
+	private final static int STRESS_FRAMES = 2000000;
+
+	private static byte[] payload(int value) {
+		byte[] data = new byte[PAYLOAD];
+		for (int i = 0; i < PAYLOAD; i++)
+			data[i] = (byte)(value >> ((i & 3) * 8));
+		return data;
+	}
+
+	@Test
+	public void roundsCapacityUpToPowerOfTwo() {
+		assertEquals(1, new FrameBuffer(1, PAYLOAD).capacity());
+		assertEquals(4, new FrameBuffer(3, PAYLOAD).capacity());
+		assertEquals(4, new FrameBuffer(4, PAYLOAD).capacity());
+		assertEquals(8, new FrameBuffer(5, PAYLOAD).capacity());
+	}
+
+	@Test
+	public void pullsInArrivalOrder() {
+		FrameBuffer buffer = new FrameBuffer(4, PAYLOAD);
+		assertTrue(buffer.isEmpty());
+		assertNull(buffer.pull());
+
+		for (int i = 0; i < 3; i++)
+			assertEquals(-1, buffer.push(0x11 + i, i, payload(i), 0, 1, 100 + i));
+		assertEquals(3, buffer.count());
+
+		for (int i = 0; i < 3; i++) {
+			Frame frame = buffer.pull();
+			assertEquals(0x11 + i, frame.getPanID());
+			assertEquals(i, frame.getAddress());
+			assertEquals(1, frame.getPayloadLength());
+			assertEquals((byte)i, frame.getPayloadByteAtIndex(0));
+			assertEquals(100 + i, frame.getTime());
+		}
+		assertTrue(buffer.isEmpty());
+		assertNull(buffer.pull());
+	}
+
+	@Test
+	public void dropsNewFrameWhenFull() {
+		FrameBuffer buffer = new FrameBuffer(4, PAYLOAD);
+		for (int i = 0; i < 4; i++)
+			assertEquals(-1, buffer.push(0x11, i, payload(i), 0, 1, i));
+
+		assertEquals(0x14, buffer.push(0x14, 9, payload(9), 0, 1, 9));
+		assertEquals(1, buffer.getDropCount());
+		assertEquals(4, buffer.count());
+
+		// The oldest frame is kept, the new one is the one lost
+		assertEquals(0, buffer.pull().getAddress());
+		assertEquals(-1, buffer.push(0x11, 4, payload(4), 0, 1, 4));
+		for (int i = 1; i <= 4; i++)
+			assertEquals(i, buffer.pull().getAddress());
+		assertEquals(1, buffer.getDropCount());
+	}
+
+	@Test
+	public void peeksAndRemovesAcrossTheWrap() {
+		FrameBuffer buffer = new FrameBuffer(4, PAYLOAD);
+		for (int round = 0; round < 10; round++) {
+			for (int i = 0; i < 3; i++)
+				buffer.push(0x11, round * 3 + i, payload(i), 0, 1, 0);
+
+			assertEquals(round * 3 + 2, buffer.peek(2).getAddress());
+			assertNull(buffer.peek(3));
+			assertEquals(round * 3, buffer.peek(0).getAddress());
+
+			buffer.remove(2);
+			assertEquals(1, buffer.count());
+			assertEquals(round * 3 + 2, buffer.pull().getAddress());
+		}
+
+		buffer.push(0x11, 1, payload(1), 0, 1, 0);
+		buffer.remove(5);
+		assertTrue(buffer.isEmpty());
+	}
+
+	@Test
+	public void handsOverFramesBetweenTwoThreads() throws InterruptedException {
+		final FrameBuffer buffer = new FrameBuffer(4, PAYLOAD);
+
+		Thread producer = new Thread(new Runnable() {
+			public void run() {
+				byte[] data = new byte[PAYLOAD];
+				for (int i = 0; i < STRESS_FRAMES; i++) {
+					for (int j = 0; j < PAYLOAD; j++)
+						data[j] = (byte)(i >> ((j & 3) * 8));
+					buffer.push(0x11, i & 0xFFFF, data, 0, PAYLOAD, i);
+				}
+			}
+		});
+
+		producer.start();
+
+		// Consumer, every frame has to be newer than the last and whole
+		long last = -1;
+		int pulled = 0;
+		while (producer.isAlive() || !buffer.isEmpty()) {
+			Frame frame = buffer.pull();
+			if (frame == null)
+				continue;
+
+			long time = frame.getTime();
+			assertTrue("frame " + time + " after " + last, time > last);
+			assertEquals(time & 0xFFFF, frame.getAddress());
+			assertEquals(PAYLOAD, frame.getPayloadLength());
+			for (int j = 0; j < PAYLOAD; j++)
+				assertEquals((byte)(time >> ((j & 3) * 8)), frame.getPayloadByteAtIndex(j));
+
+			last = time;
+			pulled++;
+		}
+		producer.join();
+
+		assertFalse(pulled == 0);
+		assertEquals(STRESS_FRAMES, pulled + buffer.getDropCount());
+	}
+}
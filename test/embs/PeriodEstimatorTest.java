@@ -0,0 +1,133 @@
+/**
+ * Tests of the period estimator, learning a period from two arrivals,
+ * following drift across missed frames, replacing a period that several
+ * outliers disagree with and keeping a gap that might hide a frame
+ *
+ */
+
+package embs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class PeriodEstimatorTest {
+	private final static long MIN_PERIOD = 500;
+	private final static long TOLERANCE = 20;
+	private final static long PERIOD = 1000;
+
+	private static PeriodEstimator estimator() {
+		return new PeriodEstimator(MIN_PERIOD, TOLERANCE);
+	}
+
+	@Test
+	public void learnsPeriodFromTwoArrivals() {
+		PeriodEstimator estimator = estimator();
+		assertFalse(estimator.hasArrival());
+
+		estimator.add(5000);
+		assertTrue(estimator.hasArrival());
+		assertFalse(estimator.isKnown());
+
+		// Gaps shorter than the shortest period are duplicates
+		estimator.add(5100);
+		assertFalse(estimator.isKnown());
+
+		estimator.add(5000 + PERIOD);
+		assertTrue(estimator.isKnown());
+		assertEquals(PERIOD, estimator.getPeriod());
+		assertEquals(5000 + PERIOD, estimator.getLastArrival());
+		assertEquals(1, estimator.getSamples());
+	}
+
+	@Test
+	public void followsDriftAcrossMissedFrames() {
+		PeriodEstimator estimator = estimator();
+		estimator.add(0);
+		estimator.add(PERIOD);
+
+		// The source runs 8 ticks slow, every other frame is missed
+		long time = PERIOD;
+		for (int i = 0; i < 20; i++) {
+			time += 2 * (PERIOD + 8);
+			estimator.add(time);
+		}
+
+		// A gain of 1/4 stops short by less than 4 ticks a gap
+		assertTrue(estimator.getPeriod() > PERIOD + 4);
+		assertTrue(estimator.getPeriod() <= PERIOD + 8);
+		assertEquals(21, estimator.getSamples());
+		assertEquals(0, estimator.getError(time + 3 * estimator.getPeriod()));
+		assertEquals(10, estimator.getError(time + 3 * estimator.getPeriod() - 10));
+	}
+
+	@Test
+	public void tracksJitterOverFullWindow() {
+		PeriodEstimator estimator = estimator();
+		estimator.add(0);
+		estimator.add(PERIOD);
+
+		long[] errors = new long[]{4, -6, 2, 0, -3, 5, -1, 2};
+		for (int i = 0; i < errors.length; i++) {
+			assertFalse(estimator.hasJitter());
+			estimator.add((i + 2) * PERIOD + errors[i]);
+		}
+
+		assertTrue(estimator.hasJitter());
+		assertTrue(estimator.getJitter() > 0);
+		assertTrue(estimator.getJitter() <= 2 * TOLERANCE);
+	}
+
+	@Test
+	public void replacesPeriodOnlyWhenOutliersAgree() {
+		PeriodEstimator estimator = estimator();
+		estimator.add(0);
+		estimator.add(PERIOD);
+
+		// One gap of 1.5 periods does not change the period
+		estimator.add(2500);
+		assertEquals(PERIOD, estimator.getPeriod());
+
+		// Three of them agree on a period of 500, the source was learnt from a multiple
+		estimator.add(4000);
+		assertEquals(PERIOD, estimator.getPeriod());
+		estimator.add(5500);
+		assertEquals(500, estimator.getPeriod());
+	}
+
+	@Test
+	public void skipsFirstGapThatMightHideFrame() {
+		PeriodEstimator estimator = estimator();
+		estimator.add(0);
+
+		// A frame at 500 would have arrived while away, so 1000 might be two periods
+		estimator.leave(200);
+		estimator.rejoin(800);
+		estimator.add(PERIOD);
+		assertFalse(estimator.isKnown());
+
+		// Listening throughout, the next gap is used
+		estimator.add(2 * PERIOD);
+		assertTrue(estimator.isKnown());
+		assertEquals(PERIOD, estimator.getPeriod());
+	}
+
+	@Test
+	public void restoresPeriodAndJitter() {
+		PeriodEstimator estimator = estimator();
+		estimator.restore(PERIOD, 15);
+		assertTrue(estimator.isKnown());
+		assertFalse(estimator.hasArrival());
+		assertTrue(estimator.hasJitter());
+		assertEquals(15, estimator.getJitter());
+
+		estimator.restore(PERIOD, -1);
+		assertFalse(estimator.hasJitter());
+
+		estimator.reset();
+		assertFalse(estimator.isKnown());
+		assertEquals(0, estimator.getError(1234));
+	}
+}
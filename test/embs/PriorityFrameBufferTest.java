@@ -0,0 +1,99 @@
+/**
+ * Tests of the per-channel frame buffer, the order frames are handed out
+ * in, the occupancy of the queues and which frame a full buffer gives up
+ *
+ */
+
+package embs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class PriorityFrameBufferTest {
+	private final static int PAYLOAD = 8;
+	private final static byte[] DATA = new byte[PAYLOAD];
+
+	@Test
+	public void pullsHigherPriorityQueuesFirst() {
+		PriorityFrameBuffer buffer = new PriorityFrameBuffer(6, PAYLOAD, 3);
+		buffer.push(2, 0x13, 20, DATA, 0, 1, 0);
+		buffer.push(0, 0x11, 0, DATA, 0, 1, 1);
+		buffer.push(1, 0x12, 10, DATA, 0, 1, 2);
+		buffer.push(0, 0x11, 1, DATA, 0, 1, 3);
+
+		assertEquals(4, buffer.count());
+		assertEquals(2, buffer.count(0));
+		assertEquals(1, buffer.count(1));
+		assertEquals(1, buffer.count(2));
+
+		assertEquals(10, buffer.peek(2).getAddress());
+		assertNull(buffer.peek(4));
+
+		int[] order = new int[]{0, 1, 10, 20};
+		for (int i = 0; i < order.length; i++)
+			assertEquals(order[i], buffer.pull().getAddress());
+
+		assertTrue(buffer.isEmpty());
+		assertNull(buffer.pull());
+	}
+
+	@Test
+	public void evictsOldestOfLowestPriorityWhenFull() {
+		PriorityFrameBuffer buffer = new PriorityFrameBuffer(3, PAYLOAD, 3);
+		assertEquals(-1, buffer.push(2, 0x13, 20, DATA, 0, 1, 0));
+		assertEquals(-1, buffer.push(2, 0x13, 21, DATA, 0, 1, 1));
+		assertEquals(-1, buffer.push(1, 0x12, 10, DATA, 0, 1, 2));
+
+		// The oldest frame of channel 2 makes room for channel 0
+		assertEquals(0x13, buffer.push(0, 0x11, 0, DATA, 0, 1, 3));
+		assertEquals(3, buffer.count());
+		assertEquals(1, buffer.count(2));
+		assertEquals(21, buffer.peek(2).getAddress());
+
+		// Then the only one left of channel 2, then channel 1
+		assertEquals(0x13, buffer.push(0, 0x11, 1, DATA, 0, 1, 4));
+		assertEquals(0x12, buffer.push(0, 0x11, 2, DATA, 0, 1, 5));
+		assertEquals(3, buffer.count(0));
+		assertEquals(0, buffer.count(1));
+		assertEquals(0, buffer.count(2));
+	}
+
+	@Test
+	public void dropsFrameOfLowerPriorityThanEverythingHeld() {
+		PriorityFrameBuffer buffer = new PriorityFrameBuffer(2, PAYLOAD, 3);
+		buffer.push(0, 0x11, 0, DATA, 0, 1, 0);
+		buffer.push(1, 0x12, 10, DATA, 0, 1, 1);
+
+		assertEquals(0x13, buffer.push(2, 0x13, 20, DATA, 0, 1, 2));
+		assertEquals(2, buffer.count());
+		assertEquals(0, buffer.count(2));
+
+		// A frame of the same priority as the lowest held evicts the oldest of its own queue
+		assertEquals(0x12, buffer.push(1, 0x12, 11, DATA, 0, 1, 3));
+		assertEquals(11, buffer.peek(1).getAddress());
+	}
+
+	@Test
+	public void removesInPullOrderAndReusesSlots() {
+		PriorityFrameBuffer buffer = new PriorityFrameBuffer(2, PAYLOAD, 2);
+		for (int round = 0; round < 10; round++) {
+			byte[] data = new byte[]{(byte)round};
+			buffer.push(1, 0x12, 10 + round, data, 0, 1, round);
+			buffer.push(0, 0x11, round, data, 0, 1, round);
+
+			assertEquals(round, buffer.peek(0).getAddress());
+			buffer.remove(1);
+			assertEquals(1, buffer.count());
+
+			Frame frame = buffer.pull();
+			assertEquals(10 + round, frame.getAddress());
+			assertEquals((byte)round, frame.getPayloadByteAtIndex(0));
+		}
+
+		buffer.remove(3);
+		assertTrue(buffer.isEmpty());
+	}
+}
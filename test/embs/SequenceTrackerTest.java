@@ -0,0 +1,81 @@
+/**
+ * Tests of the sequence tracker, duplicates, missed frames and the wrap
+ * of the 8 bit sequence numbers, with and without the period of the source
+ *
+ */
+
+package embs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class SequenceTrackerTest {
+	private final static long PERIOD = 1000;
+
+	@Test
+	public void dropsDuplicates() {
+		SequenceTracker tracker = new SequenceTracker(3);
+		assertTrue(tracker.accept(0x12, 7, 0, PERIOD));
+		assertFalse(tracker.accept(0x12, 7, 10, PERIOD));
+		assertTrue(tracker.accept(0x12, 8, PERIOD, PERIOD));
+		assertEquals(1, tracker.getDuplicates(0x12));
+		assertEquals(0, tracker.getLossRate(0x12));
+	}
+
+	@Test
+	public void countsMissedFramesAcrossWrap() {
+		SequenceTracker tracker = new SequenceTracker(3);
+		tracker.accept(0x12, 254, 0, 0);
+
+		// 0, 1 and 2 were missed between 255 and 3, 3 of 6 frames
+		assertTrue(tracker.accept(0x12, 255, PERIOD, 0));
+		assertTrue(tracker.accept(0x12, 3, 5 * PERIOD, 0));
+		assertEquals(50, tracker.getLossRate(0x12));
+		assertEquals(0, tracker.getDuplicates(0x12));
+	}
+
+	@Test
+	public void periodTellsFullWrapFromDuplicate() {
+		SequenceTracker tracker = new SequenceTracker(3);
+		tracker.accept(0x12, 40, 0, PERIOD);
+
+		// Exactly 256 periods later the same number is a new frame, 255 were lost
+		assertTrue(tracker.accept(0x12, 40, 256 * PERIOD, PERIOD));
+		assertEquals(0, tracker.getDuplicates(0x12));
+		assertEquals(99, tracker.getLossRate(0x12));
+
+		// Without the period it is taken for a duplicate
+		SequenceTracker unknown = new SequenceTracker(3);
+		unknown.accept(0x12, 40, 0, 0);
+		assertFalse(unknown.accept(0x12, 40, 256 * PERIOD, 0));
+		assertEquals(1, unknown.getDuplicates(0x12));
+	}
+
+	@Test
+	public void periodAddsWrapsToShortJump() {
+		SequenceTracker tracker = new SequenceTracker(3);
+		tracker.accept(0x12, 10, 0, PERIOD);
+
+		// 2 numbers on, but 258 periods since, so 257 frames were missed
+		assertTrue(tracker.accept(0x12, 12, 258 * PERIOD, PERIOD));
+		assertEquals(100 * 257 / 259, tracker.getLossRate(0x12));
+	}
+
+	@Test
+	public void countsForwardedFramesAndIgnoresSourcesBeyondCapacity() {
+		SequenceTracker tracker = new SequenceTracker(1);
+		tracker.accept(0x12, 1, 0, 0);
+		tracker.accept(0x12, 2, PERIOD, 0);
+		tracker.forwarded(0x12);
+		assertEquals(50, tracker.getForwardRate(0x12));
+
+		// Not tracked, so never a duplicate
+		assertTrue(tracker.accept(0x13, 1, 0, 0));
+		assertTrue(tracker.accept(0x13, 1, 10, 0));
+		assertEquals(0, tracker.getDuplicates(0x13));
+		assertEquals(0, tracker.getLossRate(0x13));
+	}
+}
@@ -0,0 +1,169 @@
+/**
+ * Tests of the sink estimator against beacons of a sink with a known
+ * timing, the fit across sync phases, its bounds and a restored estimate
+ *
+ */
+
+package embs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class SinkEstimatorTest {
+	private final static long MIN_INTERVAL = 250;
+	private final static long MAX_INTERVAL = 1500;
+	private final static long TOLERANCE = 20;
+
+	/**
+	 * Timing of the sink, the first reception phase starts at START
+	 */
+	private final static long INTERVAL = 700;
+	private final static int BEACON_COUNT = 5;
+	private final static long PERIOD = INTERVAL * (BEACON_COUNT + 6);
+	private final static long START = 100000;
+
+	private static long beacon(int phase, int n) {
+		return START + phase * PERIOD - n * INTERVAL;
+	}
+
+	private static SinkEstimator estimator() {
+		return new SinkEstimator(MIN_INTERVAL, MAX_INTERVAL, TOLERANCE);
+	}
+
+	@Test
+	public void fitsOneSyncPhase() {
+		SinkEstimator estimator = estimator();
+		estimator.add(BEACON_COUNT, beacon(0, BEACON_COUNT));
+		assertFalse(estimator.isTrusted());
+
+		for (int n = BEACON_COUNT - 1; n >= 1; n--)
+			estimator.add(n, beacon(0, n));
+
+		assertTrue(estimator.isTrusted());
+		assertEquals(INTERVAL, estimator.getInterval());
+		assertEquals(BEACON_COUNT, estimator.getBeaconCount());
+		assertEquals(PERIOD, estimator.getPeriod());
+		assertEquals(START, estimator.getReceptionStart());
+		assertEquals(1, estimator.getPhasesSeen());
+		assertEquals(0, estimator.getUncertainty());
+		assertEquals(100, estimator.getConfidence());
+	}
+
+	@Test
+	public void placesBeaconsOfLaterPhases() {
+		SinkEstimator estimator = estimator();
+		for (int n = BEACON_COUNT; n >= 1; n--)
+			estimator.add(n, beacon(0, n));
+
+		// A phase that was not heard at all is skipped over
+		estimator.add(3, beacon(2, 3));
+		estimator.add(2, beacon(2, 2));
+
+		assertEquals(2, estimator.getPhasesSeen());
+		assertEquals(START + 2 * PERIOD, estimator.getReceptionStart());
+		assertEquals(0, estimator.getError(1, beacon(5, 1)));
+		assertEquals(100, estimator.getError(1, beacon(5, 1) + 100));
+	}
+
+	@Test
+	public void knowsBeaconCountFromFullCountdown() {
+		// Listening for longer than an interval before the first beacon, so it tops the countdown
+		SinkEstimator estimator = estimator();
+		estimator.listen(beacon(0, BEACON_COUNT) - 2 * INTERVAL);
+		estimator.add(BEACON_COUNT, beacon(0, BEACON_COUNT));
+		assertFalse(estimator.isBeaconCountKnown());
+
+		estimator.add(BEACON_COUNT - 1, beacon(0, BEACON_COUNT - 1));
+		assertTrue(estimator.isBeaconCountKnown());
+		assertEquals(BEACON_COUNT, estimator.getBeaconCount());
+	}
+
+	@Test
+	public void doubtsBeaconCountOfPhaseJoinedPartWay() {
+		// Listening from half an interval before beacon 3, beacons 5 and 4 could have gone unheard
+		SinkEstimator estimator = estimator();
+		estimator.listen(beacon(0, 3) - INTERVAL / 2);
+		for (int n = 3; n >= 1; n--)
+			estimator.add(n, beacon(0, n));
+
+		assertTrue(estimator.isTrusted());
+		assertFalse(estimator.isBeaconCountKnown());
+		assertEquals(3, estimator.getBeaconCount());
+
+		// The countdown of the next phase starts from N, placed by the period N = 3 gives
+		estimator.add(BEACON_COUNT, beacon(1, BEACON_COUNT));
+		assertEquals(BEACON_COUNT, estimator.getBeaconCount());
+		estimator.add(BEACON_COUNT - 1, beacon(1, BEACON_COUNT - 1));
+		assertTrue(estimator.isBeaconCountKnown());
+		assertEquals(PERIOD, estimator.getPeriod());
+		assertEquals(START + PERIOD, estimator.getReceptionStart());
+	}
+
+	@Test
+	public void takesOnlyLatestListenBeforeFirstBeacon() {
+		SinkEstimator estimator = estimator();
+		estimator.listen(0);
+		estimator.listen(beacon(0, 2) - 10);
+		estimator.add(2, beacon(0, 2));
+		estimator.add(1, beacon(0, 1));
+		assertFalse(estimator.isBeaconCountKnown());
+
+		// Listening again once beacons are in changes nothing
+		estimator.reset();
+		estimator.listen(0);
+		estimator.add(2, beacon(0, 2));
+		estimator.listen(beacon(0, 1) - 10);
+		estimator.add(1, beacon(0, 1));
+		assertTrue(estimator.isBeaconCountKnown());
+	}
+
+	@Test
+	public void absorbsJitterOfSingleBeacons() {
+		SinkEstimator estimator = estimator();
+		long[] jitter = new long[]{6, -4, 0, 8, -6};
+		for (int n = BEACON_COUNT; n >= 1; n--)
+			estimator.add(n, beacon(0, n) + jitter[n - 1]);
+
+		assertTrue(estimator.isTrusted());
+		assertTrue(Math.abs(estimator.getInterval() - INTERVAL) <= 3);
+		assertTrue(Math.abs(estimator.getReceptionStart() - START) <= TOLERANCE / 2);
+		assertTrue(estimator.getUncertainty() > 0);
+		assertTrue(estimator.getUncertainty() < TOLERANCE);
+		assertTrue(estimator.getConfidence() > 0);
+		assertTrue(estimator.getConfidence() < 100);
+	}
+
+	@Test
+	public void distrustsIntervalOutsideSpec() {
+		SinkEstimator estimator = estimator();
+		estimator.add(2, START - 2 * 100);
+		estimator.add(1, START - 100);
+		assertFalse(estimator.isTrusted());
+		assertEquals(0, estimator.getError(1, START));
+	}
+
+	@Test
+	public void restoredEstimatePlacedByOneBeacon() {
+		SinkEstimator estimator = estimator();
+		estimator.restore(INTERVAL, BEACON_COUNT);
+		assertTrue(estimator.isRestored());
+		assertTrue(estimator.isBeaconCountKnown());
+		assertFalse(estimator.isTrusted());
+
+		estimator.add(3, beacon(7, 3));
+		assertTrue(estimator.isTrusted());
+		assertEquals(PERIOD, estimator.getPeriod());
+		assertEquals(START + 7 * PERIOD, estimator.getReceptionStart());
+
+		estimator.reset();
+		assertFalse(estimator.isRestored());
+		assertFalse(estimator.isTrusted());
+		assertEquals(0, estimator.getBeaconCount());
+
+		estimator.restore(MAX_INTERVAL + 1, BEACON_COUNT);
+		assertFalse(estimator.isRestored());
+	}
+}
@@ -0,0 +1,203 @@
+/**
+ * Tests of the timer wheel on a platform whose clock the test moves,
+ * which alarms share a wake-up, the order they go off in and how the
+ * one timer of the platform is armed
+ *
+ */
+
+package embs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.ibm.saguaro.system.TimerEvent;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class TimerWheelTest {
+	private final static long COALESCE = 100;
+
+	/**
+	 * Clock and timer of a platform, nothing else is used by the wheel
+	 */
+	private static class Clock implements RelayPlatform {
+		long now = 0;
+		long alarm = -1;
+
+		public void open(RelayEngine engine) {
+		}
+
+		public long currentTicks() {
+			return now;
+		}
+
+		public void setAlarmTime(long time) {
+			alarm = time;
+		}
+
+		public void setChannel(byte channel) {
+		}
+
+		public void setPanId(int panId) {
+		}
+
+		public void startRx(int mode, long start, long end) {
+		}
+
+		public void stopRx() {
+		}
+
+		public void transmit(int mode, byte[] data, int offset, int len) {
+		}
+
+		public boolean hasMemory() {
+			return false;
+		}
+
+		public int readMemory(int address, byte[] data, int offset, int len) {
+			return 0;
+		}
+
+		public int writeMemory(int address, byte[] data, int offset, int len) {
+			return 0;
+		}
+	}
+
+	private Clock clock;
+	private TimerWheel wheel;
+
+	/**
+	 * Events and times the callback was invoked with, in order
+	 */
+	private int[] fired = new int[16];
+	private long[] firedAt = new long[16];
+	private int firedCount;
+
+	/**
+	 * Event the callback sets for now when it goes off, -1 for none
+	 */
+	private int chained = -1;
+
+	@Before
+	public void setUp() {
+		clock = new Clock();
+		wheel = new TimerWheel(4, 4, 64, COALESCE, clock, new TimerEvent(null) {
+			public void invoke(byte param, long time) {
+				fired[firedCount] = param;
+				firedAt[firedCount] = time;
+				firedCount++;
+				if (param == 0 && chained >= 0)
+					wheel.setAlarmTime(chained, clock.now);
+			}
+		});
+	}
+
+	/**
+	 * Move the clock to the alarm of the platform and let the timer go off
+	 */
+	private void wakeUp() {
+		clock.now = clock.alarm;
+		wheel.onTimer(clock.now);
+	}
+
+	@Test
+	public void coalescesAlarmsWithinSpan() {
+		wheel.setAlarmTime(2, 1200);
+		wheel.setAlarmTime(1, 1050);
+		wheel.setAlarmTime(0, 1000);
+		assertEquals(1000, clock.alarm);
+
+		wakeUp();
+		assertEquals(1, wheel.getWakeupCount());
+		assertEquals(2, firedCount);
+		assertEquals(0, fired[0]);
+		assertEquals(1000, firedAt[0]);
+		assertEquals(1, fired[1]);
+		assertEquals(1050, firedAt[1]);
+
+		// The alarm beyond the span gets a wake-up of its own
+		assertTrue(wheel.isArmed(2));
+		assertEquals(1200, clock.alarm);
+		wakeUp();
+		assertEquals(2, wheel.getWakeupCount());
+		assertEquals(3, wheel.getFiredCount());
+	}
+
+	@Test
+	public void neverCoalescesExactAlarms() {
+		wheel.setExact(1, true);
+		wheel.setAlarmTime(0, 1000);
+		wheel.setAlarmTime(1, 1050);
+
+		wakeUp();
+		assertEquals(1, firedCount);
+		assertTrue(wheel.isArmed(1));
+		assertEquals(1050, clock.alarm);
+
+		wakeUp();
+		assertEquals(2, firedCount);
+		assertEquals(1050, firedAt[1]);
+	}
+
+	@Test
+	public void firesEqualAlarmsInOrderSet() {
+		wheel.setAlarmTime(3, 500);
+		wheel.setAlarmTime(1, 500);
+		wheel.setAlarmTime(2, 500);
+
+		wakeUp();
+		assertEquals(3, firedCount);
+		assertEquals(3, fired[0]);
+		assertEquals(1, fired[1]);
+		assertEquals(2, fired[2]);
+	}
+
+	@Test
+	public void replacesAndCancelsAlarms() {
+		wheel.setAlarmTime(0, 1000);
+		wheel.setAlarmTime(1, 3000);
+		wheel.setAlarmTime(0, 2000);
+		wheel.cancelAlarm(1);
+		assertFalse(wheel.isArmed(1));
+		assertEquals(2000, wheel.getAlarmTime(0));
+
+		// The timer stays armed for the replaced alarm and finds nothing due
+		wakeUp();
+		assertEquals(0, firedCount);
+		assertEquals(2000, clock.alarm);
+
+		wakeUp();
+		assertEquals(1, firedCount);
+		assertEquals(2000, firedAt[0]);
+		assertFalse(wheel.isArmed(0));
+	}
+
+	@Test
+	public void findsAlarmsBeyondOneRound() {
+		// A round of the wheel is 4 buckets of 64 ticks
+		wheel.setAlarmTime(1, 10000);
+		wheel.setAlarmTime(0, 100);
+
+		wakeUp();
+		assertEquals(1, firedCount);
+		assertEquals(10000, clock.alarm);
+
+		wakeUp();
+		assertEquals(2, firedCount);
+		assertEquals(1, fired[1]);
+	}
+
+	@Test
+	public void handlesAlarmSetFromCallbackInSameWakeup() {
+		chained = 3;
+		wheel.setAlarmTime(0, 1000);
+
+		wakeUp();
+		assertEquals(1, wheel.getWakeupCount());
+		assertEquals(2, firedCount);
+		assertEquals(3, fired[1]);
+		assertEquals(1000, firedAt[1]);
+	}
+}
@@ -0,0 +1,178 @@
+/**
+ * Tests of the timing store on a platform whose non-volatile memory is
+ * an array, the timing saved and restored into fresh estimators, when a
+ * save is due and the copies that are not restored
+ *
+ */
+
+package embs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class TimingStoreTest {
+	private final static int CHANNEL_COUNT = 3;
+	private final static int SINK = 0;
+	private final static long MIN_PERIOD = 500;
+	private final static long TOLERANCE = 2;
+
+	private final static long INTERVAL = 700;
+	private final static int BEACON_COUNT = 5;
+	private final static long[] PERIODS = { 0, 5500, 6900 };
+	private final static long[] JITTERS = { -1, 12, -1 };
+
+	/**
+	 * Non-volatile memory of a platform, nothing else is used by the store
+	 */
+	private static class Memory implements RelayPlatform {
+		byte[] data = new byte[256];
+
+		public void open(RelayEngine engine) {
+		}
+
+		public long currentTicks() {
+			return 0;
+		}
+
+		public void setAlarmTime(long time) {
+		}
+
+		public void setChannel(byte channel) {
+		}
+
+		public void setPanId(int panId) {
+		}
+
+		public void startRx(int mode, long start, long end) {
+		}
+
+		public void stopRx() {
+		}
+
+		public void transmit(int mode, byte[] data, int offset, int len) {
+		}
+
+		public boolean hasMemory() {
+			return true;
+		}
+
+		public int readMemory(int address, byte[] data, int offset, int len) {
+			int count = Math.min(len, this.data.length - address);
+			System.arraycopy(this.data, address, data, offset, count);
+			return count;
+		}
+
+		public int writeMemory(int address, byte[] data, int offset, int len) {
+			int count = Math.min(len, this.data.length - address);
+			System.arraycopy(data, offset, this.data, address, count);
+			return count;
+		}
+	}
+
+	private Memory memory = new Memory();
+
+	private TimingStore store() {
+		return new TimingStore(memory, CHANNEL_COUNT, SINK, MIN_PERIOD, TOLERANCE);
+	}
+
+	private static SinkEstimator sink() {
+		return new SinkEstimator(250, 1500, 20);
+	}
+
+	private static PowerController power() {
+		return new PowerController(20, 4, 4, 24);
+	}
+
+	private static PeriodEstimator[] sources() {
+		PeriodEstimator[] sources = new PeriodEstimator[CHANNEL_COUNT];
+		for (int i = 0; i < CHANNEL_COUNT; i++)
+			sources[i] = new PeriodEstimator(MIN_PERIOD, 50);
+		return sources;
+	}
+
+	/**
+	 * Save the timing of the constants, with a known tx power
+	 */
+	private void save(TimingStore store) {
+		SinkEstimator sink = sink();
+		sink.restore(INTERVAL, BEACON_COUNT);
+		PowerController power = power();
+		power.restore(0x8C, 8);
+		PeriodEstimator[] sources = sources();
+		for (int i = 1; i < CHANNEL_COUNT; i++)
+			sources[i].restore(PERIODS[i], JITTERS[i]);
+
+		assertTrue(store.isChanged(sink, power, sources));
+		store.save(sink, power, sources);
+		assertFalse(store.isChanged(sink, power, sources));
+	}
+
+	@Test
+	public void restoresWhatWasSaved() {
+		save(store());
+
+		SinkEstimator sink = sink();
+		PowerController power = power();
+		PeriodEstimator[] sources = sources();
+		assertTrue(store().restore(sink, power, sources));
+
+		assertTrue(sink.isRestored());
+		assertEquals(INTERVAL, sink.getInterval());
+		assertEquals(BEACON_COUNT, sink.getBeaconCount());
+		assertTrue(power.isKnown());
+		assertEquals(0x8C, power.getLevel());
+		assertEquals(8, power.getAdjustment());
+		for (int i = 1; i < CHANNEL_COUNT; i++)
+			assertEquals(PERIODS[i], sources[i].getPeriod());
+		assertTrue(sources[1].hasJitter());
+		assertEquals(JITTERS[1], sources[1].getJitter());
+		assertFalse(sources[2].hasJitter());
+	}
+
+	@Test
+	public void savesAgainOnlyBeyondTolerance() {
+		TimingStore store = store();
+		save(store);
+
+		SinkEstimator sink = sink();
+		PowerController power = power();
+		PeriodEstimator[] sources = sources();
+		assertTrue(store.restore(sink, power, sources));
+		assertFalse(store.isChanged(sink, power, sources));
+
+		sources[2].restore(PERIODS[2] + TOLERANCE, -1);
+		assertFalse(store.isChanged(sink, power, sources));
+
+		sources[2].restore(PERIODS[2] + TOLERANCE + 1, -1);
+		assertTrue(store.isChanged(sink, power, sources));
+
+		// A jitter that becomes known is a change whatever its size
+		sources[2].restore(PERIODS[2], 0);
+		assertTrue(store.isChanged(sink, power, sources));
+	}
+
+	@Test
+	public void skipsCorruptCopy() {
+		save(store());
+		memory.data[20] ^= 0x01;
+
+		SinkEstimator sink = sink();
+		assertFalse(store().restore(sink, power(), sources()));
+		assertFalse(sink.isRestored());
+	}
+
+	@Test
+	public void skipsCopyOfOtherChannelCount() {
+		save(store());
+		TimingStore other = new TimingStore(memory, CHANNEL_COUNT + 1, SINK, MIN_PERIOD, TOLERANCE);
+		assertFalse(other.restore(sink(), power(), new PeriodEstimator[CHANNEL_COUNT + 1]));
+	}
+
+	@Test
+	public void skipsEmptyMemory() {
+		assertFalse(store().restore(sink(), power(), sources()));
+	}
+}
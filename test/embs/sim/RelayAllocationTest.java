@@ -0,0 +1,46 @@
+/**
+ * Runs the relay of a rig through a demo and checks that it stops creating
+ * frames and sessions once it is running, every rx/tx cycle after the
+ * warm-up reuses the pooled ones
+ *
+ */
+
+package embs.sim;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.ibm.saguaro.system.Time;
+
+import org.junit.Test;
+
+public class RelayAllocationTest {
+	/**
+	 * Discovery and the first sync phases are done well within the warm-up
+	 */
+	private final static long WARM_UP_SECONDS = 120;
+	private final static long DEMO_SECONDS = 900;
+
+	@Test
+	public void allocatesNothingAfterWarmUp() {
+		Simulator simulator = new Simulator();
+		Rig rig = new Rig(simulator);
+		rig.setDemoLength(DEMO_SECONDS);
+		rig.place(0.0, 0.0);
+
+		simulator.runUntil(Time.toTickSpan(Time.SECONDS, WARM_UP_SECONDS));
+		int frames = rig.getRelayFrameAllocations();
+		int sessions = rig.getRelaySessionAllocations();
+		int forwarded = rig.getInPhasePackets();
+		assertTrue(frames > 0);
+		assertTrue(sessions > 0);
+
+		rig.runDemo();
+
+		// Hundreds of frames received from the sources and sent on to the sink since the warm-up
+		assertTrue("forwarded " + (rig.getInPhasePackets() - forwarded), rig.getInPhasePackets() - forwarded > 200);
+		assertEquals(0, rig.getOutPhasePackets());
+		assertEquals("frames allocated", frames, rig.getRelayFrameAllocations());
+		assertEquals("sessions allocated", sessions, rig.getRelaySessionAllocations());
+	}
+}